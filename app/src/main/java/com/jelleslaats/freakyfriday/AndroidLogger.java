@@ -0,0 +1,30 @@
+package com.jelleslaats.freakyfriday;
+
+import android.util.Log;
+
+import com.jelleslaats.freakyfriday.protocol.ProtocolLog;
+
+/**
+ * Sends protocol logging to logcat.
+ */
+final class AndroidLogger implements ProtocolLog.Logger {
+	@Override
+	public void d(String tag, String message) {
+		Log.d(tag, message);
+	}
+
+	@Override
+	public void i(String tag, String message) {
+		Log.i(tag, message);
+	}
+
+	@Override
+	public void w(String tag, String message, Throwable error) {
+		Log.w(tag, message, error);
+	}
+
+	@Override
+	public void e(String tag, String message, Throwable error) {
+		Log.e(tag, message, error);
+	}
+}
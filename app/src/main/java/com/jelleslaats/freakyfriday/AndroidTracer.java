@@ -0,0 +1,88 @@
+package com.jelleslaats.freakyfriday;
+
+import android.os.Build;
+import android.os.Trace;
+import android.util.Log;
+
+import com.jelleslaats.freakyfriday.protocol.ProtocolTrace;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Sends protocol trace sections to the system trace. Async slices only got public API in
+ * Android 10, which is newer than we compile against, so they're called reflectively, through
+ * the hidden methods before that; if neither is there, slices are left out.
+ */
+final class AndroidTracer implements ProtocolTrace.Tracer {
+	private static final String TAG = AndroidTracer.class.getSimpleName();
+
+	// Trace.TRACE_TAG_APP, for the hidden methods
+	private static final long TRACE_TAG_APP = 1L << 12;
+
+	private final Method beginAsync;
+	private final Method endAsync;
+	private final boolean tagged;
+
+	AndroidTracer() {
+		Method begin = null;
+		Method end = null;
+		boolean tagged = false;
+		try {
+			if (Build.VERSION.SDK_INT >= 29) {
+				begin = Trace.class.getMethod("beginAsyncSection", String.class, int.class);
+				end = Trace.class.getMethod("endAsyncSection", String.class, int.class);
+			}
+			else {
+				begin = Trace.class.getMethod("asyncTraceBegin", long.class, String.class, int.class);
+				end = Trace.class.getMethod("asyncTraceEnd", long.class, String.class, int.class);
+				tagged = true;
+			}
+		}
+		catch (NoSuchMethodException e) {
+			Log.w(TAG, "No async trace sections", e);
+			begin = null;
+			end = null;
+		}
+		this.beginAsync = begin;
+		this.endAsync = end;
+		this.tagged = tagged;
+	}
+
+	@Override
+	public void beginSection(String name) {
+		Trace.beginSection(name);
+	}
+
+	@Override
+	public void endSection() {
+		Trace.endSection();
+	}
+
+	@Override
+	public void beginAsyncSection(String name, int cookie) {
+		invoke(beginAsync, name, cookie);
+	}
+
+	@Override
+	public void endAsyncSection(String name, int cookie) {
+		invoke(endAsync, name, cookie);
+	}
+
+	private void invoke(Method method, String name, int cookie) {
+		if (method == null) {
+			return;
+		}
+		try {
+			if (tagged) {
+				method.invoke(null, TRACE_TAG_APP, name, cookie);
+			}
+			else {
+				method.invoke(null, name, cookie);
+			}
+		}
+		catch (IllegalAccessException | InvocationTargetException e) {
+			Log.w(TAG, "Can't trace " + name, e);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.jelleslaats.freakyfriday;
+
+import android.content.res.Resources;
+import android.graphics.Paint;
+import android.os.Build;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.LruCache;
+
+import com.jelleslaats.freakyfriday.protocol.Metrics;
+
+import java.util.List;
+
+/**
+ * Card texts laid out ahead of time. The game-state thread lays out a new hand or set of
+ * responses right after reducing it, before it's rendered, so binding a row only has to draw.
+ * Layouts are kept by row ID and only used for the same text at the same width, so cards that
+ * stay in the hand are laid out once.
+ *
+ * Thread-safe. Each thread measures with its own paint, since text measuring isn't.
+ */
+final class CardLayouts {
+	private static final int MAX_LAYOUTS = 64;
+	private static final int TEXT_COLOR = 0xFF333333;
+
+	private final TextPaint gamePaint;
+	private final TextPaint mainPaint;
+	private final int padding;
+	private final LruCache<Long, StaticLayout> layouts = new LruCache<Long, StaticLayout>(MAX_LAYOUTS);
+	// what rows are laid out for; 0 until the list's width is known
+	private volatile int textWidth = 0;
+
+	CardLayouts(Resources resources) {
+		mainPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+		mainPaint.setTextSize(resources.getDimension(R.dimen.card_text_size));
+		mainPaint.setColor(TEXT_COLOR);
+		gamePaint = new TextPaint(mainPaint);
+		padding = resources.getDimensionPixelSize(R.dimen.card_padding);
+	}
+
+	// The padding rows leave around their text.
+	int getPadding() {
+		return padding;
+	}
+
+	/**
+	 * Sets the width of the list, so rows can be laid out before they're first bound. Main thread.
+	 */
+	void setRowWidth(int rowWidth) {
+		setTextWidth(rowWidth - 2 * padding);
+	}
+
+	private void setTextWidth(int width) {
+		if (width > 0 && width != textWidth) {
+			textWidth = width;
+			// nothing laid out for the old width fits any more
+			layouts.evictAll();
+		}
+	}
+
+	/**
+	 * Lays out the rows that aren't yet. Does nothing until the list's width is known. Game-state
+	 * thread.
+	 */
+	void prepare(List<CardRow> rows) {
+		Threads.assertGameThread();
+		int width = textWidth;
+		if (width <= 0) {
+			return;
+		}
+		long start = System.nanoTime();
+		boolean laidOut = false;
+		Tracing.begin("CardLayouts.prepare");
+		try {
+			for (int i = 0; i < rows.size(); ++i) {
+				CardRow row = rows.get(i);
+				if (find(row, width) == null) {
+					layouts.put(row.id, build(row.text, gamePaint, width));
+					laidOut = true;
+				}
+			}
+		}
+		finally {
+			Tracing.end();
+		}
+		if (laidOut) {
+			Metrics.get().histogram(Metrics.CARD_LAYOUT).recordNanos(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * The row's layout at this text width, laid out now if it wasn't prepared. Main thread.
+	 */
+	StaticLayout obtain(CardRow row, int width) {
+		Threads.assertMainThread();
+		// rows know their width better than the list does
+		setTextWidth(width);
+		StaticLayout layout = find(row, width);
+		if (layout == null) {
+			long start = System.nanoTime();
+			Tracing.begin("CardLayouts.layOutOnMain");
+			try {
+				layout = build(row.text, mainPaint, width);
+			}
+			finally {
+				Tracing.end();
+			}
+			layouts.put(row.id, layout);
+			Metrics.get().histogram(Metrics.CARD_LAYOUT_ON_MAIN).recordNanos(System.nanoTime() - start);
+		}
+		return layout;
+	}
+
+	private StaticLayout find(CardRow row, int width) {
+		StaticLayout layout = layouts.get(row.id);
+		if (layout == null || layout.getWidth() != width || !row.text.equals(layout.getText())) {
+			return null;
+		}
+		return layout;
+	}
+
+	@SuppressWarnings("deprecation")
+	private static StaticLayout build(String text, TextPaint paint, int width) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+			return StaticLayout.Builder.obtain(text, 0, text.length(), paint, width).build();
+		}
+		return new StaticLayout(text, paint, width, Layout.Alignment.ALIGN_NORMAL, 1f, 0f, true);
+	}
+}
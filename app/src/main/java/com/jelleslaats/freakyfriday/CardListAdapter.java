@@ -0,0 +1,137 @@
+package com.jelleslaats.freakyfriday;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.List;
+
+/**
+ * Adapter for the hand and judge lists. Rows have stable IDs and new lists are diffed on a
+ * background thread, so a new hand only rebinds the cards that changed and toggling a card only
+ * rebinds that one row. Rows draw texts laid out ahead of time by {@link CardLayouts}.
+ */
+class CardListAdapter extends ListAdapter<CardRow, CardListAdapter.RowHolder> {
+	private static final int BACKGROUND_CARD          = 0xFFFFFFFF;
+	private static final int BACKGROUND_SELECTED_CARD = 0xFFFFFFCC;
+
+	// payload for rebinds that only change the selection highlight
+	private static final Object PAYLOAD_SELECTION = new Object();
+
+	interface OnRowClickListener {
+		void onRowClicked(CardRow row);
+	}
+
+	private static final DiffUtil.ItemCallback<CardRow> DIFF_CALLBACK = new DiffUtil.ItemCallback<CardRow>() {
+		@Override
+		public boolean areItemsTheSame(@NonNull CardRow oldRow, @NonNull CardRow newRow) {
+			return oldRow.id == newRow.id;
+		}
+
+		@Override
+		public boolean areContentsTheSame(@NonNull CardRow oldRow, @NonNull CardRow newRow) {
+			return oldRow.text == newRow.text || oldRow.text.equals(newRow.text);
+		}
+	};
+
+	private final OnRowClickListener clickListener;
+	private final CardLayouts layouts;
+	// never modified; replaced by setSelection
+	private IntOrderedSet selection = GameState.INITIAL.selection;
+
+	CardListAdapter(OnRowClickListener clickListener, CardLayouts layouts) {
+		super(DIFF_CALLBACK);
+		this.clickListener = clickListener;
+		this.layouts = layouts;
+		setHasStableIds(true);
+	}
+
+	@Override
+	public long getItemId(int position) {
+		return getItem(position).id;
+	}
+
+	// Highlights the new selection, rebinding only the rows that went in or out of it.
+	void setSelection(IntOrderedSet newSelection) {
+		IntOrderedSet oldSelection = selection;
+		selection = newSelection;
+		for (int i = 0; i < oldSelection.size(); ++i) {
+			if (!newSelection.contains(oldSelection.get(i))) {
+				notifySelectionChanged(oldSelection.get(i));
+			}
+		}
+		for (int i = 0; i < newSelection.size(); ++i) {
+			if (!oldSelection.contains(newSelection.get(i))) {
+				notifySelectionChanged(newSelection.get(i));
+			}
+		}
+	}
+
+	// Rebinds the highlight of the row with this selection key, if it's in the list.
+	private void notifySelectionChanged(int selectionKey) {
+		List<CardRow> rows = getCurrentList();
+		for (int i = 0; i < rows.size(); ++i) {
+			if (rows.get(i).selectionKey == selectionKey) {
+				notifyItemChanged(i, PAYLOAD_SELECTION);
+				return;
+			}
+		}
+	}
+
+	@NonNull
+	@Override
+	public RowHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+		CardTextView view = (CardTextView) LayoutInflater.from(parent.getContext()).inflate(R.layout.list_card, parent, false);
+		view.setLayouts(layouts);
+		return new RowHolder(view);
+	}
+
+	@Override
+	public void onBindViewHolder(@NonNull RowHolder holder, int position) {
+		CardRow row = getItem(position);
+		holder.text.bind(row);
+		bindSelection(holder, row);
+	}
+
+	@Override
+	public void onBindViewHolder(@NonNull RowHolder holder, int position, @NonNull List<Object> payloads) {
+		if (payloads.isEmpty()) {
+			onBindViewHolder(holder, position);
+			return;
+		}
+		for (int i = 0; i < payloads.size(); ++i) {
+			if (payloads.get(i) != PAYLOAD_SELECTION) {
+				onBindViewHolder(holder, position);
+				return;
+			}
+		}
+		bindSelection(holder, getItem(position));
+	}
+
+	private void bindSelection(RowHolder holder, CardRow row) {
+		holder.text.setBackgroundColor(selection.contains(row.selectionKey) ? BACKGROUND_SELECTED_CARD : BACKGROUND_CARD);
+	}
+
+	class RowHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+		final CardTextView text;
+
+		RowHolder(CardTextView view) {
+			super(view);
+			text = view;
+			view.setOnClickListener(this);
+		}
+
+		@Override
+		public void onClick(View v) {
+			int position = getAdapterPosition();
+			if (position != RecyclerView.NO_POSITION) {
+				clickListener.onRowClicked(getItem(position));
+			}
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package com.jelleslaats.freakyfriday;
+
+import com.jelleslaats.freakyfriday.protocol.Card;
+import com.jelleslaats.freakyfriday.protocol.Response;
+
+/**
+ * One row of the card list: a card in the hand, or a player's response while judging. Rows are
+ * immutable, so a row built for a card that stays in the hand can be kept across updates.
+ */
+final class CardRow {
+	// keeps hand and response IDs apart, so the diff never mistakes one for the other
+	private static final long RESPONSE_ID_FLAG = 1L << 32;
+
+	final long id;
+	// what goes into the selection when this row is tapped: a card ID or a player ID
+	final int selectionKey;
+	final String text;
+
+	private CardRow(long id, int selectionKey, String text) {
+		this.id = id;
+		this.selectionKey = selectionKey;
+		this.text = text;
+	}
+
+	static CardRow forCard(Card card) {
+		return new CardRow(card.id & 0xFFFFFFFFL, card.id, card.prompt);
+	}
+
+	static CardRow forResponse(Response response, String text) {
+		return new CardRow(RESPONSE_ID_FLAG | (response.owner & 0xFFFFFFFFL), response.owner, text);
+	}
+
+	boolean isResponse() {
+		return (id & RESPONSE_ID_FLAG) != 0;
+	}
+}
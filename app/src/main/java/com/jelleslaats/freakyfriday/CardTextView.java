@@ -0,0 +1,59 @@
+package com.jelleslaats.freakyfriday;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.text.StaticLayout;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * A card row's text. Unlike a TextView it doesn't lay the text out when it's bound; it draws the
+ * layout {@link CardLayouts} prepared for the row.
+ */
+public final class CardTextView extends View {
+	private CardLayouts layouts;
+	private CardRow row;
+	// null until measured for the current row
+	private StaticLayout layout;
+
+	public CardTextView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+	}
+
+	void setLayouts(CardLayouts layouts) {
+		this.layouts = layouts;
+		int padding = layouts.getPadding();
+		setPadding(padding, padding, padding, padding);
+	}
+
+	void bind(CardRow row) {
+		this.row = row;
+		setContentDescription(row.text);
+		if (layout == null || !row.text.equals(layout.getText())) {
+			layout = null;
+			requestLayout();
+			invalidate();
+		}
+	}
+
+	@Override
+	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+		// rows fill the list's width
+		int width = MeasureSpec.getSize(widthMeasureSpec);
+		int textWidth = width - getPaddingLeft() - getPaddingRight();
+		layout = row != null && textWidth > 0 ? layouts.obtain(row, textWidth) : null;
+		int height = getPaddingTop() + getPaddingBottom() + (layout != null ? layout.getHeight() : 0);
+		setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		if (layout == null) {
+			return;
+		}
+		canvas.save();
+		canvas.translate(getPaddingLeft(), getPaddingTop());
+		layout.draw(canvas);
+		canvas.restore();
+	}
+}
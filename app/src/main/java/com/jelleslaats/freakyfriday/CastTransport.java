@@ -0,0 +1,64 @@
+package com.jelleslaats.freakyfriday;
+
+import android.util.Log;
+
+import com.google.android.gms.cast.Cast;
+import com.google.android.gms.cast.CastDevice;
+import com.google.android.gms.cast.framework.CastSession;
+import com.google.android.gms.cast.framework.SessionManager;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.common.api.Status;
+import com.jelleslaats.freakyfriday.protocol.Transport;
+
+/**
+ * Sends and receives game messages over the current Cast session. Messages arrive on the main
+ * thread, and send results are reported there too. Nothing can be sent until Cast has been
+ * initialized and the session manager handed over.
+ */
+class CastTransport implements Transport, Cast.MessageReceivedCallback {
+	private static final String TAG = CastTransport.class.getSimpleName();
+
+	static final String GAME_NAMESPACE = "urn:x-cast:com.jelleslaats.freakyfriday";
+
+	// set once Cast is ready, on the main thread
+	private SessionManager mSessionManager;
+	private Listener mListener;
+
+	void setSessionManager(SessionManager sessionManager) {
+		mSessionManager = sessionManager;
+	}
+
+	@Override
+	public void setListener(Listener listener) {
+		mListener = listener;
+	}
+
+	@Override
+	public boolean send(String message, final SendCallback callback) {
+		CastSession castSession = mSessionManager != null ? mSessionManager.getCurrentCastSession() : null;
+		if(castSession == null) {
+			Log.d(TAG,"No session active");
+			return false;
+		}
+
+		try {
+			castSession.sendMessage(GAME_NAMESPACE, message).setResultCallback(new ResultCallback<Status>() {
+				@Override
+				public void onResult(Status status) {
+					callback.onSent(status.isSuccess());
+				}
+			});
+			return true;
+		} catch (IllegalStateException e) {
+			Log.e(TAG, "Message Stream is not attached", e);
+			return false;
+		}
+	}
+
+	@Override
+	public void onMessageReceived(CastDevice castDevice, String namespace, String message) {
+		if (mListener != null) {
+			mListener.onMessage(message);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package com.jelleslaats.freakyfriday;
+
+/**
+ * Which parts of the screen's inputs differ between two states, as a bit set. The UI only
+ * touches views whose bits are set. Parts of a {@link GameState} are replaced rather than
+ * modified, so comparing references is enough.
+ */
+final class ChangeSet {
+	static final int NONE = 0;
+	static final int PHASE = 1;
+	static final int PLAYERS = 1 << 1;
+	// prompt text or the number of cards it wants
+	static final int PROMPT = 1 << 2;
+	static final int HAND = 1 << 3;
+	static final int HAND_OUT_OF_SYNC = 1 << 4;
+	static final int RESPONSES = 1 << 5;
+	static final int SELECTION = 1 << 6;
+	static final int ALL = (1 << 7) - 1;
+
+	private ChangeSet() {
+	}
+
+	static int between(GameState before, GameState after) {
+		if (before == after) {
+			return NONE;
+		}
+		int changes = NONE;
+		if (before.phase != after.phase) {
+			changes |= PHASE;
+		}
+		if (before.playerID != after.playerID || before.judgeID != after.judgeID) {
+			changes |= PLAYERS;
+		}
+		if (before.prompt != after.prompt || before.numOfResponses != after.numOfResponses) {
+			changes |= PROMPT;
+		}
+		if (before.handRows != after.handRows) {
+			changes |= HAND;
+		}
+		if (before.handOutOfSync != after.handOutOfSync) {
+			changes |= HAND_OUT_OF_SYNC;
+		}
+		if (before.responseRows != after.responseRows) {
+			changes |= RESPONSES;
+		}
+		if (before.selection != after.selection) {
+			changes |= SELECTION;
+		}
+		return changes;
+	}
+
+	static boolean any(int changes, int mask) {
+		return (changes & mask) != 0;
+	}
+}
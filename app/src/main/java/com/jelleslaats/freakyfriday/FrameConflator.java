@@ -0,0 +1,84 @@
+package com.jelleslaats.freakyfriday;
+
+import android.view.Choreographer;
+
+import com.jelleslaats.freakyfriday.protocol.Metrics;
+
+/**
+ * Hands game states from the game-state thread to the main thread at most once per frame. Only
+ * the latest state is kept, so a burst of events like roundEnded, gameSync and roundStarted is
+ * rendered once, as its end result, and states superseded before the next frame never reach the
+ * views. How many updates each frame covered goes into {@link Metrics#recordRender}.
+ */
+final class FrameConflator implements Choreographer.FrameCallback {
+	interface Renderer {
+		/**
+		 * Renders the state on the main thread.
+		 *
+		 * @param receivedAt when the oldest message behind it arrived, or 0 if it's only player
+		 *                   actions
+		 */
+		void render(GameState state, long receivedAt);
+	}
+
+	private final Choreographer choreographer;
+	private final Renderer renderer;
+
+	// guarded by this
+	private GameState pending;
+	private int pendingUpdates = 0;
+	private long pendingReceivedAt = 0;
+	private boolean frameScheduled = false;
+
+	// Create on the main thread, so frames are the main thread's.
+	FrameConflator(Renderer renderer) {
+		Threads.assertMainThread();
+		this.choreographer = Choreographer.getInstance();
+		this.renderer = renderer;
+	}
+
+	/**
+	 * Renders the state on the next frame, unless a newer one comes first. Any thread.
+	 *
+	 * @param receivedAt when the message behind it arrived, or 0 for player actions
+	 */
+	void submit(GameState state, long receivedAt) {
+		synchronized (this) {
+			pending = state;
+			++pendingUpdates;
+			if (pendingReceivedAt == 0) {
+				pendingReceivedAt = receivedAt;
+			}
+			if (frameScheduled) {
+				return;
+			}
+			frameScheduled = true;
+		}
+		// runs on the main thread, whichever thread posts it
+		choreographer.postFrameCallback(this);
+	}
+
+	@Override
+	public void doFrame(long frameTimeNanos) {
+		GameState state;
+		int updates;
+		long receivedAt;
+		synchronized (this) {
+			state = pending;
+			updates = pendingUpdates;
+			receivedAt = pendingReceivedAt;
+			pending = null;
+			pendingUpdates = 0;
+			pendingReceivedAt = 0;
+			frameScheduled = false;
+		}
+		Metrics.get().recordRender(updates);
+		Tracing.begin("FrameConflator.render");
+		try {
+			renderer.render(state, receivedAt);
+		}
+		finally {
+			Tracing.end();
+		}
+	}
+}
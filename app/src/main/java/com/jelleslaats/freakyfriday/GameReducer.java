@@ -0,0 +1,254 @@
+package com.jelleslaats.freakyfriday;
+
+import com.jelleslaats.freakyfriday.protocol.Card;
+import com.jelleslaats.freakyfriday.protocol.Hand;
+import com.jelleslaats.freakyfriday.protocol.Response;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Every change to the game state, from the receiver's events and from the player's taps. Each
+ * function takes the current state and returns the next one without touching anything else;
+ * if nothing changes it returns the state it was given, so the UI has nothing to do.
+ */
+final class GameReducer {
+	private GameReducer() {
+	}
+
+	//region receiver events
+
+	static GameState playerQueued(GameState state) {
+		if (state.phase == GameState.Phase.QUEUED) {
+			return state;
+		}
+		GameState.Draft next = state.edit();
+		next.phase = GameState.Phase.QUEUED;
+		return next.build();
+	}
+
+	static GameState playerJoined(GameState state, int playerID) {
+		GameState.Draft next = endRound(state);
+		next.playerID = playerID;
+		return next.build();
+	}
+
+	static GameState judgingStarted(GameState state) {
+		// the judge waits for the responses themselves
+		if (state.isJudge() || state.phase == GameState.Phase.WAITING_FOR_JUDGE) {
+			return state;
+		}
+		GameState.Draft next = state.edit();
+		next.phase = GameState.Phase.WAITING_FOR_JUDGE;
+		return next.clearSelection().build();
+	}
+
+	// Takes a full snapshot of the hand.
+	static GameState gameSync(GameState state, int playerID, int handVersion, Card[] hand, int judgeID) {
+		GameState.Draft next = state.edit();
+		next.playerID = playerID;
+		next.judgeID = judgeID;
+		next.handVersion = handVersion;
+		next.hand = hand;
+		next.handRows = rowsFor(hand);
+		next.handOutOfSync = false;
+		next.selection = keepHeld(state, hand);
+		return next.build();
+	}
+
+	/**
+	 * Applies the cards drawn and played since baseVersion. If that isn't the version we have,
+	 * the hand is marked out of sync and stays as it is until a full sync arrives.
+	 */
+	static GameState handDelta(GameState state, int playerID, int baseVersion, int handVersion,
+			Card[] added, int[] removedIDs, int judgeID) {
+		Hand hand = new Hand();
+		// Hand works in place, so give it a copy
+		hand.replace(state.hand.clone(), state.handVersion);
+		if (!hand.apply(baseVersion, handVersion, added, removedIDs)) {
+			if (state.handOutOfSync) {
+				return state;
+			}
+			GameState.Draft next = state.edit();
+			next.handOutOfSync = true;
+			return next.build();
+		}
+
+		Card[] cards = new Card[hand.size()];
+		for (int i = 0; i < cards.length; ++i) {
+			cards[i] = hand.get(i);
+		}
+		List<CardRow> rows;
+		if (hand.wasResized()) {
+			rows = rowsFor(cards);
+		}
+		else {
+			// reuse the rows of cards that didn't change
+			rows = new ArrayList<CardRow>(state.handRows);
+			for (int i = 0; i < hand.getChangedCount(); ++i) {
+				int position = hand.getChangedPosition(i);
+				rows.set(position, CardRow.forCard(cards[position]));
+			}
+		}
+
+		GameState.Draft next = state.edit();
+		next.playerID = playerID;
+		next.judgeID = judgeID;
+		next.handVersion = handVersion;
+		next.hand = cards;
+		next.handRows = rows;
+		// played cards can't stay selected
+		next.selection = keepHeld(state, cards);
+		return next.build();
+	}
+
+	// Shows the responses to judge, with the text of multi-card responses joined up.
+	static GameState judgeResponses(GameState state, Response[] responses) {
+		List<CardRow> rows = new ArrayList<CardRow>(responses.length);
+		StringBuilder responseText = new StringBuilder();
+		boolean pickStillThere = false;
+		for (Response response : responses) {
+			Card[] theseCards = response.contents;
+			responseText.setLength(0);
+			for (int j = 0; j < theseCards.length; ++j) {
+				if (j > 0) {
+					responseText.append('\n');
+				}
+				responseText.append(theseCards[j].prompt);
+			}
+			rows.add(CardRow.forResponse(response, responseText.toString()));
+			pickStillThere |= state.phase == GameState.Phase.JUDGING && state.selection.contains(response.owner);
+		}
+
+		GameState.Draft next = state.edit();
+		next.phase = GameState.Phase.JUDGING;
+		next.responses = responses;
+		next.responseRows = rows;
+		// the list can be sent again when someone leaves; keep the pick if it's still there
+		if (!pickStillThere) {
+			next.clearSelection();
+		}
+		return next.build();
+	}
+
+	// submitted is set when catching up after reconnecting, if our cards for this round are in
+	static GameState roundStarted(GameState state, String prompt, int numOfBlanks, boolean submitted) {
+		GameState.Draft next = state.edit();
+		next.prompt = prompt;
+		if (state.isJudge()) {
+			next.phase = GameState.Phase.JUDGE_WAITING;
+		}
+		else {
+			next.phase = submitted ? GameState.Phase.SUBMITTED : GameState.Phase.PLAYING;
+		}
+		// the judge only ever picks one response
+		next.numOfResponses = state.isJudge() ? 1 : numOfBlanks;
+		return next.clearResponses().clearSelection().build();
+	}
+
+	static GameState roundEnded(GameState state) {
+		return endRound(state).build();
+	}
+
+	//endregion
+
+	//region player actions
+
+	// Selects or deselects a card in the hand while playing.
+	static GameState cardToggled(GameState state, int cardID) {
+		if (state.phase != GameState.Phase.PLAYING || !holds(state.hand, cardID)) {
+			return state;
+		}
+		GameState.Draft next = state.edit();
+		next.selection = new IntOrderedSet(state.selection);
+		next.selection.toggle(cardID);
+		return next.build();
+	}
+
+	// Picks the winning response while judging; there's only ever one.
+	static GameState winnerPicked(GameState state, int playerID) {
+		if (state.phase != GameState.Phase.JUDGING
+				|| (state.selection.size() == 1 && state.selection.get(0) == playerID)) {
+			return state;
+		}
+		GameState.Draft next = state.edit();
+		next.selection = new IntOrderedSet(1);
+		next.selection.add(playerID);
+		return next.build();
+	}
+
+	static GameState cardsSubmitted(GameState state) {
+		if (state.phase != GameState.Phase.PLAYING) {
+			return state;
+		}
+		GameState.Draft next = state.edit();
+		next.phase = GameState.Phase.SUBMITTED;
+		return next.build();
+	}
+
+	// The cards never reached the receiver; let the player try again if the round is still on.
+	static GameState submissionFailed(GameState state) {
+		if (state.phase != GameState.Phase.SUBMITTED || state.hand.length == 0) {
+			return state;
+		}
+		GameState.Draft next = state.edit();
+		next.phase = GameState.Phase.PLAYING;
+		return next.build();
+	}
+
+	static GameState winnerDeclared(GameState state) {
+		if (state.phase != GameState.Phase.JUDGING) {
+			return state;
+		}
+		GameState.Draft next = state.edit();
+		next.phase = GameState.Phase.DECIDED;
+		return next.build();
+	}
+
+	//endregion
+
+	private static GameState.Draft endRound(GameState state) {
+		GameState.Draft next = state.edit();
+		next.phase = GameState.Phase.LOBBY;
+		next.prompt = null;
+		next.numOfResponses = 0;
+		return next.clearResponses().clearSelection();
+	}
+
+	private static List<CardRow> rowsFor(Card[] cards) {
+		List<CardRow> rows = new ArrayList<CardRow>(cards.length);
+		for (Card card : cards) {
+			rows.add(CardRow.forCard(card));
+		}
+		return rows;
+	}
+
+	// The selection without the cards that are no longer in the hand.
+	private static IntOrderedSet keepHeld(GameState state, Card[] hand) {
+		IntOrderedSet selection = state.selection;
+		if (state.showsResponses()) {
+			// it's a pick among the responses, not cards
+			return selection;
+		}
+		IntOrderedSet kept = null;
+		for (int i = 0; i < selection.size(); ++i) {
+			int cardID = selection.get(i);
+			if (!holds(hand, cardID)) {
+				if (kept == null) {
+					kept = new IntOrderedSet(selection);
+				}
+				kept.remove(cardID);
+			}
+		}
+		return kept != null ? kept : selection;
+	}
+
+	private static boolean holds(Card[] hand, int cardID) {
+		for (Card card : hand) {
+			if (card.id == cardID) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,630 @@
+package com.jelleslaats.freakyfriday;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.os.Binder;
+import android.os.Build;
+import android.os.IBinder;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+import com.google.android.gms.cast.framework.CastSession;
+import com.google.android.gms.cast.framework.Session;
+import com.google.android.gms.cast.framework.SessionManager;
+import com.google.android.gms.cast.framework.SessionManagerListener;
+import com.jelleslaats.freakyfriday.protocol.Card;
+import com.jelleslaats.freakyfriday.protocol.CardPackFile;
+import com.jelleslaats.freakyfriday.protocol.PendingCommand;
+import com.jelleslaats.freakyfriday.protocol.ProtocolLog;
+import com.jelleslaats.freakyfriday.protocol.Response;
+
+import java.io.IOException;
+
+/**
+ * Owns the game: the Cast session listener, the message stream and the game state it's reduced
+ * into. MainActivity binds to it while it's visible and renders whatever state it has, so leaving
+ * the app to check a message keeps the player's seat, and coming back shows the latest state
+ * without joining again. While a session is live the service is started and in the foreground,
+ * so it outlives the activity; it stops when the session ends.
+ *
+ * Main thread, except where noted.
+ */
+public class GameService extends Service {
+	private static final String TAG = GameService.class.getSimpleName();
+
+	// the notification's Leave action
+	private static final String ACTION_LEAVE = "com.jelleslaats.freakyfriday.action.LEAVE";
+	private static final String CHANNEL_ID = "game";
+	private static final int NOTIFICATION_ID = 1;
+
+	private static final String PREF_FILE = "myPreferences";
+	private static final String PREF_NAME = "name";
+	// the seat to ask for back when joining again, kept in case the process is killed meanwhile
+	private static final String PREF_RESUME_TOKEN = "resumeToken";
+	private static final String PREF_PLAYER_ID = "playerID";
+	private static final String CARD_PACK_ASSET = "cards.pack";
+
+	/**
+	 * What the bound activity shows. Only one is attached at a time.
+	 */
+	interface Ui {
+		/**
+		 * Called on the game-state thread with each new state, and with the current one when
+		 * attached.
+		 *
+		 * @param changes    what changed since the previous state handed over
+		 * @param receivedAt when the message behind it arrived, or 0
+		 */
+		void onStateChanged(GameState state, int changes, long receivedAt);
+		void onPreferencesLoaded();
+		// the game needs a name before it can join; call joinGame once there is one
+		void requestPlayerName();
+		void showErrorMessage(String message);
+		void onSessionEnded();
+	}
+
+	/**
+	 * A player action. It goes through the reducer on the game-state thread like the
+	 * receiver's events, so the two never race.
+	 */
+	interface Action {
+		GameState reduce(GameState state);
+	}
+
+	final class LocalBinder extends Binder {
+		GameService getService() {
+			return GameService.this;
+		}
+	}
+
+	private final IBinder mBinder = new LocalBinder();
+	private final SessionManagerListener mSessionListener = new SessionManagerListenerImpl();
+
+	private MsgStreamImp mGameMessageStream;
+	private SessionManager mSessionManager;
+	private SharedPreferences mSettings;
+	// debug builds only
+	private SessionRecorder mRecorder;
+	private boolean mPreferencesLoaded;
+	private String mPlayerName;
+	// a session started before the name was loaded, or while nobody could be asked for one
+	private boolean mJoinPending;
+	private boolean mInGame;
+	// read on the game-state thread
+	private volatile Ui mUi;
+
+	// Game state, only touched on the game-state thread
+	private GameState mGameState = GameState.INITIAL;
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		ProtocolLog.setLogger(new AndroidLogger());
+		Tracing.install();
+		mGameMessageStream = new MsgStreamImp();
+		mSettings = getSharedPreferences(PREF_FILE, 0);
+		loadCardPack();
+		loadPreferences();
+	}
+
+	@Override
+	public IBinder onBind(Intent intent) {
+		return mBinder;
+	}
+
+	@Override
+	public int onStartCommand(Intent intent, int flags, int startId) {
+		if (intent != null && ACTION_LEAVE.equals(intent.getAction())) {
+			leave();
+		}
+		// without the session there's nothing to come back to
+		return START_NOT_STICKY;
+	}
+
+	// Swiping the game away leaves it, like closing the app always has.
+	@Override
+	public void onTaskRemoved(Intent rootIntent) {
+		super.onTaskRemoved(rootIntent);
+		leave();
+	}
+
+	@Override
+	public void onDestroy() {
+		if (mSessionManager != null) {
+			mSessionManager.removeSessionManagerListener(mSessionListener);
+		}
+		mGameMessageStream.cancelPendingCommands();
+		super.onDestroy();
+	}
+
+	/**
+	 * Hands over Cast once the activity has initialized it, and starts listening for sessions.
+	 * Later calls do nothing.
+	 */
+	void setSessionManager(SessionManager sessionManager) {
+		if (mSessionManager != null) {
+			return;
+		}
+		mSessionManager = sessionManager;
+		mGameMessageStream.setSessionManager(sessionManager);
+		mSessionManager.addSessionManagerListener(mSessionListener);
+	}
+
+	/**
+	 * Attaches the activity's UI, which right away gets the current state to render. States from
+	 * while nobody was attached have already been reduced into it.
+	 */
+	void attach(final Ui ui) {
+		mUi = ui;
+		Threads.game().post(new Runnable() {
+			@Override
+			public void run() {
+				if (mUi == ui) {
+					ui.onStateChanged(mGameState, ChangeSet.ALL, 0);
+				}
+			}
+		});
+		if (mPreferencesLoaded) {
+			ui.onPreferencesLoaded();
+		}
+		if (mJoinPending && mPreferencesLoaded) {
+			joinGame();
+		}
+	}
+
+	void detach(Ui ui) {
+		if (mUi == ui) {
+			mUi = null;
+		}
+	}
+
+	MessageStream getStream() {
+		return mGameMessageStream;
+	}
+
+	// null until the preferences are loaded, and outside debug builds
+	SessionRecorder getRecorder() {
+		return mRecorder;
+	}
+
+	// null until the preferences are loaded or the player picks one
+	String getPlayerName() {
+		return mPlayerName;
+	}
+
+	void setPlayerName(String name) {
+		mPlayerName = name;
+		mSettings.edit().putString(PREF_NAME, name).apply();
+	}
+
+	/**
+	 * Joins with the player's name, asking the UI for one first if there isn't one yet.
+	 */
+	void joinGame() {
+		Ui ui = mUi;
+		if (!mPreferencesLoaded || (mPlayerName == null && ui == null)) {
+			mJoinPending = true;
+			return;
+		}
+		mJoinPending = false;
+		if (mPlayerName == null) {
+			Log.i(TAG, "Requesting player name");
+			ui.requestPlayerName();
+			return;
+		}
+		mGameMessageStream.joinGame(mPlayerName);
+	}
+
+	void dispatch(final Action action) {
+		Threads.game().post(new Runnable() {
+			@Override
+			public void run() {
+				update(action.reduce(mGameState), 0);
+			}
+		});
+	}
+
+	/**
+	 * Takes the reducer's next state on the game-state thread and hands it to the UI, if one is
+	 * attached. States that change nothing aren't handed over at all. A hand that just went out
+	 * of sync gets a full sync requested, whether or not there's a UI.
+	 *
+	 * @param receivedAt when the message behind the change arrived, or 0 for player actions
+	 */
+	private void update(GameState next, long receivedAt) {
+		Threads.assertGameThread();
+		int changes = ChangeSet.between(mGameState, next);
+		if (next.handOutOfSync && !mGameState.handOutOfSync) {
+			requestGameSync(next.handVersion);
+		}
+		mGameState = next;
+		Ui ui = mUi;
+		if (changes != ChangeSet.NONE && ui != null) {
+			ui.onStateChanged(next, changes, receivedAt);
+		}
+	}
+
+	// Once per time the hand goes out of sync: the reducer keeps it marked until the gameSync.
+	private void requestGameSync(final int handVersion) {
+		Log.w(TAG, "Hand delta doesn't apply to version " + handVersion + ", requesting full sync");
+		Threads.main().post(new Runnable() {
+			@Override
+			public void run() {
+				mGameMessageStream.requestGameSync(handVersion);
+			}
+		});
+	}
+
+	private void leave() {
+		if (mSessionManager != null && mSessionManager.getCurrentCastSession() != null) {
+			mGameMessageStream.leaveGame();
+			mSessionManager.endCurrentSession(true);
+		}
+		saveResumeToken();
+		stopInGame();
+	}
+
+	// Keeps the service, and with it the seat, alive without the activity.
+	private void startInGame() {
+		if (mInGame) {
+			return;
+		}
+		mInGame = true;
+		ContextCompat.startForegroundService(this, new Intent(this, GameService.class));
+		startForeground(NOTIFICATION_ID, buildNotification());
+	}
+
+	private void stopInGame() {
+		if (!mInGame) {
+			return;
+		}
+		mInGame = false;
+		stopForeground(true);
+		// stays alive while the activity is bound
+		stopSelf();
+	}
+
+	private Notification buildNotification() {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+			NotificationManager manager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+			manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+					getString(R.string.notification_channel_game), NotificationManager.IMPORTANCE_LOW));
+		}
+		// brings the game's task back the way the launcher would
+		Intent open = new Intent(this, MainActivity.class)
+				.setAction(Intent.ACTION_MAIN)
+				.addCategory(Intent.CATEGORY_LAUNCHER)
+				.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+		Intent leave = new Intent(this, GameService.class).setAction(ACTION_LEAVE);
+		return new NotificationCompat.Builder(this, CHANNEL_ID)
+				.setSmallIcon(R.drawable.ic_notification)
+				.setContentTitle(getString(R.string.notification_in_game))
+				.setContentText(getString(R.string.notification_tap_to_return))
+				.setContentIntent(PendingIntent.getActivity(this, 0, open, 0))
+				.addAction(0, getString(R.string.notification_leave), PendingIntent.getService(this, 0, leave, 0))
+				.setOngoing(true)
+				.build();
+	}
+
+	/**
+	 * Maps the card pack shipped in the assets, if there is one, so cards the receiver sends as
+	 * bare IDs can be looked up. Queued on the game thread ahead of the preferences, so it's set
+	 * before anything can join.
+	 */
+	private void loadCardPack() {
+		final AssetManager assets = getAssets();
+		Threads.game().post(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					AssetFileDescriptor fd = assets.openFd(CARD_PACK_ASSET);
+					mGameMessageStream.setCardPack(CardPackFile.open(fd.createInputStream(),
+							fd.getStartOffset(), fd.getLength()));
+				}
+				catch (IOException e) {
+					// without a pack the receiver sends every card's text
+					Log.i(TAG, "No card pack: " + e.getMessage());
+				}
+			}
+		});
+	}
+
+	// The first read waits for the file, so it happens on the game-state thread.
+	private void loadPreferences() {
+		Threads.game().post(new Runnable() {
+			@Override
+			public void run() {
+				final String name = mSettings.getString(PREF_NAME, null);
+				String resumeToken = mSettings.getString(PREF_RESUME_TOKEN, null);
+				// nothing joins before the preferences are loaded, so there's no newer seat yet
+				if (resumeToken != null && mGameMessageStream.getResumeToken() == null) {
+					mGameMessageStream.setResumeToken(resumeToken, mSettings.getInt(PREF_PLAYER_ID, -1));
+				}
+				Threads.main().post(new Runnable() {
+					@Override
+					public void run() {
+						onPreferencesLoaded(name);
+					}
+				});
+			}
+		});
+	}
+
+	// Keeps the stream's seat, or forgets it once the stream has.
+	private void saveResumeToken() {
+		String token = mGameMessageStream.getResumeToken();
+		SharedPreferences.Editor editor = mSettings.edit();
+		if (token != null) {
+			editor.putString(PREF_RESUME_TOKEN, token).putInt(PREF_PLAYER_ID, mGameMessageStream.getPlayerID());
+		}
+		else {
+			editor.remove(PREF_RESUME_TOKEN).remove(PREF_PLAYER_ID);
+		}
+		editor.apply();
+	}
+
+	private void onPreferencesLoaded(String name) {
+		// a name the player set while loading wins
+		if (mPlayerName == null) {
+			mPlayerName = name;
+		}
+		mPreferencesLoaded = true;
+		if (BuildConfig.DEBUG) {
+			mRecorder = new SessionRecorder(this, mSettings, mGameMessageStream);
+		}
+		Ui ui = mUi;
+		if (ui != null) {
+			ui.onPreferencesLoaded();
+		}
+		if (mJoinPending) {
+			joinGame();
+		}
+	}
+
+	private void showErrorMessage(String message) {
+		Ui ui = mUi;
+		if (ui != null) {
+			ui.showErrorMessage(message);
+		}
+		else {
+			Log.w(TAG, message);
+		}
+	}
+
+	private void attach(CastSession castSession) {
+		try {
+			mGameMessageStream.attach(castSession);
+		}
+		catch (IOException e) {
+			Log.e(TAG, "Can't listen for game messages", e);
+		}
+		startInGame();
+	}
+
+	private class SessionManagerListenerImpl implements SessionManagerListener {
+
+		@Override
+		public void onSessionStarted(Session session, String sessionId) {
+			Log.i(TAG, "onSessionStarted");
+
+			CastSession castSession = mSessionManager.getCurrentCastSession();
+			if (castSession == null) {
+				Log.w(TAG, "onSessionStarted: no CastSession");
+				return;
+			}
+			attach(castSession);
+			joinGame();
+		}
+		//region overrides
+		@Override
+		public void onSessionStarting(Session session) {
+			Log.i(TAG, "onSessionStarting");
+		}
+		@Override
+		public void onSessionStartFailed(Session session, int i) {
+			Log.i(TAG, "onSessionStartFailed");
+		}
+
+		@Override
+		public void onSessionEnding(Session session) {
+			Log.i(TAG, "onSessionEnding");
+		}
+
+		@Override
+		public void onSessionResumed(Session session, boolean wasSuspended) {
+			Log.i(TAG, "onSessionResumed");
+
+			CastSession castSession = mSessionManager.getCurrentCastSession();
+			if (castSession == null) {
+				Log.w(TAG, "onSessionResumed: no CastSession");
+				return;
+			}
+			attach(castSession);
+
+			// the receiver usually sees a resumed session as a new connection, which can't resync;
+			// the seat's token gets it back either way, with the round so far, in one round trip
+			if (mGameMessageStream.getResumeToken() != null) {
+				joinGame();
+				return;
+			}
+
+			// pick up the events missed while suspended, keeping the round as it is
+			PendingCommand resync = mGameMessageStream.resync();
+			if (resync == null) {
+				joinGame();
+				return;
+			}
+			resync.setCallback(new PendingCommand.Callback() {
+				@Override
+				public void onCompleted(PendingCommand command, int responseCode) {
+					if (responseCode != 0) {
+						// the receiver let our seat go in the meantime
+						joinGame();
+						return;
+					}
+					Log.i(TAG, "Resynced in " + command.getLatencyMillis() + "ms");
+				}
+
+				@Override
+				public void onFailed(PendingCommand command) {
+					Log.w(TAG, "Resync failed, joining again");
+					joinGame();
+				}
+			});
+		}
+
+		@Override
+		public void onSessionResumeFailed(Session session, int i) {
+			Log.i(TAG, "onSessionResumeFailed");
+		}
+
+		@Override
+		public void onSessionSuspended(Session session, int i) {
+			Log.i(TAG, "onSessionSuspended");
+		}
+
+		@Override
+		public void onSessionEnded(Session session, int error) {
+			Log.i(TAG, "onSessionEnded");
+			mGameMessageStream.cancelPendingCommands();
+			mJoinPending = false;
+			// the next session starts from scratch
+			dispatch(RESET);
+			stopInGame();
+			Ui ui = mUi;
+			if (ui != null) {
+				ui.onSessionEnded();
+			}
+		}
+
+		@Override
+		public void onSessionResuming(Session session, String s) {
+			Log.i(TAG, "onSessionResuming");
+		}
+		//endregion
+	}
+
+	private static final Action RESET = new Action() {
+		@Override
+		public GameState reduce(GameState state) {
+			return GameState.INITIAL;
+		}
+	};
+
+	// Decodes on the game-state thread and reduces each event there; what changed goes to the UI.
+	private class MsgStreamImp extends MessageStream {
+
+		private void update(GameState next) {
+			GameService.this.update(next, getMessageReceivedAt());
+		}
+
+		protected void onPlayerQueued() {
+			update(GameReducer.playerQueued(mGameState));
+		}
+
+		protected void onPlayerJoined(int newID) {
+			if (newID < 0) {
+				Log.w(TAG, "Got negative playerID (" + newID + ")");
+				Threads.main().post(new Runnable() {
+					@Override
+					public void run() {
+						showErrorMessage("Received a negative playerID... that's bad.");
+					}
+				});
+			}
+			saveResumeToken();
+			update(GameReducer.playerJoined(mGameState, newID));
+		}
+
+		protected void onJudgeModeStarted() {
+			update(GameReducer.judgingStarted(mGameState));
+		}
+
+		protected void onGameSync(int newPlayerID, int handVersion, Card[] newHand, int newJudge) {
+			Log.d(TAG, "newHand: " + newHand.length + " cards, version " + handVersion);
+			Tracing.begin("onGameSync");
+			try {
+				update(GameReducer.gameSync(mGameState, newPlayerID, handVersion, newHand, newJudge));
+			}
+			finally {
+				Tracing.end();
+			}
+		}
+
+		// A delta that doesn't fit the hand marks it out of sync, and update asks for a full sync.
+		protected void onHandDelta(int newPlayerID, int baseVersion, int handVersion, Card[] added, int[] removedIDs, int newJudge) {
+			Tracing.begin("onHandDelta");
+			try {
+				update(GameReducer.handDelta(mGameState, newPlayerID, baseVersion, handVersion, added, removedIDs, newJudge));
+			}
+			finally {
+				Tracing.end();
+			}
+		}
+
+		protected void onJudgeResponses(Response[] responses) {
+			Tracing.begin("onJudgeResponses");
+			try {
+				update(GameReducer.judgeResponses(mGameState, responses));
+			}
+			finally {
+				Tracing.end();
+			}
+		}
+
+		protected void onRoundStarted(String newPrompt, int numOfBlanks, boolean submitted) {
+			Tracing.begin("onRoundStarted");
+			try {
+				update(GameReducer.roundStarted(mGameState, newPrompt, numOfBlanks, submitted));
+			}
+			finally {
+				Tracing.end();
+			}
+		}
+
+		protected void onRoundEnded() {
+			update(GameReducer.roundEnded(mGameState));
+		}
+
+		// Some error code has been received. Let the user know.
+		protected void onServerError(int errorCode) {
+			String messageText;
+			switch (errorCode) {
+			case ERROR_SENT_INVALID_MESSAGE_TYPE:
+				messageText = "Something went wrong with the code...";
+				Log.e(TAG, "ERROR_SENT_INVALID_MESSAGE_TYPE");
+				break;
+			case ERROR_WRONG_NUMBER_OF_CARDS:
+				messageText = "You tried to submit the wrong number of cards.";
+				break;
+			case ERROR_INVALID_WINNER_SUBMITTED:
+				messageText = "You tried to declare yourself or a nonexistent player as winner.";
+				break;
+			case ERROR_JUDGED_BEFORE_CARDS_WERE_READ:
+				messageText = "You tried to declare a winner before reading all the cards.";
+				break;
+			case ERROR_TRIED_TO_JOIN_WITH_BLANK_NAME:
+				messageText = "You tried to join the game with a blank name.";
+				break;
+			case ERROR_TRIED_TO_START_ROUND_WHILE_ROUND_EXISTS:
+				messageText = "You can't start a round while one is in progress.";
+				break;
+			case ERROR_TRIED_TO_START_ROUND_INSUFFICIENT_PLAYERS:
+				messageText = "There aren't enough players to start the round yet.";
+				break;
+			default:
+				messageText = "An unknown error occurred.";
+			}
+
+			showErrorMessage(messageText);
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package com.jelleslaats.freakyfriday;
+
+import com.jelleslaats.freakyfriday.protocol.Card;
+import com.jelleslaats.freakyfriday.protocol.Hand;
+import com.jelleslaats.freakyfriday.protocol.Response;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything the screen shows, as one immutable value. New states only come out of
+ * {@link GameReducer}, and unchanged parts are shared with the previous state, so
+ * {@link ChangeSet#between} can tell what changed by comparing references.
+ *
+ * Pure Java, so it can be benchmarked off-device. Arrays, lists and the selection are never
+ * modified once they are part of a state.
+ */
+final class GameState {
+	enum Phase {
+		// no Chromecast picked yet
+		DISCONNECTED,
+		// joined mid-round; playing from the next one
+		QUEUED,
+		// between rounds
+		LOBBY,
+		// picking cards for the prompt
+		PLAYING,
+		// cards are in, waiting for everyone else
+		SUBMITTED,
+		// judging this round, waiting for everyone's cards
+		JUDGE_WAITING,
+		// everyone's in, waiting for the judge
+		WAITING_FOR_JUDGE,
+		// picking the winning response
+		JUDGING,
+		// winner picked, waiting for the round to end
+		DECIDED
+	}
+
+	private static final Card[] NO_CARDS = new Card[0];
+	private static final Response[] NO_RESPONSES = new Response[0];
+
+	static final GameState INITIAL = new GameState(Phase.DISCONNECTED, -1, -1, null, 0,
+			Hand.UNVERSIONED, NO_CARDS, Collections.<CardRow>emptyList(), false,
+			NO_RESPONSES, Collections.<CardRow>emptyList(), new IntOrderedSet());
+
+	final Phase phase;
+	final int playerID;
+	final int judgeID;
+	// null between rounds
+	final String prompt;
+	// how many cards have to be selected before they can be played
+	final int numOfResponses;
+
+	final int handVersion;
+	final Card[] hand;
+	final List<CardRow> handRows;
+	// a hand delta didn't apply, so the hand is stale until the next full sync
+	final boolean handOutOfSync;
+
+	final Response[] responses;
+	final List<CardRow> responseRows;
+
+	// card IDs while playing, the winning player's ID while judging
+	final IntOrderedSet selection;
+
+	private GameState(Phase phase, int playerID, int judgeID, String prompt, int numOfResponses,
+			int handVersion, Card[] hand, List<CardRow> handRows, boolean handOutOfSync,
+			Response[] responses, List<CardRow> responseRows, IntOrderedSet selection) {
+		this.phase = phase;
+		this.playerID = playerID;
+		this.judgeID = judgeID;
+		this.prompt = prompt;
+		this.numOfResponses = numOfResponses;
+		this.handVersion = handVersion;
+		this.hand = hand;
+		this.handRows = handRows;
+		this.handOutOfSync = handOutOfSync;
+		this.responses = responses;
+		this.responseRows = responseRows;
+		this.selection = selection;
+	}
+
+	boolean isJudge() {
+		return playerID == judgeID;
+	}
+
+	// The list shows responses while judging and the hand the rest of the time.
+	boolean showsResponses() {
+		return phase == Phase.JUDGING || phase == Phase.DECIDED;
+	}
+
+	Draft edit() {
+		return new Draft(this);
+	}
+
+	/**
+	 * A copy being changed by the reducer. Whatever isn't set keeps the original's value, so
+	 * untouched parts stay shared.
+	 */
+	static final class Draft {
+		Phase phase;
+		int playerID;
+		int judgeID;
+		String prompt;
+		int numOfResponses;
+		int handVersion;
+		Card[] hand;
+		List<CardRow> handRows;
+		boolean handOutOfSync;
+		Response[] responses;
+		List<CardRow> responseRows;
+		IntOrderedSet selection;
+
+		private Draft(GameState state) {
+			phase = state.phase;
+			playerID = state.playerID;
+			judgeID = state.judgeID;
+			prompt = state.prompt;
+			numOfResponses = state.numOfResponses;
+			handVersion = state.handVersion;
+			hand = state.hand;
+			handRows = state.handRows;
+			handOutOfSync = state.handOutOfSync;
+			responses = state.responses;
+			responseRows = state.responseRows;
+			selection = state.selection;
+		}
+
+		Draft clearResponses() {
+			responses = NO_RESPONSES;
+			responseRows = INITIAL.responseRows;
+			return this;
+		}
+
+		Draft clearSelection() {
+			if (!selection.isEmpty()) {
+				selection = INITIAL.selection;
+			}
+			return this;
+		}
+
+		GameState build() {
+			return new GameState(phase, playerID, judgeID, prompt, numOfResponses,
+					handVersion, hand, handRows, handOutOfSync, responses, responseRows, selection);
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package com.jelleslaats.freakyfriday;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.jelleslaats.freakyfriday.protocol.Scheduler;
+
+/**
+ * Runs protocol timers on a Handler's thread.
+ */
+final class HandlerScheduler implements Scheduler {
+	private final Handler handler;
+
+	HandlerScheduler(Handler handler) {
+		this.handler = handler;
+	}
+
+	@Override
+	public void schedule(Runnable task, long delayMillis) {
+		handler.postDelayed(task, delayMillis);
+	}
+
+	@Override
+	public void cancel(Runnable task) {
+		handler.removeCallbacks(task);
+	}
+
+	@Override
+	public long now() {
+		return SystemClock.elapsedRealtime();
+	}
+}
@@ -0,0 +1,169 @@
+package com.jelleslaats.freakyfriday;
+
+import java.util.Arrays;
+
+/**
+ * Set of ints that remembers the order they were added in, which is the order the cards fill
+ * the blanks of a prompt. Membership is an open-addressing lookup on the primitive value, so
+ * nothing is boxed; the only allocations happen when the set has to grow.
+ */
+final class IntOrderedSet {
+	private static final int DEFAULT_CAPACITY = 16;
+
+	// values in insertion order
+	private int[] values;
+	private int size = 0;
+
+	// membership table, kept at most half full
+	private int[] keys;
+	private boolean[] occupied;
+	private int mask;
+
+	IntOrderedSet() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	IntOrderedSet(int capacity) {
+		values = new int[Math.max(capacity, 1)];
+		allocateTable(values.length);
+	}
+
+	// A copy that can be changed without touching the original.
+	IntOrderedSet(IntOrderedSet other) {
+		values = other.values.clone();
+		size = other.size;
+		keys = other.keys.clone();
+		occupied = other.occupied.clone();
+		mask = other.mask;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	// The value added i-th among those still in the set.
+	int get(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+		}
+		return values[i];
+	}
+
+	boolean contains(int value) {
+		return findBucket(value) >= 0;
+	}
+
+	// Adds the value at the end of the order. Returns false if it was already there.
+	boolean add(int value) {
+		if (contains(value)) {
+			return false;
+		}
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+			rehash(values.length);
+		}
+		values[size++] = value;
+		insertKey(value);
+		return true;
+	}
+
+	// Removes the value, keeping the order of the rest. Returns false if it wasn't there.
+	boolean remove(int value) {
+		int bucket = findBucket(value);
+		if (bucket < 0) {
+			return false;
+		}
+		removeBucket(bucket);
+
+		for (int i = 0; i < size; ++i) {
+			if (values[i] == value) {
+				System.arraycopy(values, i + 1, values, i, size - i - 1);
+				break;
+			}
+		}
+		--size;
+		return true;
+	}
+
+	// Removes the value if it's there, adds it otherwise. Returns true if it's now in the set.
+	boolean toggle(int value) {
+		if (remove(value)) {
+			return false;
+		}
+		add(value);
+		return true;
+	}
+
+	void clear() {
+		Arrays.fill(occupied, false);
+		size = 0;
+	}
+
+	// Copies the values, in order, into dest, which must hold at least size() values.
+	void copyInto(int[] dest) {
+		System.arraycopy(values, 0, dest, 0, size);
+	}
+
+	int[] toArray() {
+		return Arrays.copyOf(values, size);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+
+	private void allocateTable(int capacity) {
+		int buckets = Integer.highestOneBit(capacity) << 2;
+		keys = new int[buckets];
+		occupied = new boolean[buckets];
+		mask = buckets - 1;
+	}
+
+	private void rehash(int capacity) {
+		allocateTable(capacity);
+		for (int i = 0; i < size; ++i) {
+			insertKey(values[i]);
+		}
+	}
+
+	private int home(int value) {
+		int h = value * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private int findBucket(int value) {
+		for (int i = home(value); occupied[i]; i = (i + 1) & mask) {
+			if (keys[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void insertKey(int value) {
+		int i = home(value);
+		while (occupied[i]) {
+			i = (i + 1) & mask;
+		}
+		keys[i] = value;
+		occupied[i] = true;
+	}
+
+	// Backward-shift deletion, so lookups never need tombstones.
+	private void removeBucket(int bucket) {
+		int hole = bucket;
+		for (int i = (hole + 1) & mask; occupied[i]; i = (i + 1) & mask) {
+			int home = home(keys[i]);
+			if (((i - home) & mask) >= ((i - hole) & mask)) {
+				keys[hole] = keys[i];
+				hole = i;
+			}
+		}
+		occupied[hole] = false;
+	}
+}
@@ -1,86 +1,80 @@
 package com.jelleslaats.freakyfriday;
 
-import java.io.IOException;
-import java.util.ArrayList;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import android.app.AlertDialog;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
-import android.content.SharedPreferences;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.Bundle;
 
+import android.os.IBinder;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.AdapterView.OnItemClickListener;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
-import android.widget.ListView;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.gms.cast.framework.CastButtonFactory;
 import com.google.android.gms.cast.framework.CastContext;
-import com.google.android.gms.cast.framework.CastSession;
-import com.google.android.gms.cast.framework.Session;
 import com.google.android.gms.cast.framework.SessionManager;
-import com.google.android.gms.cast.framework.SessionManagerListener;
+import com.jelleslaats.freakyfriday.protocol.Metrics;
+import com.jelleslaats.freakyfriday.protocol.PendingCommand;
+import com.jelleslaats.freakyfriday.protocol.Response;
 
 
 public class MainActivity extends AppCompatActivity {
 	private static final String TAG = MainActivity.class.getSimpleName();
 
-	private CastSession mCastSession;
 	private SessionManager mSessionManager;
-	private MsgStreamImp mGameMessageStream;
-	private final SessionManagerListener mSessionListener = new SessionManagerListenerImpl();
+	// the game itself, while bound; null when stopped
+	private GameService mService;
+	private SubmissionReadTracker mReadTracker;
+	private StartupTrace mStartup;
+	private boolean mPreferencesLoaded;
 
 	// UI elements
 	private TextView bigStatus, promptDisplay, judgeBigStatus;
 	private Button nextRoundButton;
 	private Button sendCardButton;
-	private ListView cardList;
+	private RecyclerView cardList;
+	private CardListAdapter cardAdapter;
+	// shared with the game-state thread, which lays out rows before they're rendered
+	private CardLayouts mCardLayouts;
 	private RelativeLayout cardListHolder;
 
 	// Colors
 	private static final int BACKGROUND_ERROR         = 0xFF800000;
 	private static final int BACKGROUND_SUCCESS       = 0xFF006600;
-	private static final int BACKGROUND_SELECTED_CARD = 0xFFFFFFCC;
 
-	// Game state
-	private int playerID = -1;
-	private String playerName = null;
-	private Card[] hand;
-	private int judgeID = -1;
-	private ArrayList<Integer> selectedCards = new ArrayList<Integer>();
-	private ArrayList<Response> roundResponses = new ArrayList<Response>();
-	private int numOfResponses;
-	private boolean judgeMode = false;
+	// takes states from the game-state thread to the main thread, once per frame
+	private FrameConflator mFrames;
 
-	// Constants
-	private static final String PREF_FILE = "myPreferences";
+	// UI state, only touched on the main thread
+	// the state the views currently show
+	private GameState mViewState = GameState.INITIAL;
 
 	/**
-	 * Called when the activity is first created. Initializes the game with necessary listeners
-	 * for player interaction, and creates a new message stream.
+	 * Called when the activity is first created. Sets up the views and their listeners; the game
+	 * itself lives in GameService, which the activity binds to while it's visible. Only what the
+	 * first screen needs happens here: Cast is initialized once the first frame is up.
 	 */
 	@Override
 	public void onCreate(Bundle bundle) {
 		super.onCreate(bundle);
+		mStartup = StartupTrace.begin();
 		setContentView(R.layout.activity_main);
 
-		mSessionManager = CastContext.getSharedInstance(this).getSessionManager();
-		mGameMessageStream = new MsgStreamImp();
+		mFrames = new FrameConflator(mFrameRenderer);
 
 		//UI
 		bigStatus = findViewById(R.id.big_status);
@@ -90,11 +84,31 @@ public class MainActivity extends AppCompatActivity {
 		sendCardButton = findViewById(R.id.button_send_cards);
 		cardList = findViewById(R.id.card_list);
 		cardListHolder = findViewById(R.id.card_list_holder);
+		cardList.setLayoutManager(new LinearLayoutManager(this));
+		DividerItemDecoration divider = new DividerItemDecoration(this, DividerItemDecoration.VERTICAL);
+		divider.setDrawable(ContextCompat.getDrawable(this, R.drawable.card_divider));
+		cardList.addItemDecoration(divider);
+		mCardLayouts = new CardLayouts(getResources());
+		// the list fills the root's width, and the root is laid out long before the list is
+		// first shown, so the first hand can already be laid out on the game-state thread
+		final View root = (View) cardListHolder.getParent();
+		root.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+			@Override
+			public void onLayoutChange(View v, int left, int top, int right, int bottom,
+					int oldLeft, int oldTop, int oldRight, int oldBottom) {
+				mCardLayouts.setRowWidth(root.getWidth() - root.getPaddingLeft() - root.getPaddingRight());
+			}
+		});
+		cardAdapter = new CardListAdapter(mRowClickListener, mCardLayouts);
+		cardList.setAdapter(cardAdapter);
+		mReadTracker = new SubmissionReadTracker(cardList);
 
 		// listeners
 		nextRoundButton.setOnClickListener(new Button.OnClickListener(){
 			public void onClick(View v){
-				mGameMessageStream.startNextRound();
+				if(mService != null){
+					mService.getStream().startNextRound();
+				}
 			}
 		});
 		sendCardButton.setOnClickListener(new Button.OnClickListener(){
@@ -103,74 +117,118 @@ public class MainActivity extends AppCompatActivity {
 			}
 		});
 
-		loadPlayerName();
-		initScreen();
-	}
-
-	private void initScreen(){
-		bigStatus.setText(R.string.choose_chromecast);
-		bigStatus.setVisibility(View.VISIBLE);
+		StartupTrace.afterFirstFrame(getWindow().getDecorView(), new Runnable() {
+			@Override
+			public void run() {
+				mStartup.mark(Metrics.STARTUP_FIRST_FRAME);
+				initCast();
+			}
+		});
+		render(GameState.INITIAL, ChangeSet.ALL);
 	}
 
-	private void resetGameState(){
-		selectedCards.clear();
-		roundResponses.clear();
-		numOfResponses = 0;
+	// Cast can only be initialized on the main thread, and it's slow on cheap phones.
+	private void initCast(){
+		mSessionManager = CastContext.getSharedInstance(this).getSessionManager();
+		mStartup.mark(Metrics.STARTUP_CAST_READY);
+		// shows the Cast button
+		invalidateOptionsMenu();
+		if(mService != null){
+			mService.setSessionManager(mSessionManager);
+		}
 	}
 
 	/**
-	 * Called when the options menu is first created.
+	 * Binds to the game while visible. The service keeps the session and the seat while the
+	 * activity is stopped; it only goes away once nothing is bound and no session is live.
 	 */
 	@Override
-	public boolean onCreateOptionsMenu(Menu menu) {
-		super.onCreateOptionsMenu(menu);
-		getMenuInflater().inflate(R.menu.main, menu);
-		CastButtonFactory.setUpMediaRouteButton(getApplicationContext(),
-				menu,
-				R.id.media_route_menu_item);
-
-		return true;
+	protected void onStart() {
+		super.onStart();
+		bindService(new Intent(this, GameService.class), mConnection, Context.BIND_AUTO_CREATE);
 	}
 
 	@Override
-	public boolean onOptionsItemSelected(MenuItem item){
-		if (item.getItemId() == R.id.set_name_media_item) {
-			updatePlayerName();
-			return true;
+	protected void onStop() {
+		if(mService != null){
+			disconnect();
 		}
-		return super.onOptionsItemSelected(item);
+		unbindService(mConnection);
+		super.onStop();
 	}
 
+	private final ServiceConnection mConnection = new ServiceConnection() {
+		@Override
+		public void onServiceConnected(ComponentName name, IBinder binder) {
+			mService = ((GameService.LocalBinder) binder).getService();
+			mReadTracker.setStream(mService.getStream());
+			// also renders the latest state right away
+			mService.attach(mUi);
+			if(mSessionManager != null){
+				mService.setSessionManager(mSessionManager);
+			}
+			invalidateOptionsMenu();
+		}
+
+		// only if the service's process dies
+		@Override
+		public void onServiceDisconnected(ComponentName name) {
+			disconnect();
+		}
+	};
+
+	private void disconnect(){
+		mService.detach(mUi);
+		mService = null;
+		mReadTracker.setStream(null);
+	}
 
 	/**
-	 * Removes the activity from memory when the activity is paused.
+	 * Called when the options menu is first created.
 	 */
 	@Override
-	protected void onPause() {
-		super.onPause();
-		mSessionManager.removeSessionManagerListener(mSessionListener);
-		mCastSession = null;
-	}
+	public boolean onCreateOptionsMenu(Menu menu) {
+		super.onCreateOptionsMenu(menu);
+		getMenuInflater().inflate(R.menu.main, menu);
+		// setting up the Cast button would initialize Cast, so it waits until that's been done
+		menu.findItem(R.id.media_route_menu_item).setVisible(mSessionManager != null);
+		if(mSessionManager != null){
+			CastButtonFactory.setUpMediaRouteButton(getApplicationContext(),
+					menu,
+					R.id.media_route_menu_item);
+		}
+		SessionRecorder recorder = mService != null ? mService.getRecorder() : null;
+		menu.findItem(R.id.debug_metrics_menu_item).setVisible(BuildConfig.DEBUG);
+		menu.findItem(R.id.debug_record_menu_item).setVisible(recorder != null)
+				.setChecked(recorder != null && recorder.isRecording());
+		menu.findItem(R.id.debug_replay_menu_item).setVisible(recorder != null);
 
-	@Override
-	protected void onResume() {
-		mCastSession = mSessionManager.getCurrentCastSession();
-		mSessionManager.addSessionManagerListener(mSessionListener);
-		super.onResume();
+		return true;
 	}
 
-	/**
-	 * Attempts to end the current game session when the activity stops.
-	 */
 	@Override
-	protected void onStop() {
-		if (mSessionManager != null){
-			if(mGameMessageStream != null) {
-				mGameMessageStream.leaveGame();
-				mSessionManager.endCurrentSession(true);
+	public boolean onOptionsItemSelected(MenuItem item){
+		if (item.getItemId() == R.id.set_name_media_item) {
+			if(mService != null){
+				updatePlayerName();
 			}
+			return true;
 		}
-		super.onStop();
+		if (item.getItemId() == R.id.debug_metrics_menu_item) {
+			MetricsOverlay.show(this);
+			return true;
+		}
+		SessionRecorder recorder = mService != null ? mService.getRecorder() : null;
+		if (item.getItemId() == R.id.debug_record_menu_item && recorder != null) {
+			item.setChecked(!item.isChecked());
+			recorder.setRecording(item.isChecked());
+			return true;
+		}
+		if (item.getItemId() == R.id.debug_replay_menu_item && recorder != null) {
+			recorder.replay();
+			return true;
+		}
+		return super.onOptionsItemSelected(item);
 	}
 
 
@@ -196,148 +254,108 @@ public class MainActivity extends AppCompatActivity {
 		.show();
 	}
 
-	public void showJudgeUI(){
-		judgeMode = true;
-		sendCardButton.setVisibility(View.VISIBLE);
-		cardListHolder.setVisibility(View.VISIBLE);
-	}
-
-	private class SessionManagerListenerImpl implements SessionManagerListener {
-
+	// What the game hands the activity while it's bound.
+	private final GameService.Ui mUi = new GameService.Ui() {
 		@Override
-		public void onSessionStarted(Session session, String sessionId) {
-			invalidateOptionsMenu();
-			Log.i(TAG, "onSessionStarted");
-
-			mCastSession = mSessionManager.getCurrentCastSession();
-			if (mCastSession == null) {
-				Log.w(TAG, "onSessionStarted: mCastSession is null");
-				return;
+		public void onStateChanged(GameState state, int changes, long receivedAt) {
+			// so the rows only have to draw once they're bound
+			if(ChangeSet.any(changes, ChangeSet.HAND)){
+				mCardLayouts.prepare(state.handRows);
 			}
-			try {
-				mCastSession.setMessageReceivedCallbacks(MessageStream.getGameNamespace(),mGameMessageStream);
-			} catch (IOException e) {
-				e.printStackTrace();
+			if(ChangeSet.any(changes, ChangeSet.RESPONSES)){
+				mCardLayouts.prepare(state.responseRows);
 			}
-			Log.i(TAG, "onSessionStarted requestPlayerNameThenJoinGame");
-
-			requestPlayerNameThenJoinGame();
-		}
-		//region overrides
-		@Override
-		public void onSessionStarting(Session session) {
-			Log.i(TAG, "onSessionStarting");
-		}
-		@Override
-		public void onSessionStartFailed(Session session, int i) {
-			Log.i(TAG, "onSessionStartFailed");
-		}
-
-		@Override
-		public void onSessionEnding(Session session) {
-			Log.i(TAG, "onSessionEnding");
+			mFrames.submit(state, receivedAt);
 		}
 
 		@Override
-		public void onSessionResumed(Session session, boolean wasSuspended) {
+		public void onPreferencesLoaded() {
+			if(!mPreferencesLoaded){
+				mPreferencesLoaded = true;
+				mStartup.mark(Metrics.STARTUP_PREFERENCES);
+			}
+			// shows the recording items in debug builds
 			invalidateOptionsMenu();
-			Log.i(TAG, "onSessionResumed");
 		}
 
 		@Override
-		public void onSessionResumeFailed(Session session, int i) {
-			Log.i(TAG, "onSessionResumeFailed");
+		public void requestPlayerName() {
+			requestPlayerNameThenJoinGame();
 		}
 
 		@Override
-		public void onSessionSuspended(Session session, int i) {
-			Log.i(TAG, "onSessionSuspended");
+		public void showErrorMessage(String message) {
+			MainActivity.this.showErrorMessage(message);
 		}
 
 		@Override
-		public void onSessionEnded(Session session, int error) {
-			Log.i(TAG, "onSessionEnded");
+		public void onSessionEnded() {
 			finish();
 		}
-
-		@Override
-		public void onSessionResuming(Session session, String s) {
-			Log.i(TAG, "onSessionResuming");
-		}
-		//endregion
-	}
+	};
 
 	// validate selection, then submit cards
 	private void trySubmitCards(){
-		if(!judgeMode){
-			if(numOfResponses == selectedCards.size()){
-				int[] submissionIDs = new int[numOfResponses];
-				for(int i = 0; i < numOfResponses; ++i){
-					submissionIDs[i] = selectedCards.get(i);
-				}
+		if(mService == null){
+			return;
+		}
+		GameState state = mViewState;
+		IntOrderedSet selection = state.selection;
+		int numOfResponses = state.numOfResponses;
+		if(state.phase == GameState.Phase.PLAYING){
+			if(numOfResponses == selection.size()){
+				int[] submissionIDs = selection.toArray();
 				Log.d(TAG, "Submitting " + numOfResponses + " cards");
-				mGameMessageStream.submitResponse(submissionIDs);
-
-				submittedUI();
+				mService.getStream().submitResponse(submissionIDs).setCallback(mSubmissionCallback);
+				dispatch(CARDS_SUBMITTED);
 			}
 			else{
-				Log.i(TAG, "Tried to submit " + selectedCards.size() + " responses for a prompt that wants " + numOfResponses);
-				showErrorMessage("This prompt requires exactly " + numOfResponses + " card(s).\n(You tried to play " + selectedCards.size() +")");
+				Log.i(TAG, "Tried to submit " + selection.size() + " responses for a prompt that wants " + numOfResponses);
+				showErrorMessage("This prompt requires exactly " + numOfResponses + " card(s).\n(You tried to play " + selection.size() +")");
 			}
 		}
-		else{
+		else if(state.phase == GameState.Phase.JUDGING){
 			// choose winner
-			if(selectedCards.size() > 1){
+			if(selection.size() > 1){
 				Log.e(TAG, "More than one winner was in array!");
 				showErrorMessage("You're trying to declare more than one winning card. That's bad.");
 				return;
 			}
-			else if(selectedCards.size() < 1){
+			else if(selection.size() < 1){
 				Log.e(TAG, "No winner was selected!");
 				showErrorMessage("You need to select a winner!");
 				return;
 			}
-			Log.i(TAG, "Declaring user #" + selectedCards.get(0) + " as winner");
-			mGameMessageStream.declareWinner(selectedCards.get(0));
-			judgeMode = false;
+			Log.i(TAG, "Declaring user #" + selection.get(0) + " as winner");
+			// make sure the receiver knows about every submission we've seen before judging
+			mReadTracker.flush();
+			mService.getStream().declareWinner(selection.get(0));
+			dispatch(WINNER_DECLARED);
 		}
 	}
 
-	private void submittedUI(){
-		Log.i(TAG, "submittedUI()");
-		bigStatus.setText("Waiting on everyone else\nto submit their cards.");
-		hideUIShowBigStatus();
-	}
-
-	private void hideUIShowBigStatus(){
-		Log.i(TAG, "hideUIShowBigStatus()");
-		cardListHolder.setVisibility(View.GONE);
-		sendCardButton.setVisibility(View.GONE);
-		bigStatus.setVisibility(View.VISIBLE);
-	}
-
-	private void savePlayerName(String name){
-		SharedPreferences settings = getSharedPreferences(PREF_FILE, 0);
-		SharedPreferences.Editor editor = settings.edit();
-		playerName = name;
-		editor.putString("name", name);
-		editor.apply();
-	}
+	// If the submission never reached the receiver, put the hand back so the player can try again.
+	private final PendingCommand.Callback mSubmissionCallback = new PendingCommand.Callback() {
+		@Override
+		public void onCompleted(PendingCommand command, int responseCode) {
+			Log.d(TAG, "Submission acknowledged in " + command.getLatencyMillis() + "ms");
+		}
 
-	private void loadPlayerName(){
-		SharedPreferences settings = getSharedPreferences(PREF_FILE, 0);
-		playerName = settings.getString("name", null);
-	}
+		@Override
+		public void onFailed(PendingCommand command) {
+			Log.w(TAG, "Submission failed after " + command.getAttempts() + " attempt(s)");
+			if(mService == null || GameReducer.submissionFailed(mViewState) == mViewState){
+				// the round moved on in the meantime, or the player left the app
+				return;
+			}
+			dispatch(SUBMISSION_FAILED);
+			showErrorMessage("Your cards didn't make it to the Chromecast. Please try again.");
+		}
+	};
 
 	private void requestPlayerNameThenJoinGame(){
 		Log.i(TAG, "Requesting player name");
 
-		// only request name if not set
-		if(playerName != null){
-			mGameMessageStream.joinGame(playerName);
-			return;
-		}
-
 		AlertDialog.Builder alert = new AlertDialog.Builder(this);
 
 		alert.setTitle("Enter Player Name");
@@ -357,10 +375,13 @@ public class MainActivity extends AppCompatActivity {
 					requestPlayerNameThenJoinGame();
 					return;
 				}
+				if(mService == null){
+					return;
+				}
 
-				savePlayerName(newName);
-				Toast.makeText(getApplicationContext(), "Name set to " + playerName, Toast.LENGTH_LONG).show();
-				mGameMessageStream.joinGame(playerName);
+				mService.setPlayerName(newName);
+				Toast.makeText(getApplicationContext(), "Name set to " + newName, Toast.LENGTH_LONG).show();
+				mService.joinGame();
 			}
 		});
 
@@ -378,6 +399,7 @@ public class MainActivity extends AppCompatActivity {
 		final EditText input = new EditText(this);
 
 		alert.setView(input);
+		final String playerName = mService.getPlayerName();
 		if(playerName != null){
 			input.setText(playerName);
 		}
@@ -392,14 +414,14 @@ public class MainActivity extends AppCompatActivity {
 					return;
 				}
 
-				if(newName.equals(playerName)){
+				if(newName.equals(playerName) || mService == null){
 					return;
 				}
 
-				savePlayerName(newName);
-				Toast.makeText(getApplicationContext(), "Name updated to " + playerName, Toast.LENGTH_LONG).show();
+				mService.setPlayerName(newName);
+				Toast.makeText(getApplicationContext(), "Name updated to " + newName, Toast.LENGTH_LONG).show();
 
-				mGameMessageStream.updateSettings(playerName);
+				mService.getStream().updateSettings(newName);
 			}
 		});
 
@@ -412,23 +434,109 @@ public class MainActivity extends AppCompatActivity {
 		alert.show();
 	}
 
-	// update card list with contents of hand, and if any cards are selected highlight them.
-	// also update the submit button's contents but don't change its visibility.
-	private void updateHandDisplay(){
-		Log.i(TAG, "selected cards contains this many items: " + selectedCards.size());
+	//region rendering
 
-		if(!judgeMode){
-			String[] prompts = new String[hand.length];
-			for(int i = 0; i < hand.length; ++i){
-				prompts[i] = hand[i].toString();
+	/**
+	 * Brings the views in line with the new state, touching only the ones whose inputs are in
+	 * the change set.
+	 */
+	private void render(GameState state, int changes){
+		GameState previous = mViewState;
+		mViewState = state;
+
+		if(ChangeSet.any(changes, ChangeSet.PHASE)){
+			renderPhase(previous, state);
+		}
+		if(ChangeSet.any(changes, ChangeSet.PROMPT) && state.prompt != null){
+			promptDisplay.setText(state.prompt);
+		}
+		if(ChangeSet.any(changes, ChangeSet.PHASE | ChangeSet.HAND | ChangeSet.RESPONSES)){
+			renderList(previous, state, changes);
+		}
+		if(ChangeSet.any(changes, ChangeSet.SELECTION)){
+			cardAdapter.setSelection(state.selection);
+		}
+		if(ChangeSet.any(changes, ChangeSet.PHASE | ChangeSet.PROMPT | ChangeSet.SELECTION)){
+			updateSendButton();
+		}
+	}
+
+	private void renderPhase(GameState previous, GameState state){
+		GameState.Phase phase = state.phase;
+		Log.i(TAG, "Phase " + previous.phase + " -> " + phase);
+
+		switch(phase){
+		case DISCONNECTED:
+			bigStatus.setText(R.string.choose_chromecast);
+			break;
+		case QUEUED:
+			bigStatus.setText(R.string.player_queued_notice);
+			break;
+		case LOBBY:
+			bigStatus.setText(R.string.waiting_for_round);
+			break;
+		case SUBMITTED:
+			bigStatus.setText("Waiting on everyone else\nto submit their cards.");
+			break;
+		case WAITING_FOR_JUDGE:
+			bigStatus.setText(R.string.waiting_for_judge);
+			break;
+		default:
+			break;
+		}
+
+		setVisible(bigStatus, phase == GameState.Phase.DISCONNECTED || phase == GameState.Phase.QUEUED
+				|| phase == GameState.Phase.LOBBY || phase == GameState.Phase.SUBMITTED
+				|| phase == GameState.Phase.WAITING_FOR_JUDGE);
+		setVisible(nextRoundButton, phase == GameState.Phase.QUEUED || phase == GameState.Phase.LOBBY);
+		setVisible(promptDisplay, phase.compareTo(GameState.Phase.PLAYING) >= 0);
+		setVisible(judgeBigStatus, phase == GameState.Phase.JUDGE_WAITING);
+		setVisible(sendCardButton, phase == GameState.Phase.PLAYING || phase == GameState.Phase.JUDGING);
+		setVisible(cardListHolder, phase == GameState.Phase.PLAYING || phase == GameState.Phase.JUDGING
+				|| phase == GameState.Phase.DECIDED);
+
+		if(phase == GameState.Phase.JUDGING && previous.phase != GameState.Phase.JUDGING){
+			showJudgeInstructions();
+		}
+		if(previous.phase == GameState.Phase.JUDGING && phase != GameState.Phase.JUDGING){
+			mReadTracker.clear();
+		}
+	}
+
+	// Shows the responses while judging and the hand otherwise. Only rows that differ from
+	// what's on screen get rebound.
+	private void renderList(GameState previous, GameState state, int changes){
+		if(state.showsResponses()){
+			if(previous.showsResponses() && !ChangeSet.any(changes, ChangeSet.RESPONSES)){
+				return;
 			}
+			final Response[] shownResponses = state.responses;
+			cardAdapter.submitList(state.responseRows, new Runnable() {
+				@Override
+				public void run() {
+					// submissions are marked as read on the server once their rows have been on screen
+					if(mViewState.phase == GameState.Phase.JUDGING && mViewState.responses == shownResponses){
+						mReadTracker.track(shownResponses);
+					}
+				}
+			});
+		}
+		else if(previous.showsResponses() || ChangeSet.any(changes, ChangeSet.HAND)){
+			cardAdapter.submitList(state.handRows);
+		}
+	}
 
-			// populate ListView
-			setCardListContents(prompts);
+	private static void setVisible(View view, boolean visible){
+		view.setVisibility(visible ? View.VISIBLE : View.GONE);
+	}
 
-			// set button
-			if(selectedCards.size() > numOfResponses){
-				int diff = selectedCards.size() - numOfResponses;
+	// update the submit button's label and color to match the current selection.
+	private void updateSendButton(){
+		int numOfResponses = mViewState.numOfResponses;
+		int selected = mViewState.selection.size();
+		if(!mViewState.showsResponses()){
+			if(selected > numOfResponses){
+				int diff = selected - numOfResponses;
 				String label = "Select " + Math.abs(diff) + " Less Card";
 				if(Math.abs(diff) != 1){
 					label += "s";
@@ -437,8 +545,8 @@ public class MainActivity extends AppCompatActivity {
 				sendCardButton.setText(label);
 				sendCardButton.setBackgroundColor(BACKGROUND_ERROR);
 			}
-			else if(selectedCards.size() < numOfResponses){
-				int diff = selectedCards.size() - numOfResponses;
+			else if(selected < numOfResponses){
+				int diff = selected - numOfResponses;
 				String label = "Select " + Math.abs(diff) + " More Card";
 				if(Math.abs(diff) != 1){
 					label += "s";
@@ -459,7 +567,7 @@ public class MainActivity extends AppCompatActivity {
 			}
 		}
 		else{
-			if(selectedCards.size() == 1){
+			if(selected == 1){
 				String label = "Choose Winner";
 				sendCardButton.setText(label);
 				sendCardButton.setBackgroundColor(BACKGROUND_SUCCESS);
@@ -472,269 +580,71 @@ public class MainActivity extends AppCompatActivity {
 		}
 	}
 
-	private void setCardListContents(String[] contents){
-		MyAdapter adapter = new MyAdapter(this, R.layout.list_card, contents);
-		cardList.setAdapter(adapter);
-		cardList.setOnItemClickListener(mMessageClickedHandler);
-	}
-
-	public class MyAdapter extends ArrayAdapter<String>{
+	//endregion
 
-		Context thisContext;
-
-		public MyAdapter(Context context, int resource, String[] objects) {
-			super(context, resource, objects);
-			thisContext = context;
-		}
+	//region state updates
 
+	private static final GameService.Action CARDS_SUBMITTED = new GameService.Action() {
 		@Override
-		public View getView(int position, View convertView, ViewGroup parent) {
-			View view = super.getView(position, convertView, parent);
-
-			if(judgeMode){
-				if(selectedCards.size() > 0){
-					Log.i(TAG, roundResponses.get(position).owner + " = " + selectedCards.get(0) + "? " + (roundResponses.get(position).owner == selectedCards.get(0)));
-				}
-			}
-
-			view.setBackgroundColor(0xFFFFFFFF);
-			
-			if (judgeMode){
-				if(selectedCards.size() > 0){
-					if(roundResponses.get(position).owner == selectedCards.get(0)){
-						Log.i(TAG, "Setting background color of selected winning card");
-						view.setBackgroundColor(BACKGROUND_SELECTED_CARD);
-					}
-				}
-			}
-			if(!judgeMode){
-				if(!judgeMode && selectedCards.contains(hand[position].id)) {
-					Log.i(TAG, "Setting background color of selected card to be played");
-					view.setBackgroundColor(BACKGROUND_SELECTED_CARD);
-				}
-			}
-
-			return view;
+		public GameState reduce(GameState state) {
+			return GameReducer.cardsSubmitted(state);
 		}
+	};
 
-	}
-
-	// Create a message handling object as an anonymous class.
-	private OnItemClickListener mMessageClickedHandler = new OnItemClickListener() {
+	private static final GameService.Action SUBMISSION_FAILED = new GameService.Action() {
 		@Override
-		public void onItemClick(AdapterView<?> parent, View v, int position, long id) {
-			Log.i(TAG, "Clicked item #" + position);
-			if(!judgeMode){
-				Card thisCard = hand[position];
-
-				// if selected, deselect and vice versa
-				if(selectedCards.contains(thisCard.id)){
-					selectedCards.remove((Integer) thisCard.id);
-				}
-				else{
-					selectedCards.add(thisCard.id);
-				}
-
-				updateHandDisplay();
-			}
-			else{ // select a winning response
-				if(selectedCards.size() > 0){
-					selectedCards.clear();
-				}
-
-				int responseOwner = roundResponses.get(position).owner;
-				selectedCards.add(responseOwner);
-
-				updateHandDisplay();
-			}
+		public GameState reduce(GameState state) {
+			return GameReducer.submissionFailed(state);
 		}
 	};
 
-
-	private class MsgStreamImp extends MessageStream {
-
-		MsgStreamImp() {
-			super(mSessionManager);
-		}
-
-		// Player is queued. Update UI to notify them.
-		protected void onPlayerQueued(){
-			bigStatus.setText(R.string.player_queued_notice);
-			nextRoundButton.setVisibility(View.VISIBLE);
+	private static final GameService.Action WINNER_DECLARED = new GameService.Action() {
+		@Override
+		public GameState reduce(GameState state) {
+			return GameReducer.winnerDeclared(state);
 		}
+	};
 
-		// Player has joined. Store ID internally and update UI.
-		protected void onPlayerJoined(int newID){
-			if(newID < 0){
-				Log.w(TAG, "Got negative playerID (" + newID + ")");
-				showErrorMessage("Received a negative playerID... that's bad.");
-			}
-			playerID = newID;
-			onRoundEnded();
+	private void dispatch(GameService.Action action){
+		if(mService != null){
+			mService.dispatch(action);
 		}
+	}
 
-		// The game has entered judge mode. Update UI.
-		protected void onJudgeModeStarted(){
-			judgeBigStatus.setVisibility(View.GONE);
-			if(playerID == judgeID){
-				// let onJudgeResponses handle it
+	// Renders everything that changed between the state on screen and the latest one, once per
+	// frame; states in between are skipped. Nothing is rendered while the activity is stopped,
+	// since it gets the latest state again when it's back.
+	private final FrameConflator.Renderer mFrameRenderer = new FrameConflator.Renderer() {
+		@Override
+		public void render(GameState state, long receivedAt) {
+			if(mService == null){
 				return;
 			}
-
-			bigStatus.setText(R.string.waiting_for_judge);
-			hideUIShowBigStatus();
-		}
-
-		// Update game state with server information
-		protected void onGameSync(JSONObject player, int newJudge){
-			judgeID = newJudge;
-			try {
-				playerID = player.getInt("ID");
-				JSONArray handObject = (JSONArray) player.get("hand");
-
-				Card[] newHand = new Card[handObject.length()];
-
-				for(int i = 0; i < handObject.length(); ++i){
-					int cardID = handObject.getJSONObject(i).getInt("ID");
-					String cardText = handObject.getJSONObject(i).getString("text");
-					newHand[i] = new Card(cardID, cardText);
-				}
-
-				String newHandLog ="newHand:\n";
-				for(int i = 0; i < newHand.length; ++i){
-					newHandLog += newHand[i].toString() + "\n";
-				}
-				Log.d(TAG, newHandLog);
-
-				hand = newHand;
-
-				updateHandDisplay();
+			int changes = ChangeSet.between(mViewState, state);
+			if(changes != ChangeSet.NONE){
+				MainActivity.this.render(state, changes);
 			}
-			catch (JSONException e) {
-				Log.e(TAG, "Couldn't get list of cards in gameSync.");
-				showErrorMessage("Couldn't get your updated hand from the server.");
+			if(receivedAt != 0){
+				Metrics.get().histogram(Metrics.MESSAGE_TO_UI).recordNanos(System.nanoTime() - receivedAt);
 			}
 		}
+	};
 
-		// Player is judging responses. Display responses and handle submission.
-		protected void onJudgeResponses(JSONArray responses){
-			showJudgeInstructions();
-
-			try{
-				// populate table with responses instead of hand
-				ArrayList<Response> responseList = new ArrayList<Response>();
-				for(int i = 0; i < responses.length(); ++i){
-					JSONObject thisResponseJSONObject = (JSONObject) responses.get(i);
-					int thisOwner = thisResponseJSONObject.getInt("submitter");
-
-					JSONArray thisCardsArray = (JSONArray) thisResponseJSONObject.get("cards");
-					Card[] theseCards = new Card[thisCardsArray.length()];
-					int[] theseCardIDs = new int[thisCardsArray.length()];
-					for(int j = 0; j < thisCardsArray.length(); ++j){
-						JSONObject thisCardJSONObject = (JSONObject) thisCardsArray.get(j);
-						int thisCardId = thisCardJSONObject.getInt("ID");
-						String thisCardPrompt = thisCardJSONObject.getString("text");
-						theseCards[j] = new Card(thisCardId, thisCardPrompt);
-						theseCardIDs[j] = thisCardId;
-					}
-
-					Response thisResponse = new Response(thisOwner, theseCards);
-					Log.i(TAG, thisResponse.toString());
-					responseList.add(thisResponse);
-					roundResponses.add(thisResponse);
-
-					// mark as read on server
-					mGameMessageStream.readSubmission(theseCardIDs);
-				}
-
-				String[] responseStrings = new String[responseList.size()];
-				for(int i = 0; i < responseList.size(); ++i){
-					String tempString = "";
-					for(int j = 0; j < responseList.get(i).contents.length; ++j){
-						tempString += responseList.get(i).contents[j];
-
-						if(j < (responseList.get(i).contents.length - 1)){
-							tempString += "\n";
-						}
-					}
-
-					responseStrings[i] = tempString;
+	// Toggles cards in the hand, or picks the winning response while judging.
+	private final CardListAdapter.OnRowClickListener mRowClickListener = new CardListAdapter.OnRowClickListener() {
+		@Override
+		public void onRowClicked(final CardRow row) {
+			dispatch(new GameService.Action() {
+				@Override
+				public GameState reduce(GameState state) {
+					// the reducer ignores taps on a list that hasn't caught up with the phase yet
+					return row.isResponse()
+							? GameReducer.winnerPicked(state, row.selectionKey)
+							: GameReducer.cardToggled(state, row.selectionKey);
 				}
-
-				showJudgeUI();
-				setCardListContents(responseStrings);
-			}
-			catch (JSONException e){
-				Log.e(TAG, "Couldn't get list of responses in onJudgeResponses.");
-				showErrorMessage("There was a problem getting everyone's responses from the server.");
-			}
+			});
 		}
+	};
 
-		// The round has started. Display the new prompt and the player's hand.
-		protected void onRoundStarted(String newPrompt, int numOfBlanks){
-			promptDisplay.setText(newPrompt);
-			promptDisplay.setVisibility(View.VISIBLE);
-			bigStatus.setVisibility(View.GONE);
-			nextRoundButton.setVisibility(View.GONE);
-
-			numOfResponses = numOfBlanks;
-			updateHandDisplay();
-
-			if(playerID == judgeID){
-				Log.i(TAG, "I'm judge!");
-				judgeBigStatus.setVisibility(View.VISIBLE);
-				numOfResponses = 1;
-				return;
-			}
-
-			Log.i(TAG, "Showing cardListHolder");
-			sendCardButton.setVisibility(View.VISIBLE);
-			cardListHolder.setVisibility(View.VISIBLE);
-		}
-
-		// The round has ended. Update UI.
-		protected void onRoundEnded(){
-			bigStatus.setText(R.string.waiting_for_round);
-			bigStatus.setVisibility(View.VISIBLE);
-			nextRoundButton.setVisibility(View.VISIBLE);
-			sendCardButton.setVisibility(View.GONE);
-			cardListHolder.setVisibility(View.GONE);
-			promptDisplay.setVisibility(View.GONE);
-
-			resetGameState();
-		}
-
-		// Some error code has been received. Let the user know.
-		protected void onServerError(int errorCode){
-			String messageText;
-			switch(errorCode){
-			case ERROR_SENT_INVALID_MESSAGE_TYPE:
-				messageText = "Something went wrong with the code...";
-				Log.e(TAG, "ERROR_SENT_INVALID_MESSAGE_TYPE");
-				break;
-			case ERROR_WRONG_NUMBER_OF_CARDS:
-				messageText = "You tried to submit the wrong number of cards.";
-				break;
-			case ERROR_INVALID_WINNER_SUBMITTED:
-				messageText = "You tried to declare yourself or a nonexistent player as winner.";
-				break;
-			case ERROR_JUDGED_BEFORE_CARDS_WERE_READ:
-				messageText = "You tried to declare a winner before reading all the cards.";
-				break;
-			case ERROR_TRIED_TO_JOIN_WITH_BLANK_NAME:
-				messageText = "You tried to join the game with a blank name.";
-				break;
-			case ERROR_TRIED_TO_START_ROUND_WHILE_ROUND_EXISTS:
-				messageText = "You can't start a round while one is in progress.";
-				break;
-			case ERROR_TRIED_TO_START_ROUND_INSUFFICIENT_PLAYERS:
-				messageText = "There aren't enough players to start the round yet.";
-				break;
-			default:
-				messageText = "An unknown error occurred.";
-			}
-
-			showErrorMessage(messageText);
-		}
-	}
-}
\ No newline at end of file
+	//endregion
+}
@@ -0,0 +1,79 @@
+package com.jelleslaats.freakyfriday;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.graphics.Typeface;
+import android.util.Log;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+import com.jelleslaats.freakyfriday.protocol.Metrics;
+
+/**
+ * Debug-only dialog showing live metrics, refreshed twice a second while it's open. The JSON
+ * snapshot can be shared (and is logged) so runs on different phones can be compared.
+ */
+class MetricsOverlay implements Runnable, DialogInterface.OnDismissListener {
+	private static final String TAG = MetricsOverlay.class.getSimpleName();
+	private static final long REFRESH_INTERVAL_MS = 500;
+
+	private final Activity activity;
+	private final TextView text;
+
+	private MetricsOverlay(Activity activity) {
+		this.activity = activity;
+		this.text = new TextView(activity);
+		text.setTypeface(Typeface.MONOSPACE);
+		text.setTextSize(11);
+		int padding = (int) (16 * activity.getResources().getDisplayMetrics().density);
+		text.setPadding(padding, padding, padding, padding);
+	}
+
+	static void show(Activity activity) {
+		final MetricsOverlay overlay = new MetricsOverlay(activity);
+		ScrollView scroll = new ScrollView(activity);
+		scroll.addView(overlay.text);
+
+		new AlertDialog.Builder(activity)
+		.setTitle("Metrics")
+		.setView(scroll)
+		.setPositiveButton("Share JSON", new DialogInterface.OnClickListener() {
+			public void onClick(DialogInterface dialog, int which) {
+				overlay.shareSnapshot();
+			}
+		})
+		.setNeutralButton("Reset", new DialogInterface.OnClickListener() {
+			public void onClick(DialogInterface dialog, int which) {
+				Metrics.get().reset();
+			}
+		})
+		.setNegativeButton("Close", null)
+		.setOnDismissListener(overlay)
+		.show();
+
+		overlay.run();
+	}
+
+	@Override
+	public void run() {
+		text.setText(Metrics.get().summary());
+		Threads.main().postDelayed(this, REFRESH_INTERVAL_MS);
+	}
+
+	@Override
+	public void onDismiss(DialogInterface dialog) {
+		Threads.main().removeCallbacks(this);
+	}
+
+	private void shareSnapshot() {
+		String json = Metrics.get().toJson();
+		Log.i(TAG, json);
+
+		Intent share = new Intent(Intent.ACTION_SEND);
+		share.setType("application/json");
+		share.putExtra(Intent.EXTRA_TEXT, json);
+		activity.startActivity(Intent.createChooser(share, "Share metrics"));
+	}
+}
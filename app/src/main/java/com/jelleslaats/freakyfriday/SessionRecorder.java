@@ -0,0 +1,116 @@
+package com.jelleslaats.freakyfriday;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.jelleslaats.freakyfriday.protocol.JournalReplayer;
+import com.jelleslaats.freakyfriday.protocol.MessageJournal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Debug-only recording of every message to a journal in the app's files, and replaying the
+ * recording into the game as if the Chromecast were sending it again. Recording is opt-in and
+ * stays on across launches, so the game that went wrong is the one that's on file. Pull it with
+ * {@code adb shell run-as com.jelleslaats.freakyfriday cat files/messages.journal}.
+ */
+class SessionRecorder {
+	private static final String TAG = SessionRecorder.class.getSimpleName();
+	private static final String PREF_RECORDING = "recordMessages";
+	private static final String FILE_NAME = "messages.journal";
+
+	private final File file;
+	private final SharedPreferences prefs;
+	private final MessageStream stream;
+	// opened and closed on the game-state thread
+	private MessageJournal journal;
+
+	SessionRecorder(Context context, SharedPreferences prefs, MessageStream stream) {
+		this.file = new File(context.getFilesDir(), FILE_NAME);
+		this.prefs = prefs;
+		this.stream = stream;
+		if (isRecording()) {
+			setRecording(true);
+		}
+	}
+
+	boolean isRecording() {
+		return prefs.getBoolean(PREF_RECORDING, false);
+	}
+
+	void setRecording(final boolean recording) {
+		prefs.edit().putBoolean(PREF_RECORDING, recording).apply();
+		// mapping the file touches the disk
+		Threads.game().post(new Runnable() {
+			@Override
+			public void run() {
+				if (recording) {
+					openJournal();
+				}
+				else {
+					closeJournal();
+				}
+			}
+		});
+	}
+
+	// Feeds the recorded game back in real time. Recording pauses so the replay doesn't record itself.
+	void replay() {
+		Threads.game().post(new Runnable() {
+			@Override
+			public void run() {
+				if (!openJournal()) {
+					return;
+				}
+				final List<MessageJournal.Record> records = journal.records();
+				closeJournal();
+				Log.i(TAG, "Replaying " + records.size() + " messages");
+
+				// the stream hands each message to the game-state thread, so the waiting happens elsewhere
+				new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							int delivered = JournalReplayer.replay(records, stream, true);
+							Log.i(TAG, "Replayed " + delivered + " messages");
+						}
+						catch (InterruptedException e) {
+							Log.w(TAG, "Replay interrupted");
+						}
+						if (isRecording()) {
+							setRecording(true);
+						}
+					}
+				}, "journal-replay").start();
+			}
+		});
+	}
+
+	private boolean openJournal() {
+		Threads.assertGameThread();
+		if (journal != null) {
+			return true;
+		}
+		try {
+			journal = MessageJournal.open(file, MessageJournal.DEFAULT_CAPACITY);
+		}
+		catch (IOException e) {
+			Log.w(TAG, "Can't open the message journal", e);
+			return false;
+		}
+		stream.setJournal(journal);
+		return true;
+	}
+
+	private void closeJournal() {
+		Threads.assertGameThread();
+		if (journal != null) {
+			stream.setJournal(null);
+			journal.close();
+			journal = null;
+		}
+	}
+}
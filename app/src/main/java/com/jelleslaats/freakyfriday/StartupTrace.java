@@ -0,0 +1,69 @@
+package com.jelleslaats.freakyfriday;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import com.jelleslaats.freakyfriday.protocol.Metrics;
+
+/**
+ * Times a cold start: how long after the process started the first frame was drawn, the
+ * preferences were loaded and Cast was ready. Each phase goes into its Metrics histogram, so it
+ * shows in the metrics overlay and its JSON snapshot, and is logged. Only the first activity of a
+ * process is traced, since later ones aren't cold starts. Before Android 7 the process start
+ * isn't known and times are counted from the activity's creation instead.
+ *
+ * Main thread only.
+ */
+final class StartupTrace {
+	private static final String TAG = StartupTrace.class.getSimpleName();
+
+	private static boolean sStarted;
+
+	// elapsedRealtime of the process start; -1 if this isn't a cold start
+	private final long startMillis;
+
+	private StartupTrace(long startMillis) {
+		this.startMillis = startMillis;
+	}
+
+	// Call from the first activity's onCreate.
+	static StartupTrace begin() {
+		Threads.assertMainThread();
+		if (sStarted) {
+			return new StartupTrace(-1);
+		}
+		sStarted = true;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+			return new StartupTrace(Process.getStartElapsedRealtime());
+		}
+		return new StartupTrace(SystemClock.elapsedRealtime());
+	}
+
+	/**
+	 * Runs the callback on the main thread once the view's first frame has been drawn.
+	 */
+	static void afterFirstFrame(final View view, final Runnable callback) {
+		view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+			@Override
+			public boolean onPreDraw() {
+				view.getViewTreeObserver().removeOnPreDrawListener(this);
+				// this traversal draws the frame before the main thread gets to the callback
+				Threads.main().post(callback);
+				return true;
+			}
+		});
+	}
+
+	void mark(String phase) {
+		if (startMillis < 0) {
+			return;
+		}
+		long millis = SystemClock.elapsedRealtime() - startMillis;
+		Metrics.get().histogram(phase).recordMillis(millis);
+		Log.i(TAG, phase + " after " + millis + "ms");
+	}
+}
@@ -0,0 +1,127 @@
+package com.jelleslaats.freakyfriday;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.ViewTreeObserver;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import com.jelleslaats.freakyfriday.protocol.Response;
+
+import java.util.ArrayList;
+
+/**
+ * Tracks which judge submissions have actually been on screen. A submission is marked as read
+ * the first time its row is visible in the card list, and newly read submissions are reported
+ * to the receiver together once per flush window: as one message if the receiver confirmed
+ * batched reads, otherwise as one message each, sent back to back.
+ */
+class SubmissionReadTracker extends RecyclerView.OnScrollListener
+		implements ViewTreeObserver.OnGlobalLayoutListener, Runnable {
+	private static final long FLUSH_WINDOW_MS = 100;
+
+	// the game's stream while the activity is bound to it
+	private MessageStream stream;
+	private final RecyclerView list;
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	private Response[] responses;
+	private boolean[] read;
+	private final ArrayList<int[]> pending = new ArrayList<int[]>();
+	private boolean flushScheduled = false;
+
+	SubmissionReadTracker(RecyclerView list) {
+		this.list = list;
+		list.addOnScrollListener(this);
+		list.getViewTreeObserver().addOnGlobalLayoutListener(this);
+	}
+
+	// Where read submissions are reported; null drops them, since the judge can't see the list.
+	void setStream(MessageStream stream) {
+		this.stream = stream;
+	}
+
+	/**
+	 * Start tracking a new set of submissions, one per list row. Call this once the adapter
+	 * holds those rows; they are picked up on the layout pass that follows.
+	 */
+	void track(Response[] responses) {
+		clear();
+		this.responses = responses;
+		this.read = new boolean[responses.length];
+	}
+
+	// Stop tracking and drop anything that hasn't been sent yet.
+	void clear() {
+		responses = null;
+		read = null;
+		pending.clear();
+		handler.removeCallbacks(this);
+		flushScheduled = false;
+	}
+
+	// Send whatever has been read so far right away.
+	void flush() {
+		handler.removeCallbacks(this);
+		run();
+	}
+
+	@Override
+	public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+		markVisibleRows();
+	}
+
+	// Rows that are visible without any scrolling count too.
+	@Override
+	public void onGlobalLayout() {
+		markVisibleRows();
+	}
+
+	private void markVisibleRows() {
+		if (responses == null || !list.isShown()) {
+			return;
+		}
+
+		LinearLayoutManager layoutManager = (LinearLayoutManager) list.getLayoutManager();
+		int first = layoutManager.findFirstVisibleItemPosition();
+		if (first == RecyclerView.NO_POSITION) {
+			return;
+		}
+		int end = Math.min(layoutManager.findLastVisibleItemPosition() + 1, responses.length);
+		for (int i = first; i < end; ++i) {
+			if (!read[i]) {
+				read[i] = true;
+				pending.add(cardIDs(responses[i]));
+			}
+		}
+
+		if (!pending.isEmpty() && !flushScheduled) {
+			flushScheduled = true;
+			handler.postDelayed(this, FLUSH_WINDOW_MS);
+		}
+	}
+
+	@Override
+	public void run() {
+		flushScheduled = false;
+		if (pending.isEmpty()) {
+			return;
+		}
+		if (stream == null) {
+			pending.clear();
+			return;
+		}
+
+		stream.readSubmissions(pending.toArray(new int[pending.size()][]));
+		pending.clear();
+	}
+
+	private static int[] cardIDs(Response response) {
+		int[] ids = new int[response.contents.length];
+		for (int i = 0; i < ids.length; ++i) {
+			ids[i] = response.contents[i].id;
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,47 @@
+package com.jelleslaats.freakyfriday;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+/**
+ * The two threads the game runs on. The main thread owns the views, the Cast session and the
+ * outbound command queue. The game-state thread decodes inbound messages and is the only thread
+ * that writes the game model; it hands finished view state back to the main thread.
+ *
+ * The assert methods throw in debug builds when called from the wrong thread and do nothing in
+ * release builds.
+ */
+final class Threads {
+	private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+	private static Handler sGameHandler;
+
+	private Threads() {
+	}
+
+	static Handler main() {
+		return MAIN_HANDLER;
+	}
+
+	// The game-state thread, started on first use and kept for the life of the process.
+	static synchronized Handler game() {
+		if (sGameHandler == null) {
+			HandlerThread thread = new HandlerThread("game-state");
+			thread.start();
+			sGameHandler = new Handler(thread.getLooper());
+		}
+		return sGameHandler;
+	}
+
+	static void assertMainThread() {
+		if (BuildConfig.DEBUG && Looper.myLooper() != Looper.getMainLooper()) {
+			throw new IllegalStateException("Expected the main thread but was on " + Thread.currentThread().getName());
+		}
+	}
+
+	static void assertGameThread() {
+		if (BuildConfig.DEBUG && Looper.myLooper() != game().getLooper()) {
+			throw new IllegalStateException("Expected the game-state thread but was on " + Thread.currentThread().getName());
+		}
+	}
+}
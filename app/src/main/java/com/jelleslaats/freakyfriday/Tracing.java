@@ -0,0 +1,39 @@
+package com.jelleslaats.freakyfriday;
+
+import android.os.Trace;
+
+import com.jelleslaats.freakyfriday.protocol.ProtocolTrace;
+
+/**
+ * System trace sections around the app's hot paths, so a captured trace shows where frame time
+ * goes during a round instead of it blending into the framework's work. Only builds made with
+ * -Ptrace have them; everywhere else BuildConfig.TRACE is a constant false and every call here
+ * compiles to nothing.
+ */
+final class Tracing {
+	private static boolean sInstalled;
+
+	private Tracing() {
+	}
+
+	// Has the protocol module trace too. Main thread, before the protocol is used.
+	static void install() {
+		if (BuildConfig.TRACE && !sInstalled) {
+			sInstalled = true;
+			ProtocolTrace.setTracer(new AndroidTracer());
+		}
+	}
+
+	// Pair with end() in a finally, on the same thread.
+	static void begin(String name) {
+		if (BuildConfig.TRACE) {
+			Trace.beginSection(name);
+		}
+	}
+
+	static void end() {
+		if (BuildConfig.TRACE) {
+			Trace.endSection();
+		}
+	}
+}
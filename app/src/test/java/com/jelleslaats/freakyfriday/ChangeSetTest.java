@@ -0,0 +1,72 @@
+package com.jelleslaats.freakyfriday;
+
+import com.jelleslaats.freakyfriday.protocol.Card;
+import com.jelleslaats.freakyfriday.protocol.Response;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeSetTest {
+	private static final int ME = 1;
+	private static final int JUDGE = 2;
+
+	@Test
+	public void sameStateChangesNothing() {
+		assertEquals(ChangeSet.NONE, ChangeSet.between(GameState.INITIAL, GameState.INITIAL));
+		GameState state = GameReducer.playerQueued(GameState.INITIAL);
+		assertEquals(ChangeSet.NONE, ChangeSet.between(state, GameReducer.playerQueued(state)));
+	}
+
+	@Test
+	public void eachEventMarksOnlyWhatItChanged() {
+		GameState joined = GameReducer.playerJoined(GameState.INITIAL, ME);
+		assertEquals(ChangeSet.PHASE | ChangeSet.PLAYERS, ChangeSet.between(GameState.INITIAL, joined));
+
+		GameState synced = GameReducer.gameSync(joined, ME, 1, cards(10, 11, 12), JUDGE);
+		assertEquals(ChangeSet.PLAYERS | ChangeSet.HAND, ChangeSet.between(joined, synced));
+
+		GameState playing = GameReducer.roundStarted(synced, "Why ____?", 1, false);
+		assertEquals(ChangeSet.PHASE | ChangeSet.PROMPT, ChangeSet.between(synced, playing));
+
+		GameState selected = GameReducer.cardToggled(playing, 10);
+		assertEquals(ChangeSet.SELECTION, ChangeSet.between(playing, selected));
+
+		GameState submitted = GameReducer.cardsSubmitted(selected);
+		assertEquals(ChangeSet.PHASE, ChangeSet.between(selected, submitted));
+
+		GameState drawn = GameReducer.handDelta(submitted, ME, 1, 2, cards(20), new int[]{10}, JUDGE);
+		assertEquals(ChangeSet.HAND | ChangeSet.SELECTION, ChangeSet.between(submitted, drawn));
+
+		GameState stale = GameReducer.handDelta(drawn, ME, 7, 8, cards(21), new int[]{20}, JUDGE);
+		assertEquals(ChangeSet.HAND_OUT_OF_SYNC, ChangeSet.between(drawn, stale));
+
+		GameState ended = GameReducer.roundEnded(stale);
+		assertEquals(ChangeSet.PHASE | ChangeSet.PROMPT, ChangeSet.between(stale, ended));
+	}
+
+	@Test
+	public void judgingChangesTheResponsesAndThePick() {
+		GameState judge = GameReducer.roundStarted(
+				GameReducer.gameSync(GameReducer.playerJoined(GameState.INITIAL, JUDGE), JUDGE, 1, cards(10), JUDGE),
+				"Why ____?", 1, false);
+		GameState judging = GameReducer.judgeResponses(judge, new Response[]{new Response(ME, cards(30))});
+		int changes = ChangeSet.between(judge, judging);
+		assertEquals(ChangeSet.PHASE | ChangeSet.RESPONSES, changes);
+		assertTrue(ChangeSet.any(changes, ChangeSet.RESPONSES | ChangeSet.HAND));
+		assertFalse(ChangeSet.any(changes, ChangeSet.HAND | ChangeSet.SELECTION));
+
+		GameState picked = GameReducer.winnerPicked(judging, ME);
+		assertEquals(ChangeSet.SELECTION, ChangeSet.between(judging, picked));
+	}
+
+	private static Card[] cards(int... ids) {
+		Card[] cards = new Card[ids.length];
+		for (int i = 0; i < ids.length; ++i) {
+			cards[i] = new Card(ids[i], "White " + ids[i]);
+		}
+		return cards;
+	}
+}
@@ -0,0 +1,184 @@
+package com.jelleslaats.freakyfriday;
+
+import com.jelleslaats.freakyfriday.protocol.Card;
+import com.jelleslaats.freakyfriday.protocol.Response;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GameReducerTest {
+	private static final int ME = 1;
+	private static final int JUDGE = 2;
+	private static final String PROMPT = "Why ____ and ____?";
+
+	@Test
+	public void roundStartedHasPlayersPickAndTheJudgeWait() {
+		GameState playing = GameReducer.roundStarted(synced(ME, JUDGE, 10, 11, 12), PROMPT, 2, false);
+		assertEquals(GameState.Phase.PLAYING, playing.phase);
+		assertEquals(PROMPT, playing.prompt);
+		assertEquals(2, playing.numOfResponses);
+
+		GameState judging = GameReducer.roundStarted(synced(JUDGE, JUDGE, 10, 11, 12), PROMPT, 2, false);
+		assertEquals(GameState.Phase.JUDGE_WAITING, judging.phase);
+		// the judge picks one response, however many cards it has
+		assertEquals(1, judging.numOfResponses);
+	}
+
+	@Test
+	public void playerWhoSubmittedBeforeRejoiningWaits() {
+		GameState state = GameReducer.roundStarted(synced(ME, JUDGE, 10, 11, 12), PROMPT, 2, true);
+		assertEquals(GameState.Phase.SUBMITTED, state.phase);
+		assertEquals(PROMPT, state.prompt);
+		assertSame(state, GameReducer.cardToggled(state, 10));
+		assertSame(state, GameReducer.cardsSubmitted(state));
+
+		// the judge never submits, so it makes no difference to them
+		GameState judge = GameReducer.roundStarted(synced(JUDGE, JUDGE, 10, 11, 12), PROMPT, 2, true);
+		assertEquals(GameState.Phase.JUDGE_WAITING, judge.phase);
+	}
+
+	@Test
+	public void selectingSubmittingAndTryingAgain() {
+		GameState state = GameReducer.roundStarted(synced(ME, JUDGE, 10, 11, 12), PROMPT, 2, false);
+		state = GameReducer.cardToggled(state, 12);
+		state = GameReducer.cardToggled(state, 10);
+		assertArrayEquals(new int[]{12, 10}, state.selection.toArray());
+		assertSame(state, GameReducer.cardToggled(state, 99));
+		GameState deselected = GameReducer.cardToggled(state, 12);
+		assertArrayEquals(new int[]{10}, deselected.selection.toArray());
+		assertArrayEquals(new int[]{12, 10}, state.selection.toArray());
+
+		GameState submitted = GameReducer.cardsSubmitted(state);
+		assertEquals(GameState.Phase.SUBMITTED, submitted.phase);
+		assertSame(submitted, GameReducer.cardToggled(submitted, 11));
+
+		// the cards didn't get there: pick again, with the same ones still selected
+		GameState again = GameReducer.submissionFailed(submitted);
+		assertEquals(GameState.Phase.PLAYING, again.phase);
+		assertSame(state.selection, again.selection);
+		assertSame(again, GameReducer.submissionFailed(again));
+	}
+
+	@Test
+	public void handDeltaSwapsPlayedCardsForDrawnOnes() {
+		GameState state = GameReducer.roundStarted(synced(ME, JUDGE, 10, 11, 12), PROMPT, 1, false);
+		state = GameReducer.cardToggled(state, 11);
+		state = GameReducer.cardToggled(state, 12);
+
+		GameState next = GameReducer.handDelta(state, ME, 1, 2, cards(20), new int[]{11}, JUDGE);
+		assertEquals(2, next.handVersion);
+		assertArrayEquals(new int[]{10, 20, 12}, ids(next.hand));
+		assertSame(state.handRows.get(0), next.handRows.get(0));
+		assertSame(state.handRows.get(2), next.handRows.get(2));
+		assertEquals(20, next.handRows.get(1).selectionKey);
+		// a played card can't stay selected
+		assertArrayEquals(new int[]{12}, next.selection.toArray());
+		assertFalse(next.handOutOfSync);
+
+		// fewer cards back than were played
+		GameState smaller = GameReducer.handDelta(next, ME, 2, 3, cards(), new int[]{10}, JUDGE);
+		assertArrayEquals(new int[]{20, 12}, ids(smaller.hand));
+		assertEquals(2, smaller.handRows.size());
+	}
+
+	@Test
+	public void handDeltaAgainstAnotherVersionLeavesTheHandOutOfSync() {
+		GameState state = synced(ME, JUDGE, 10, 11, 12);
+		GameState stale = GameReducer.handDelta(state, ME, 4, 5, cards(20), new int[]{11}, JUDGE);
+		assertTrue(stale.handOutOfSync);
+		assertSame(state.hand, stale.hand);
+		assertEquals(1, stale.handVersion);
+		assertSame(stale, GameReducer.handDelta(stale, ME, 5, 6, cards(21), new int[]{20}, JUDGE));
+		// nor does one removing a card we don't hold
+		assertTrue(GameReducer.handDelta(state, ME, 1, 2, cards(20), new int[]{99}, JUDGE).handOutOfSync);
+
+		GameState resynced = GameReducer.gameSync(stale, ME, 6, cards(10, 12, 21), JUDGE);
+		assertFalse(resynced.handOutOfSync);
+		assertArrayEquals(new int[]{10, 12, 21}, ids(resynced.hand));
+	}
+
+	@Test
+	public void judgePicksAWinnerAmongTheResponses() {
+		GameState state = GameReducer.roundStarted(synced(JUDGE, JUDGE, 10, 11, 12), PROMPT, 2, false);
+		assertSame(state, GameReducer.judgingStarted(state));
+		Response[] responses = {
+				new Response(ME, cards(30, 31)),
+				new Response(3, cards(32, 33))
+		};
+
+		state = GameReducer.judgeResponses(state, responses);
+		assertEquals(GameState.Phase.JUDGING, state.phase);
+		assertEquals("White 30\nWhite 31", state.responseRows.get(0).text);
+		assertEquals(3, state.responseRows.get(1).selectionKey);
+		assertTrue(state.showsResponses());
+
+		state = GameReducer.winnerPicked(state, 3);
+		assertArrayEquals(new int[]{3}, state.selection.toArray());
+		assertSame(state, GameReducer.winnerPicked(state, 3));
+		state = GameReducer.winnerPicked(state, ME);
+		assertArrayEquals(new int[]{ME}, state.selection.toArray());
+
+		// sent again after player 3 left: the pick stays, unless it was theirs
+		GameState resent = GameReducer.judgeResponses(state, new Response[]{responses[0]});
+		assertArrayEquals(new int[]{ME}, resent.selection.toArray());
+		assertTrue(GameReducer.judgeResponses(state, new Response[]{responses[1]}).selection.isEmpty());
+
+		GameState decided = GameReducer.winnerDeclared(resent);
+		assertEquals(GameState.Phase.DECIDED, decided.phase);
+		assertSame(decided, GameReducer.winnerDeclared(decided));
+	}
+
+	@Test
+	public void playersWaitWhileTheJudgeJudges() {
+		GameState state = GameReducer.roundStarted(synced(ME, JUDGE, 10, 11, 12), PROMPT, 1, false);
+		state = GameReducer.cardsSubmitted(GameReducer.cardToggled(state, 10));
+		GameState waiting = GameReducer.judgingStarted(state);
+		assertEquals(GameState.Phase.WAITING_FOR_JUDGE, waiting.phase);
+		assertTrue(waiting.selection.isEmpty());
+		assertSame(waiting, GameReducer.judgingStarted(waiting));
+
+		GameState ended = GameReducer.roundEnded(waiting);
+		assertEquals(GameState.Phase.LOBBY, ended.phase);
+		assertNull(ended.prompt);
+		assertEquals(0, ended.numOfResponses);
+	}
+
+	@Test
+	public void queuedThenSeated() {
+		GameState queued = GameReducer.playerQueued(GameState.INITIAL);
+		assertEquals(GameState.Phase.QUEUED, queued.phase);
+		assertSame(queued, GameReducer.playerQueued(queued));
+
+		GameState joined = GameReducer.playerJoined(queued, ME);
+		assertEquals(GameState.Phase.LOBBY, joined.phase);
+		assertEquals(ME, joined.playerID);
+	}
+
+	// A player holding the cards at version 1.
+	private static GameState synced(int playerID, int judgeID, int... cardIDs) {
+		return GameReducer.gameSync(GameReducer.playerJoined(GameState.INITIAL, playerID), playerID, 1,
+				cards(cardIDs), judgeID);
+	}
+
+	private static Card[] cards(int... ids) {
+		Card[] cards = new Card[ids.length];
+		for (int i = 0; i < ids.length; ++i) {
+			cards[i] = new Card(ids[i], "White " + ids[i]);
+		}
+		return cards;
+	}
+
+	private static int[] ids(Card[] cards) {
+		int[] ids = new int[cards.length];
+		for (int i = 0; i < cards.length; ++i) {
+			ids[i] = cards[i].id;
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,130 @@
+package com.jelleslaats.freakyfriday;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IntOrderedSetTest {
+	// new IntOrderedSet(4) has a 16 bucket table
+	private static final int SMALL_MASK = 15;
+
+	@Test
+	public void keepsInsertionOrder() {
+		IntOrderedSet set = new IntOrderedSet();
+		set.add(412);
+		set.add(57);
+		set.add(1093);
+		assertFalse(set.add(57));
+		set.add(8);
+		assertArrayEquals(new int[]{412, 57, 1093, 8}, set.toArray());
+
+		set.remove(57);
+		assertArrayEquals(new int[]{412, 1093, 8}, set.toArray());
+		assertEquals(1093, set.get(1));
+
+		int[] dest = new int[3];
+		set.copyInto(dest);
+		assertArrayEquals(new int[]{412, 1093, 8}, dest);
+	}
+
+	@Test
+	public void toggleAddsAndRemoves() {
+		IntOrderedSet set = new IntOrderedSet();
+		assertTrue(set.toggle(212));
+		assertTrue(set.toggle(640));
+		assertTrue(set.contains(212));
+
+		assertFalse(set.toggle(212));
+		assertFalse(set.contains(212));
+		assertArrayEquals(new int[]{640}, set.toArray());
+
+		assertTrue(set.toggle(212));
+		assertArrayEquals(new int[]{640, 212}, set.toArray());
+	}
+
+	@Test
+	public void growsPastItsCapacity() {
+		IntOrderedSet set = new IntOrderedSet(1);
+		for (int i = 0; i < 1000; ++i) {
+			assertTrue(set.add(i * 7));
+		}
+		assertEquals(1000, set.size());
+		for (int i = 0; i < 1000; ++i) {
+			assertEquals(i * 7, set.get(i));
+			assertTrue(set.contains(i * 7));
+			assertFalse(set.contains(i * 7 + 1));
+		}
+
+		for (int i = 0; i < 1000; i += 2) {
+			assertTrue(set.remove(i * 7));
+		}
+		assertEquals(500, set.size());
+		for (int i = 0; i < 1000; ++i) {
+			assertEquals(i % 2 == 1, set.contains(i * 7));
+		}
+	}
+
+	@Test
+	public void removesCollidingKeys() {
+		int[] colliding = keysWithHome(3, 3);
+		IntOrderedSet set = new IntOrderedSet(4);
+		for (int key : colliding) {
+			set.add(key);
+		}
+
+		assertTrue(set.remove(colliding[0]));
+		assertFalse(set.contains(colliding[0]));
+		assertTrue(set.contains(colliding[1]));
+		assertTrue(set.contains(colliding[2]));
+
+		assertTrue(set.remove(colliding[2]));
+		assertTrue(set.contains(colliding[1]));
+		assertArrayEquals(new int[]{colliding[1]}, set.toArray());
+	}
+
+	@Test
+	public void removesFromAChainThatWrapsAround() {
+		// three keys for the last bucket end up in 15, 0 and 1; the one for bucket 0 then goes in 2
+		int[] last = keysWithHome(SMALL_MASK, 3);
+		int first = keysWithHome(0, 1)[0];
+		IntOrderedSet set = new IntOrderedSet(4);
+		for (int key : last) {
+			set.add(key);
+		}
+		set.add(first);
+
+		// every later key has to shift back, across the end of the table
+		assertTrue(set.remove(last[0]));
+		assertFalse(set.contains(last[0]));
+		assertTrue(set.contains(last[1]));
+		assertTrue(set.contains(last[2]));
+		assertTrue(set.contains(first));
+
+		assertTrue(set.remove(last[1]));
+		assertTrue(set.contains(last[2]));
+		assertTrue(set.contains(first));
+
+		assertTrue(set.remove(first));
+		assertTrue(set.contains(last[2]));
+		assertArrayEquals(new int[]{last[2]}, set.toArray());
+
+		// a key that wasn't added stays out, even though its probe runs over the same buckets
+		assertFalse(set.contains(keysWithHome(SMALL_MASK, 4)[3]));
+	}
+
+	// The first count keys IntOrderedSet(4) puts in bucket home, mirroring its hash.
+	private static int[] keysWithHome(int home, int count) {
+		int[] keys = new int[count];
+		int found = 0;
+		for (int value = 1; found < count; ++value) {
+			int h = value * 0x9E3779B9;
+			if (((h ^ (h >>> 16)) & SMALL_MASK) == home) {
+				keys[found++] = value;
+			}
+		}
+		return keys;
+	}
+}
@@ -0,0 +1,99 @@
+package com.jelleslaats.freakyfriday;
+
+import com.jelleslaats.freakyfriday.protocol.Card;
+import com.jelleslaats.freakyfriday.protocol.Response;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The game-state thread's work per event: reducing it into the next state and working out the
+ * change set the UI renders from. Everything here runs once per message, so it should stay
+ * well below the cost of decoding one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ReducerBenchmark {
+	private static final int HAND_SIZE = 10;
+
+	@Param({"10", "50"})
+	int players;
+
+	private GameState playing;
+	private GameState judging;
+	private final Card[] snapshot = new Card[HAND_SIZE];
+	// the delta alternates between playing cards 3 and 4 and drawing them back
+	private final Card[] played = new Card[2];
+	private final Card[] drawn = new Card[2];
+	private final int[] playedIDs = new int[2];
+	private final int[] drawnIDs = new int[2];
+	private Response[] responses;
+	private int version;
+
+	@Setup
+	public void deal() {
+		for (int i = 0; i < HAND_SIZE; ++i) {
+			snapshot[i] = new Card(i, "White card " + i);
+		}
+		for (int i = 0; i < 2; ++i) {
+			played[i] = snapshot[3 + i];
+			playedIDs[i] = played[i].id;
+			drawn[i] = new Card(100 + i, "Drawn card " + i);
+			drawnIDs[i] = drawn[i].id;
+		}
+		responses = new Response[players - 1];
+		for (int i = 0; i < responses.length; ++i) {
+			responses[i] = new Response(i + 2, new Card[]{
+					new Card(1000 + 2 * i, "Response " + i + " first card"),
+					new Card(1001 + 2 * i, "Response " + i + " second card")});
+		}
+
+		version = 1;
+		GameState state = GameReducer.playerJoined(GameState.INITIAL, 1);
+		state = GameReducer.gameSync(state, 1, version, snapshot.clone(), 2);
+		playing = GameReducer.roundStarted(state, "Prompt with _ and _.", 2, false);
+		judging = GameReducer.judgeResponses(GameReducer.roundStarted(
+				GameReducer.gameSync(state, 1, version, snapshot.clone(), 1), "Prompt with _ and _.", 1, false), responses);
+	}
+
+	@Benchmark
+	public int gameSync() {
+		GameState next = GameReducer.gameSync(playing, 1, version + 1, snapshot, 2);
+		return ChangeSet.between(playing, next);
+	}
+
+	@Benchmark
+	public int handDelta() {
+		boolean even = (version & 1) == 0;
+		int base = version++;
+		GameState next = even
+				? GameReducer.handDelta(playing, 1, base, version, played, drawnIDs, 2)
+				: GameReducer.handDelta(playing, 1, base, version, drawn, playedIDs, 2);
+		int changes = ChangeSet.between(playing, next);
+		playing = next;
+		return changes;
+	}
+
+	@Benchmark
+	public int cardToggled() {
+		GameState next = GameReducer.cardToggled(playing, snapshot[5].id);
+		int changes = ChangeSet.between(playing, next);
+		playing = next;
+		return changes;
+	}
+
+	@Benchmark
+	public int judgeResponses() {
+		GameState next = GameReducer.judgeResponses(judging, responses);
+		return ChangeSet.between(judging, next);
+	}
+}
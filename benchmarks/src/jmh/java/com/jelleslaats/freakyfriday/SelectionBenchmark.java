@@ -0,0 +1,65 @@
+package com.jelleslaats.freakyfriday;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A player picking cards from their hand: a few taps with a change of mind, the highlight check
+ * for every card on screen, and the submission. The selection itself shouldn't allocate; the
+ * boxed list it replaced is kept as a baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SelectionBenchmark {
+	private static final int[] HAND = {412, 57, 1093, 212, 8, 640, 331, 129, 1500, 77};
+	// indexes into HAND; tapping a card twice deselects it
+	private static final int[] TAPS = {3, 0, 3, 6, 1};
+
+	private final IntOrderedSet selection = new IntOrderedSet();
+	private final ArrayList<Integer> boxedSelection = new ArrayList<Integer>();
+	// what's submitted, sized for a whole hand so neither variant allocates to hand it over
+	private final int[] submitted = new int[HAND.length];
+
+	@Benchmark
+	public int[] intOrderedSet(Blackhole blackhole) {
+		selection.clear();
+		for (int i = 0; i < TAPS.length; ++i) {
+			selection.toggle(HAND[TAPS[i]]);
+			for (int j = 0; j < HAND.length; ++j) {
+				blackhole.consume(selection.contains(HAND[j]));
+			}
+		}
+		selection.copyInto(submitted);
+		return submitted;
+	}
+
+	@Benchmark
+	public int[] boxedList(Blackhole blackhole) {
+		boxedSelection.clear();
+		for (int i = 0; i < TAPS.length; ++i) {
+			int id = HAND[TAPS[i]];
+			if (boxedSelection.contains(id)) {
+				boxedSelection.remove((Integer) id);
+			}
+			else {
+				boxedSelection.add(id);
+			}
+			for (int j = 0; j < HAND.length; ++j) {
+				blackhole.consume(boxedSelection.contains(HAND[j]));
+			}
+		}
+		for (int i = 0; i < boxedSelection.size(); ++i) {
+			submitted[i] = boxedSelection.get(i);
+		}
+		return submitted;
+	}
+}
@@ -0,0 +1,45 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deflating and inflating the judge's submissions from the corpus, the messages that grow with
+ * the table and are worth compressing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class CompressBenchmark {
+	private final PayloadCompressor compressor = new PayloadCompressor();
+
+	@Param({"10", "25", "50"})
+	public int players;
+
+	private String message;
+	private String compressed;
+
+	@Setup
+	public void load() {
+		message = Corpus.load("judgeSubmissions-" + players + ".json");
+		compressed = compressor.compress(message);
+	}
+
+	@Benchmark
+	public String compress() {
+		return compressor.compress(message);
+	}
+
+	@Benchmark
+	public String decompress() {
+		return compressor.decompress(compressed);
+	}
+}
@@ -0,0 +1,40 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Messages recorded from the receiver, checked in under src/jmh/resources/corpus. The card text
+ * is made up, but the shapes and lengths match what a real game sends.
+ */
+final class Corpus {
+	private Corpus() {
+	}
+
+	static String load(String name) {
+		InputStream in = Corpus.class.getResourceAsStream("/corpus/" + name);
+		if (in == null) {
+			throw new IllegalArgumentException("No corpus file " + name);
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toString("UTF-8").trim();
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Cannot read corpus file " + name, e);
+		}
+		finally {
+			try {
+				in.close();
+			}
+			catch (IOException ignored) {
+			}
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding inbound messages from the corpus. Cards go through the shared CardRegistry as they do
+ * in the app, so after warmup these measure the steady state where every card is already known.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+	private final Sink sink = new Sink();
+	private String gameSync;
+	private String gameSyncDelta;
+	private String roundStarted;
+
+	/**
+	 * The judge's view of the submissions, which is the only message that grows with the table.
+	 */
+	@State(Scope.Thread)
+	public static class Submissions {
+		@Param({"3", "10", "25", "50"})
+		public int players;
+
+		String message;
+
+		@Setup
+		public void load() {
+			message = Corpus.load("judgeSubmissions-" + players + ".json");
+		}
+	}
+
+	@Setup
+	public void load() {
+		gameSync = Corpus.load("gameSync.json");
+		gameSyncDelta = Corpus.load("gameSync-delta.json");
+		roundStarted = Corpus.load("roundStarted.json");
+	}
+
+	@Benchmark
+	public String gameSync(Blackhole blackhole) throws IOException {
+		sink.blackhole = blackhole;
+		return MessageDecoder.decode(gameSync, sink);
+	}
+
+	@Benchmark
+	public String gameSyncDelta(Blackhole blackhole) throws IOException {
+		sink.blackhole = blackhole;
+		return MessageDecoder.decode(gameSyncDelta, sink);
+	}
+
+	@Benchmark
+	public String roundStarted(Blackhole blackhole) throws IOException {
+		sink.blackhole = blackhole;
+		return MessageDecoder.decode(roundStarted, sink);
+	}
+
+	@Benchmark
+	public String judgeSubmissions(Submissions submissions, Blackhole blackhole) throws IOException {
+		sink.blackhole = blackhole;
+		return MessageDecoder.decode(submissions.message, sink);
+	}
+
+	// Hands every decoded value to the blackhole so none of the decoding is optimized away.
+	static final class Sink implements MessageDecoder.Callbacks {
+		Blackhole blackhole;
+
+		@Override
+		public void onPlayerQueued() {
+		}
+
+		@Override
+		public void onPlayerJoined(int newID, String format, String compression, String cardPack, String reads,
+				String retries, String resumeToken) {
+			blackhole.consume(newID);
+		}
+
+		@Override
+		public void onJudgeModeStarted() {
+		}
+
+		@Override
+		public void onGameSync(int playerID, int handVersion, Card[] hand, int newJudge) {
+			blackhole.consume(playerID);
+			blackhole.consume(handVersion);
+			blackhole.consume(hand);
+			blackhole.consume(newJudge);
+		}
+
+		@Override
+		public void onHandDelta(int playerID, int baseVersion, int handVersion, Card[] added, int[] removedIDs, int newJudge) {
+			blackhole.consume(playerID);
+			blackhole.consume(baseVersion);
+			blackhole.consume(handVersion);
+			blackhole.consume(added);
+			blackhole.consume(removedIDs);
+			blackhole.consume(newJudge);
+		}
+
+		@Override
+		public void onJudgeResponses(Response[] responses) {
+			blackhole.consume(responses);
+		}
+
+		@Override
+		public void onRoundStarted(String newPrompt, int numOfBlanks, boolean submitted) {
+			blackhole.consume(newPrompt);
+			blackhole.consume(numOfBlanks);
+			blackhole.consume(submitted);
+		}
+
+		@Override
+		public void onRoundEnded() {
+		}
+
+		@Override
+		public void onServerResponse(int responseCode, int requestID) {
+			blackhole.consume(responseCode);
+			blackhole.consume(requestID);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding every command MessageStream sends, as JSON and as binary frames.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class EncodeBenchmark {
+	private static final int REQUEST_ID = 184467;
+
+	private final String name = "Jelle \"the judge\" Slaats";
+	private final int[] cardIDs = {212, 57};
+	private final int winnerID = 7;
+	private final int handVersion = 17;
+
+	/**
+	 * The submissions a judge reports as read, one pair of cards per other player.
+	 */
+	@State(Scope.Thread)
+	public static class Submissions {
+		@Param({"3", "10", "25", "50"})
+		public int players;
+
+		int[][] read;
+
+		@Setup
+		public void build() {
+			read = new int[players - 1][];
+			for (int i = 0; i < read.length; ++i) {
+				read[i] = new int[]{2 * i + 100, 2 * i + 101};
+			}
+		}
+	}
+
+	@Benchmark
+	public String joinGame() {
+		return MessageEncoder.joinGame(REQUEST_ID, name, null, null);
+	}
+
+	@Benchmark
+	public String leaveGame() {
+		return MessageEncoder.leaveGame(REQUEST_ID);
+	}
+
+	@Benchmark
+	public String updateSettings() {
+		return MessageEncoder.updateSettings(REQUEST_ID, name);
+	}
+
+	@Benchmark
+	public String submitResponse() {
+		return MessageEncoder.submitResponse(REQUEST_ID, cardIDs);
+	}
+
+	@Benchmark
+	public String declareWinner() {
+		return MessageEncoder.declareWinner(REQUEST_ID, winnerID);
+	}
+
+	@Benchmark
+	public String readSubmissions(Submissions submissions) {
+		return MessageEncoder.readSubmissions(REQUEST_ID, submissions.read);
+	}
+
+	@Benchmark
+	public String startNextRound() {
+		return MessageEncoder.startNextRound(REQUEST_ID);
+	}
+
+	@Benchmark
+	public String requestGameSync() {
+		return MessageEncoder.requestGameSync(REQUEST_ID, handVersion);
+	}
+
+	@Benchmark
+	public String submitResponseBinary() {
+		return BinaryMessageEncoder.submitResponse(REQUEST_ID, cardIDs);
+	}
+
+	@Benchmark
+	public String readSubmissionsBinary(Submissions submissions) {
+		return BinaryMessageEncoder.readSubmissions(REQUEST_ID, submissions.read);
+	}
+}
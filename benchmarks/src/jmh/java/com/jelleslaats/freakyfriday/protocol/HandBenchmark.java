@@ -0,0 +1,61 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hand updates as the game thread applies them: full snapshots, and the two-card deltas sent
+ * after a round where cards were played and replacements drawn.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class HandBenchmark {
+	private static final int HAND_SIZE = 10;
+
+	private final Hand hand = new Hand();
+	private final Card[] snapshot = new Card[HAND_SIZE];
+	// the delta alternates between playing cards 3 and 4 and drawing them back
+	private final Card[] played = new Card[2];
+	private final Card[] drawn = new Card[2];
+	private final int[] playedIDs = new int[2];
+	private final int[] drawnIDs = new int[2];
+	private int version;
+
+	@Setup
+	public void deal() {
+		for (int i = 0; i < HAND_SIZE; ++i) {
+			snapshot[i] = new Card(i, "White card " + i);
+		}
+		for (int i = 0; i < 2; ++i) {
+			played[i] = snapshot[3 + i];
+			playedIDs[i] = played[i].id;
+			drawn[i] = new Card(100 + i, "Drawn card " + i);
+			drawnIDs[i] = drawn[i].id;
+		}
+		version = 1;
+		hand.replace(snapshot.clone(), version);
+	}
+
+	@Benchmark
+	public Hand replace() {
+		hand.replace(snapshot, ++version);
+		return hand;
+	}
+
+	@Benchmark
+	public boolean applyDelta() {
+		boolean even = (version & 1) == 0;
+		int base = version++;
+		return even
+				? hand.apply(base, version, played, drawnIDs)
+				: hand.apply(base, version, drawn, playedIDs);
+	}
+}
@@ -0,0 +1,55 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording messages to the journal, which happens on the main thread for everything sent. The
+ * ring is small enough that it wraps and drops old records all through the run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class JournalBenchmark {
+	private File file;
+	private MessageJournal journal;
+	private String gameSync;
+	private String submitCards;
+	private long timestamp;
+
+	@Setup
+	public void open() throws IOException {
+		file = File.createTempFile("journal", ".bin");
+		journal = MessageJournal.open(file, 64 * 1024);
+		gameSync = Corpus.load("gameSync.json");
+		submitCards = MessageEncoder.submitResponse(42, new int[]{412, 57});
+	}
+
+	@TearDown
+	public void close() {
+		journal.close();
+		file.delete();
+	}
+
+	@Benchmark
+	public MessageJournal appendGameSync() {
+		journal.append(MessageJournal.INBOUND, ++timestamp, gameSync);
+		return journal;
+	}
+
+	@Benchmark
+	public MessageJournal appendCommand() {
+		journal.append(MessageJournal.OUTBOUND, ++timestamp, submitCards);
+		return journal;
+	}
+}
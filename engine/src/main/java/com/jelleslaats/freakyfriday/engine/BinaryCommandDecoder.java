@@ -0,0 +1,71 @@
+package com.jelleslaats.freakyfriday.engine;
+
+import com.jelleslaats.freakyfriday.protocol.FrameReader;
+import com.jelleslaats.freakyfriday.protocol.ProtocolSchema;
+
+/**
+ * Decodes commands sent as {@link BinaryFormat} frames, the receiving end of the app's
+ * BinaryMessageEncoder. Fills in the same {@link Command} as {@link CommandDecoder}, with the
+ * JSON type names, so rooms don't care which format a command came in.
+ */
+final class BinaryCommandDecoder {
+	private BinaryCommandDecoder() {
+	}
+
+	/**
+	 * Decodes one frame into the given holder, which is reset first.
+	 *
+	 * @throws IllegalStateException if the frame is malformed or of a type we don't know
+	 */
+	static void decode(String frame, Command into) {
+		into.reset();
+		FrameReader in = new FrameReader(frame);
+		int type = in.readVarint();
+		into.requestID = in.readSignedVarint();
+		switch (type) {
+			case ProtocolSchema.CODE_LEAVE:
+				into.type = ProtocolSchema.COMMAND_LEAVE;
+				break;
+			case ProtocolSchema.CODE_UPDATE_SETTINGS:
+				into.type = ProtocolSchema.COMMAND_UPDATE_SETTINGS;
+				into.name = in.readString();
+				break;
+			case ProtocolSchema.CODE_SUBMIT_CARD:
+				into.type = ProtocolSchema.COMMAND_SUBMIT_CARD;
+				into.cardIDs = readIDs(in);
+				break;
+			case ProtocolSchema.CODE_SUBMIT_WINNER:
+				into.type = ProtocolSchema.COMMAND_SUBMIT_WINNER;
+				into.winnerID = in.readSignedVarint();
+				break;
+			case ProtocolSchema.CODE_HAVE_READ_SUBMISSIONS:
+				into.type = ProtocolSchema.COMMAND_HAVE_READ_SUBMISSIONS;
+				into.submissions = new int[in.readCount()][];
+				for (int i = 0; i < into.submissions.length; ++i) {
+					into.submissions[i] = readIDs(in);
+				}
+				break;
+			case ProtocolSchema.CODE_START_NEXT_ROUND:
+				into.type = ProtocolSchema.COMMAND_START_NEXT_ROUND;
+				break;
+			case ProtocolSchema.CODE_REQUEST_GAMESYNC:
+				into.type = ProtocolSchema.COMMAND_REQUEST_GAMESYNC;
+				into.handVersion = in.readSignedVarint();
+				break;
+			case ProtocolSchema.CODE_RESYNC:
+				into.type = ProtocolSchema.COMMAND_RESYNC;
+				into.resyncAfter = in.readVarint();
+				break;
+			default:
+				throw new IllegalStateException("Unknown command type " + type);
+		}
+	}
+
+	private static int[] readIDs(FrameReader in) {
+		int[] ids = new int[in.readCount()];
+		for (int i = 0; i < ids.length; ++i) {
+			ids[i] = in.readVarint();
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,105 @@
+package com.jelleslaats.freakyfriday.engine;
+
+import com.jelleslaats.freakyfriday.protocol.FrameWriter;
+import com.jelleslaats.freakyfriday.protocol.ProtocolSchema;
+
+import java.util.List;
+
+/**
+ * Builds the events sent to players as {@link BinaryFormat} frames, the sending end of the app's
+ * BinaryMessageDecoder. A card's text goes to each player once; after that only its ID. Players
+ * with the card pack never get texts.
+ */
+final class BinaryEventEncoder implements EventEncoder {
+	private final CardPack pack;
+	private final FrameWriter out = new FrameWriter();
+
+	BinaryEventEncoder(CardPack pack) {
+		this.pack = pack;
+	}
+
+	@Override
+	public String playerQueued() {
+		return begin(ProtocolSchema.CODE_PLAYER_QUEUED).toFrame();
+	}
+
+	@Override
+	public String judgingStarted() {
+		return begin(ProtocolSchema.CODE_JUDGING_STARTED).toFrame();
+	}
+
+	@Override
+	public String fullSync(Player player, int handVersion, int[] hand, int judgeID) {
+		begin(ProtocolSchema.CODE_GAMESYNC)
+				.writeSignedVarint(player.id)
+				.writeSignedVarint(handVersion)
+				.writeSignedVarint(judgeID);
+		writeCards(player, hand);
+		return out.toFrame();
+	}
+
+	@Override
+	public String deltaSync(Player player, int baseVersion, int handVersion, int[] added, int[] removedIDs, int judgeID) {
+		begin(ProtocolSchema.CODE_GAMESYNC_DELTA)
+				.writeSignedVarint(player.id)
+				.writeSignedVarint(baseVersion)
+				.writeSignedVarint(handVersion)
+				.writeSignedVarint(judgeID);
+		writeCards(player, added);
+		out.writeVarint(removedIDs.length);
+		for (int id : removedIDs) {
+			out.writeVarint(id);
+		}
+		return out.toFrame();
+	}
+
+	@Override
+	public String judgeSubmissions(Player judge, List<Submission> submissions) {
+		begin(ProtocolSchema.CODE_JUDGE_SUBMISSIONS).writeVarint(submissions.size());
+		for (int i = 0; i < submissions.size(); ++i) {
+			out.writeSignedVarint(submissions.get(i).player.id);
+			writeCards(judge, submissions.get(i).cardIDs);
+		}
+		return out.toFrame();
+	}
+
+	@Override
+	public String roundStarted(String prompt, int numOfBlanks, boolean submitted) {
+		return begin(ProtocolSchema.CODE_ROUND_STARTED)
+				.writeString(prompt)
+				.writeVarint(numOfBlanks)
+				.writeVarint(submitted ? 1 : 0)
+				.toFrame();
+	}
+
+	@Override
+	public String roundEnded() {
+		return begin(ProtocolSchema.CODE_ROUND_ENDED).toFrame();
+	}
+
+	@Override
+	public String response(int code, int requestID) {
+		return begin(ProtocolSchema.CODE_SERVER_RESPONSE)
+				.writeSignedVarint(code)
+				.writeSignedVarint(requestID)
+				.toFrame();
+	}
+
+	private FrameWriter begin(int type) {
+		return out.reset().writeVarint(type);
+	}
+
+	private void writeCards(Player to, int[] cardIDs) {
+		out.writeVarint(cardIDs.length);
+		for (int id : cardIDs) {
+			if (to.hasCardPack || to.textSent.get(id)) {
+				out.writeVarint(id << 1);
+			}
+			else {
+				out.writeVarint(id << 1 | 1);
+				out.writeString(pack.getWhiteCard(id));
+				to.textSent.set(id);
+			}
+		}
+	}
+}
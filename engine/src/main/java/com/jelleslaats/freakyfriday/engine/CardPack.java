@@ -0,0 +1,149 @@
+package com.jelleslaats.freakyfriday.engine;
+
+import com.google.gson.stream.JsonReader;
+import com.jelleslaats.freakyfriday.protocol.CardPackFile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * The cards a room plays with: prompts with the number of blanks they have, and white cards
+ * whose ID is their position in the pack. Immutable, so one pack can be shared by every room.
+ */
+public final class CardPack {
+	// Json keys
+	private static final String KEY_PROMPTS = "black";
+	private static final String KEY_WHITE_CARDS = "white";
+	private static final String KEY_TEXT = "text";
+	private static final String KEY_BLANKS = "pick";
+
+	private final String[] prompts;
+	private final int[] blanks;
+	private final String[] whiteCards;
+	// what an app with these white cards as its CardPackFile offers when joining
+	private final String hashName;
+
+	public CardPack(String[] prompts, int[] blanks, String[] whiteCards) {
+		if (prompts.length == 0 || prompts.length != blanks.length) {
+			throw new IllegalArgumentException("Every prompt needs a number of blanks");
+		}
+		if (whiteCards.length == 0) {
+			throw new IllegalArgumentException("No white cards");
+		}
+		this.prompts = prompts.clone();
+		this.blanks = blanks.clone();
+		this.whiteCards = whiteCards.clone();
+		this.hashName = CardPackFile.hashName(CardPackFile.hashOf(this.whiteCards));
+	}
+
+	/**
+	 * Reads a pack in the form {"black": [{"text": "...", "pick": 1}, ...], "white": ["...", ...]}.
+	 */
+	public static CardPack load(Reader in) throws IOException {
+		ArrayList<String> prompts = new ArrayList<String>();
+		ArrayList<Integer> blanks = new ArrayList<Integer>();
+		ArrayList<String> whiteCards = new ArrayList<String>();
+
+		JsonReader reader = new JsonReader(in);
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case KEY_PROMPTS:
+					reader.beginArray();
+					while (reader.hasNext()) {
+						readPrompt(reader, prompts, blanks);
+					}
+					reader.endArray();
+					break;
+				case KEY_WHITE_CARDS:
+					reader.beginArray();
+					while (reader.hasNext()) {
+						whiteCards.add(reader.nextString());
+					}
+					reader.endArray();
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		int[] blankCounts = new int[blanks.size()];
+		for (int i = 0; i < blankCounts.length; ++i) {
+			blankCounts[i] = blanks.get(i);
+		}
+		return new CardPack(prompts.toArray(new String[prompts.size()]), blankCounts,
+				whiteCards.toArray(new String[whiteCards.size()]));
+	}
+
+	// Placeholder cards, for load tests where the text doesn't matter.
+	public static CardPack generated(int promptCount, int whiteCardCount) {
+		String[] prompts = new String[promptCount];
+		int[] blanks = new int[promptCount];
+		for (int i = 0; i < promptCount; ++i) {
+			blanks[i] = 1 + i % 3;
+			prompts[i] = "Prompt " + i + " with " + blanks[i] + " blank(s): ____.";
+		}
+		String[] whiteCards = new String[whiteCardCount];
+		for (int i = 0; i < whiteCardCount; ++i) {
+			whiteCards[i] = "White card " + i + ".";
+		}
+		return new CardPack(prompts, blanks, whiteCards);
+	}
+
+	public int getPromptCount() {
+		return prompts.length;
+	}
+
+	public String getPrompt(int index) {
+		return prompts[index];
+	}
+
+	public int getBlanks(int index) {
+		return blanks[index];
+	}
+
+	public int getWhiteCardCount() {
+		return whiteCards.length;
+	}
+
+	public String getWhiteCard(int id) {
+		return whiteCards[id];
+	}
+
+	public String getHashName() {
+		return hashName;
+	}
+
+	// Writes the white cards as a CardPackFile, for the app to ship.
+	public void writeWhiteCards(OutputStream out) throws IOException {
+		CardPackFile.write(whiteCards, out);
+	}
+
+	private static void readPrompt(JsonReader reader, ArrayList<String> prompts, ArrayList<Integer> blanks) throws IOException {
+		String text = null;
+		int pick = 1;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case KEY_TEXT:
+					text = reader.nextString();
+					break;
+				case KEY_BLANKS:
+					pick = reader.nextInt();
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		if (text == null) {
+			throw new IllegalStateException("Missing key: " + KEY_TEXT);
+		}
+		prompts.add(text);
+		blanks.add(pick);
+	}
+}
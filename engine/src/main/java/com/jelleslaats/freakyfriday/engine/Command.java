@@ -0,0 +1,48 @@
+package com.jelleslaats.freakyfriday.engine;
+
+import com.jelleslaats.freakyfriday.protocol.EventSequence;
+
+/**
+ * A decoded command from a sender. Rooms reuse one instance, so fields are only valid until the
+ * next command is decoded.
+ */
+final class Command {
+	String type;
+	int requestID;
+	String name;
+	int[] cardIDs;
+	int winnerID;
+	int[][] submissions;
+	int handVersion;
+	// the last event the player applied, for a resync
+	int resyncAfter;
+	// whether a join offered the binary format, compression, event sequencing, batched reads and
+	// retries
+	boolean offersBinary;
+	boolean offersCompression;
+	boolean offersSequencing;
+	boolean offersBatchedReads;
+	boolean offersRetries;
+	// the hash name of the card pack a join offered, or null
+	String cardPack;
+	// the token from an earlier didJoin that a join presents to take that seat back, or null
+	String resumeToken;
+
+	void reset() {
+		type = null;
+		requestID = -1;
+		name = null;
+		cardIDs = null;
+		winnerID = -1;
+		submissions = null;
+		handVersion = Player.UNVERSIONED;
+		resyncAfter = EventSequence.NONE;
+		offersBinary = false;
+		offersCompression = false;
+		offersSequencing = false;
+		offersBatchedReads = false;
+		offersRetries = false;
+		cardPack = null;
+		resumeToken = null;
+	}
+}
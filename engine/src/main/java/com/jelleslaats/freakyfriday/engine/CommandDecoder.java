@@ -0,0 +1,144 @@
+package com.jelleslaats.freakyfriday.engine;
+
+import com.google.gson.stream.JsonReader;
+import com.jelleslaats.freakyfriday.protocol.BinaryFormat;
+import com.jelleslaats.freakyfriday.protocol.EventSequence;
+import com.jelleslaats.freakyfriday.protocol.JsonMessages;
+import com.jelleslaats.freakyfriday.protocol.PayloadCompressor;
+import com.jelleslaats.freakyfriday.protocol.ProtocolClient;
+import com.jelleslaats.freakyfriday.protocol.ProtocolSchema;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Decodes the commands players send, the receiving end of the app's MessageEncoder. The type is
+ * read first and the rest by the type's {@link JsonMessages} holder. Binary frames are handed on
+ * to {@link BinaryCommandDecoder}.
+ */
+final class CommandDecoder {
+	private CommandDecoder() {
+	}
+
+	/**
+	 * Decodes one command into the given holder, which is reset first.
+	 *
+	 * @throws IOException if the message isn't valid JSON
+	 * @throws IllegalStateException if a value has the wrong type or the type is missing
+	 */
+	static void decode(String msg, Command into) throws IOException {
+		if (BinaryFormat.isFrame(msg)) {
+			BinaryCommandDecoder.decode(msg, into);
+			return;
+		}
+		into.reset();
+		JsonReader reader = new JsonReader(new StringReader(msg));
+		reader.beginObject();
+		// the app puts the type first, so normally the holder carries on with the same reader
+		if (reader.hasNext() && ProtocolSchema.KEY_TYPE.equals(reader.nextName())) {
+			into.type = reader.nextString();
+		}
+		else {
+			if (reader.hasNext()) {
+				reader.skipValue();
+			}
+			into.type = findType(reader);
+			if (into.type == null) {
+				throw new IllegalStateException("Missing key: " + ProtocolSchema.KEY_TYPE);
+			}
+			reader = new JsonReader(new StringReader(msg));
+			reader.beginObject();
+		}
+
+		switch (into.type) {
+			case ProtocolSchema.COMMAND_JOIN:
+				JsonMessages.Join join = JsonMessages.Join.read(reader);
+				into.requestID = join.requestID;
+				into.name = join.name;
+				into.offersBinary = offers(join.formats, BinaryFormat.NAME);
+				into.offersCompression = offers(join.compression, PayloadCompressor.NAME);
+				into.offersSequencing = offers(join.sequencing, EventSequence.NAME);
+				into.offersBatchedReads = offers(join.reads, ProtocolClient.BATCHED_READS);
+				into.offersRetries = offers(join.retries, ProtocolClient.DEDUPLICATED_RETRIES);
+				into.cardPack = join.cardPack;
+				into.resumeToken = join.resumeToken;
+				break;
+			case ProtocolSchema.COMMAND_LEAVE:
+				into.requestID = JsonMessages.Leave.read(reader).requestID;
+				break;
+			case ProtocolSchema.COMMAND_UPDATE_SETTINGS:
+				JsonMessages.UpdateSettings update = JsonMessages.UpdateSettings.read(reader);
+				into.requestID = update.requestID;
+				into.name = update.name;
+				break;
+			case ProtocolSchema.COMMAND_SUBMIT_CARD:
+				JsonMessages.SubmitCard submit = JsonMessages.SubmitCard.read(reader);
+				into.requestID = submit.requestID;
+				into.cardIDs = submit.cardIDArray;
+				break;
+			case ProtocolSchema.COMMAND_SUBMIT_WINNER:
+				JsonMessages.SubmitWinner winner = JsonMessages.SubmitWinner.read(reader);
+				into.requestID = winner.requestID;
+				into.winnerID = winner.chosenWinner;
+				break;
+			case ProtocolSchema.COMMAND_HAVE_READ_SUBMISSION:
+				JsonMessages.HaveReadSubmission read = JsonMessages.HaveReadSubmission.read(reader);
+				into.requestID = read.requestID;
+				into.cardIDs = read.cardIDArray;
+				break;
+			case ProtocolSchema.COMMAND_HAVE_READ_SUBMISSIONS:
+				JsonMessages.HaveReadSubmissions reads = JsonMessages.HaveReadSubmissions.read(reader);
+				into.requestID = reads.requestID;
+				into.submissions = reads.submissionsThatWereRead;
+				break;
+			case ProtocolSchema.COMMAND_START_NEXT_ROUND:
+				into.requestID = JsonMessages.StartNextRound.read(reader).requestID;
+				break;
+			case ProtocolSchema.COMMAND_REQUEST_GAMESYNC:
+				JsonMessages.RequestGamesync sync = JsonMessages.RequestGamesync.read(reader);
+				into.requestID = sync.requestID;
+				into.handVersion = sync.handVersion;
+				break;
+			case ProtocolSchema.COMMAND_RESYNC:
+				JsonMessages.Resync resync = JsonMessages.Resync.read(reader);
+				into.requestID = resync.requestID;
+				into.resyncAfter = resync.resyncAfter;
+				break;
+			default:
+				// still answered, so the request ID is all that's wanted
+				into.requestID = findRequestID(reader);
+		}
+	}
+
+	private static String findType(JsonReader reader) throws IOException {
+		while (reader.hasNext()) {
+			if (ProtocolSchema.KEY_TYPE.equals(reader.nextName())) {
+				return reader.nextString();
+			}
+			reader.skipValue();
+		}
+		return null;
+	}
+
+	private static int findRequestID(JsonReader reader) throws IOException {
+		while (reader.hasNext()) {
+			if (ProtocolSchema.KEY_REQUEST_ID.equals(reader.nextName())) {
+				return reader.nextInt();
+			}
+			reader.skipValue();
+		}
+		return -1;
+	}
+
+	// Whether the name is in the names offered, which are null if none were.
+	private static boolean offers(String[] offered, String name) {
+		if (offered != null) {
+			for (String each : offered) {
+				if (name.equals(each)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
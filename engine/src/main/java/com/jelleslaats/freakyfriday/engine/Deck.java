@@ -0,0 +1,54 @@
+package com.jelleslaats.freakyfriday.engine;
+
+import java.util.Random;
+
+/**
+ * A shuffled pile of card IDs. Played cards go on the discard pile, which is shuffled back in
+ * once the draw pile runs out. Cards held by players are in neither pile.
+ */
+final class Deck {
+	private final Random random;
+	private final int[] drawPile;
+	private final int[] discardPile;
+	private int drawCount;
+	private int discardCount = 0;
+
+	Deck(int size, Random random) {
+		this.random = random;
+		this.drawPile = new int[size];
+		this.discardPile = new int[size];
+		for (int i = 0; i < size; ++i) {
+			drawPile[i] = i;
+		}
+		drawCount = size;
+		shuffle(drawPile, drawCount);
+	}
+
+	// The next card, or -1 if every card is in someone's hand.
+	int draw() {
+		if (drawCount == 0) {
+			if (discardCount == 0) {
+				return -1;
+			}
+			System.arraycopy(discardPile, 0, drawPile, 0, discardCount);
+			drawCount = discardCount;
+			discardCount = 0;
+			shuffle(drawPile, drawCount);
+		}
+		return drawPile[--drawCount];
+	}
+
+	void discard(int id) {
+		discardPile[discardCount++] = id;
+	}
+
+	// Fisher-Yates over the first count entries.
+	private void shuffle(int[] cards, int count) {
+		for (int i = count - 1; i > 0; --i) {
+			int j = random.nextInt(i + 1);
+			int swap = cards[i];
+			cards[i] = cards[j];
+			cards[j] = swap;
+		}
+	}
+}
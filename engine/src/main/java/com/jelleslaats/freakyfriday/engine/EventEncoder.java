@@ -0,0 +1,21 @@
+package com.jelleslaats.freakyfriday.engine;
+
+import java.util.List;
+
+/**
+ * Builds the events sent to players, in whichever format the player agreed to when joining.
+ * Events carrying cards take the player they're for, since the binary format only sends each
+ * card's text to a player once.
+ */
+interface EventEncoder {
+	String playerQueued();
+	String judgingStarted();
+	String fullSync(Player player, int handVersion, int[] hand, int judgeID);
+	String deltaSync(Player player, int baseVersion, int handVersion, int[] added, int[] removedIDs, int judgeID);
+	String judgeSubmissions(Player judge, List<Submission> submissions);
+	// submitted when catching up a player who already played this round
+	String roundStarted(String prompt, int numOfBlanks, boolean submitted);
+	String roundEnded();
+	// requestID is -1 if the command couldn't be decoded far enough to find it
+	String response(int code, int requestID);
+}
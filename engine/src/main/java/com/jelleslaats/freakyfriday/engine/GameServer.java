@@ -0,0 +1,160 @@
+package com.jelleslaats.freakyfriday.engine;
+
+import com.jelleslaats.freakyfriday.protocol.ProtocolLog;
+
+import java.util.HashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hosts any number of rooms, spread over a fixed set of shards. Each shard is one thread that
+ * owns its rooms outright, so a room's messages are handled one at a time and in order without
+ * any locking, while different rooms run in parallel on different cores.
+ */
+public final class GameServer {
+	private static final String TAG = GameServer.class.getSimpleName();
+
+	// how long a player whose connection dropped keeps their seat
+	public static final long RECONNECT_GRACE_MS = 30000;
+
+	/**
+	 * Delivers events to players. Called on the shard thread of the room the event comes from,
+	 * so implementations must be thread-safe and shouldn't block.
+	 */
+	public interface Outbox {
+		void send(String roomID, String senderID, String message);
+	}
+
+	private final CardPack pack;
+	private final Outbox outbox;
+	private final long seed;
+	private final Shard[] shards;
+	private final AtomicInteger roomCount = new AtomicInteger();
+
+	/**
+	 * A thread and the rooms it owns. The room map is only touched on that thread.
+	 */
+	private static final class Shard {
+		final ScheduledThreadPoolExecutor executor;
+		final HashMap<String, Room> rooms = new HashMap<String, Room>();
+
+		Shard(final String name) {
+			executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, name);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			// players still within their grace period don't hold up shutting down
+			executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		}
+	}
+
+	// One shard per core.
+	public GameServer(CardPack pack, Outbox outbox) {
+		this(pack, outbox, Runtime.getRuntime().availableProcessors(), System.nanoTime());
+	}
+
+	/**
+	 * @param seed decks in a room are shuffled with this seed and the room ID, so a run with the
+	 *             same seed and the same messages plays out the same way
+	 */
+	public GameServer(CardPack pack, Outbox outbox, int shardCount, long seed) {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("Need at least one shard");
+		}
+		this.pack = pack;
+		this.outbox = outbox;
+		this.seed = seed;
+		this.shards = new Shard[shardCount];
+		for (int i = 0; i < shardCount; ++i) {
+			shards[i] = new Shard("room-shard-" + i);
+		}
+	}
+
+	// Handles a message from a sender, creating the room if it's the first one for it.
+	public void onMessage(final String roomID, final String senderID, final String message) {
+		final Shard shard = shardFor(roomID);
+		shard.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				Room room = shard.rooms.get(roomID);
+				if (room == null) {
+					room = new Room(roomID, pack, outbox, seed ^ (roomID.hashCode() * 0x9E3779B97F4A7C15L));
+					shard.rooms.put(roomID, room);
+					roomCount.incrementAndGet();
+				}
+				try {
+					room.onMessage(senderID, message);
+				}
+				catch (RuntimeException e) {
+					// one broken room shouldn't take the shard's other rooms down with it
+					ProtocolLog.e(TAG, roomID + ": failed to handle " + message, e);
+				}
+				closeIfEmpty(shard, roomID, room);
+			}
+		});
+	}
+
+	/**
+	 * The sender's connection went away. Unless they're back within {@link #RECONNECT_GRACE_MS},
+	 * they leave their room as if they'd said so.
+	 */
+	public void onSenderDisconnected(final String roomID, final String senderID) {
+		final Shard shard = shardFor(roomID);
+		shard.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				Room room = shard.rooms.get(roomID);
+				if (room != null) {
+					room.onDisconnected(senderID);
+					closeIfEmpty(shard, roomID, room);
+					shard.executor.schedule(new Runnable() {
+						@Override
+						public void run() {
+							Room room = shard.rooms.get(roomID);
+							if (room != null) {
+								room.expire(senderID);
+								closeIfEmpty(shard, roomID, room);
+							}
+						}
+					}, RECONNECT_GRACE_MS, TimeUnit.MILLISECONDS);
+				}
+			}
+		});
+	}
+
+	public int getRoomCount() {
+		return roomCount.get();
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	// Stops every shard, waiting for messages already handed over to be handled.
+	public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+		for (Shard shard : shards) {
+			shard.executor.shutdown();
+		}
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (Shard shard : shards) {
+			shard.executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private Shard shardFor(String roomID) {
+		return shards[(roomID.hashCode() & 0x7FFFFFFF) % shards.length];
+	}
+
+	private void closeIfEmpty(Shard shard, String roomID, Room room) {
+		if (room.isEmpty()) {
+			shard.rooms.remove(roomID);
+			roomCount.decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package com.jelleslaats.freakyfriday.engine;
+
+import com.jelleslaats.freakyfriday.protocol.JsonMessages;
+
+import java.util.List;
+
+/**
+ * Builds the events sent to players as JSON, the sending end of the app's MessageDecoder. Each
+ * event is filled into its {@link JsonMessages} holder, which puts the type first so the app can
+ * decode in one pass, and written into a StringBuilder that is reused between events.
+ */
+final class JsonEventEncoder implements EventEncoder {
+	private final CardPack pack;
+	private final StringBuilder out = new StringBuilder(1024);
+
+	JsonEventEncoder(CardPack pack) {
+		this.pack = pack;
+	}
+
+	@Override
+	public String playerQueued() {
+		out.setLength(0);
+		new JsonMessages.PlayerQueued().write(out);
+		return out.toString();
+	}
+
+	// Always plain JSON, since it's where the format, compression, card pack, batched reads and
+	// retries are agreed; any is null to go without. The resume token lets the player take the
+	// seat back from a new connection.
+	String playerJoined(int playerID, String format, String compression, String cardPack, String reads,
+			String retries, String resumeToken) {
+		JsonMessages.PlayerJoined joined = new JsonMessages.PlayerJoined();
+		joined.playerID = playerID;
+		joined.format = format;
+		joined.compression = compression;
+		joined.cardPack = cardPack;
+		joined.reads = reads;
+		joined.retries = retries;
+		joined.resumeToken = resumeToken;
+		out.setLength(0);
+		joined.write(out);
+		return out.toString();
+	}
+
+	@Override
+	public String judgingStarted() {
+		out.setLength(0);
+		new JsonMessages.JudgingStarted().write(out);
+		return out.toString();
+	}
+
+	@Override
+	public String fullSync(Player player, int handVersion, int[] hand, int judgeID) {
+		JsonMessages.Player synced = new JsonMessages.Player();
+		synced.id = player.id;
+		synced.handVersion = handVersion;
+		synced.hand = cards(player, hand);
+		return gameSync(synced, judgeID);
+	}
+
+	@Override
+	public String deltaSync(Player player, int baseVersion, int handVersion, int[] added, int[] removedIDs, int judgeID) {
+		JsonMessages.Player synced = new JsonMessages.Player();
+		synced.id = player.id;
+		synced.baseVersion = baseVersion;
+		synced.handVersion = handVersion;
+		synced.addedCards = cards(player, added);
+		synced.removedCardIDs = removedIDs;
+		return gameSync(synced, judgeID);
+	}
+
+	@Override
+	public String judgeSubmissions(Player judge, List<Submission> submissions) {
+		JsonMessages.JudgeSubmissions event = new JsonMessages.JudgeSubmissions();
+		event.responsesArray = new JsonMessages.Response[submissions.size()];
+		for (int i = 0; i < submissions.size(); ++i) {
+			JsonMessages.Response response = new JsonMessages.Response();
+			response.submitter = submissions.get(i).player.id;
+			response.cards = cards(judge, submissions.get(i).cardIDs);
+			event.responsesArray[i] = response;
+		}
+		out.setLength(0);
+		event.write(out);
+		return out.toString();
+	}
+
+	@Override
+	public String roundStarted(String prompt, int numOfBlanks, boolean submitted) {
+		JsonMessages.RoundStarted started = new JsonMessages.RoundStarted();
+		started.promptString = prompt;
+		started.numOfBlanks = numOfBlanks;
+		started.submitted = submitted;
+		out.setLength(0);
+		started.write(out);
+		return out.toString();
+	}
+
+	@Override
+	public String roundEnded() {
+		out.setLength(0);
+		new JsonMessages.RoundEnded().write(out);
+		return out.toString();
+	}
+
+	// No request ID goes out for a command that didn't carry one.
+	@Override
+	public String response(int code, int requestID) {
+		JsonMessages.ServerResponse response = new JsonMessages.ServerResponse();
+		response.responseCode = code;
+		response.requestID = requestID >= 0 ? requestID : -1;
+		out.setLength(0);
+		response.write(out);
+		return out.toString();
+	}
+
+	private String gameSync(JsonMessages.Player player, int judgeID) {
+		JsonMessages.Gamesync sync = new JsonMessages.Gamesync();
+		sync.playerObject = player;
+		sync.judgeID = judgeID;
+		out.setLength(0);
+		sync.write(out);
+		return out.toString();
+	}
+
+	// Players with the card pack only get the IDs.
+	private JsonMessages.Card[] cards(Player to, int[] cardIDs) {
+		JsonMessages.Card[] cards = new JsonMessages.Card[cardIDs.length];
+		for (int i = 0; i < cardIDs.length; ++i) {
+			cards[i] = new JsonMessages.Card();
+			cards[i].id = cardIDs[i];
+			if (!to.hasCardPack) {
+				cards[i].text = pack.getWhiteCard(cardIDs[i]);
+			}
+		}
+		return cards;
+	}
+}
@@ -0,0 +1,52 @@
+package com.jelleslaats.freakyfriday.engine;
+
+import com.jelleslaats.freakyfriday.protocol.LoopbackTransport;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Connects in-memory players to a {@link GameServer}, so the app's protocol code can play full
+ * games against the engine without a Chromecast. Events are delivered on the room's shard
+ * thread.
+ */
+public final class LoopbackHub implements GameServer.Outbox {
+	private final ConcurrentHashMap<String, LoopbackTransport> transports = new ConcurrentHashMap<String, LoopbackTransport>();
+	private final GameServer server;
+
+	public LoopbackHub(CardPack pack, int shardCount, long seed) {
+		server = new GameServer(pack, this, shardCount, seed);
+	}
+
+	public GameServer getServer() {
+		return server;
+	}
+
+	// A transport for one player in one room. Use it for a single ProtocolClient.
+	public LoopbackTransport connect(final String roomID, final String senderID) {
+		LoopbackTransport transport = new LoopbackTransport(new LoopbackTransport.Receiver() {
+			@Override
+			public void onMessage(String message, LoopbackTransport transport) {
+				server.onMessage(roomID, senderID, message);
+			}
+		});
+		transports.put(key(roomID, senderID), transport);
+		return transport;
+	}
+
+	public void disconnect(String roomID, String senderID) {
+		transports.remove(key(roomID, senderID));
+		server.onSenderDisconnected(roomID, senderID);
+	}
+
+	@Override
+	public void send(String roomID, String senderID, String message) {
+		LoopbackTransport transport = transports.get(key(roomID, senderID));
+		if (transport != null) {
+			transport.deliver(message);
+		}
+	}
+
+	private static String key(String roomID, String senderID) {
+		return roomID + '/' + senderID;
+	}
+}
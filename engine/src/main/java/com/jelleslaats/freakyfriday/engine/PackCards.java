@@ -0,0 +1,43 @@
+package com.jelleslaats.freakyfriday.engine;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * Turns a deck in CardPack's JSON form into the card pack file the app ships, and prints the
+ * hash the app will offer, which the receiver must compute from the same deck.
+ *
+ * <pre>java PackCards deck.json cards.pack</pre>
+ */
+public final class PackCards {
+	private PackCards() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2 || args[0].isEmpty()) {
+			System.err.println("Usage: PackCards <deck.json> <cards.pack>");
+			System.exit(2);
+		}
+		CardPack pack;
+		Reader in = new InputStreamReader(new FileInputStream(args[0]), Charset.forName("UTF-8"));
+		try {
+			pack = CardPack.load(in);
+		}
+		finally {
+			in.close();
+		}
+		OutputStream out = new FileOutputStream(args[1]);
+		try {
+			pack.writeWhiteCards(out);
+		}
+		finally {
+			out.close();
+		}
+		System.out.println(pack.getWhiteCardCount() + " white cards, hash " + pack.getHashName());
+	}
+}
@@ -0,0 +1,120 @@
+package com.jelleslaats.freakyfriday.engine;
+
+import com.jelleslaats.freakyfriday.protocol.EventSequence;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A player in a room, and the hand they hold. The hand last sent to the player is kept so the
+ * next sync can be a delta against it, and so are their last few events, so a phone that lost
+ * its connection for a moment can pick up where it left off.
+ */
+final class Player {
+	static final int UNVERSIONED = -1;
+	// events kept per player for resending after a resync
+	static final int RECENT_EVENTS = 64;
+
+	final int id;
+	// the connection the player is on; a new one after a drop if they come back with the token
+	String senderID;
+	final String resumeToken;
+	String name;
+	int score = 0;
+
+	final int[] hand;
+	int handSize = 0;
+	int handVersion = 0;
+
+	// what the player's phone has, as far as we know
+	int[] sentHand = new int[0];
+	int sentVersion = UNVERSIONED;
+
+	// whether the last join offered the binary format, compression and event sequencing, and
+	// whether events use them
+	boolean offersBinary = false;
+	boolean binary = false;
+	boolean offersCompression = false;
+	boolean compressed = false;
+	boolean offersSequencing = false;
+	boolean sequenced = false;
+	// reads are taken either way and repeats always dropped; these are only what didJoin tells
+	// the phone
+	boolean offersBatchedReads = false;
+	boolean offersRetries = false;
+	// whether the last join offered the room's own card pack, and whether cards go out as bare IDs
+	boolean offersCardPack = false;
+	boolean hasCardPack = false;
+	// the number the next event gets, the number of the didJoin that started the sequence, and
+	// the last few events as they went out, by number
+	int nextSeq = 0;
+	int sequenceStart = 0;
+	private final String[] recentEvents = new String[RECENT_EVENTS];
+	// false from the player's connection dropping until they send something again
+	boolean connected = true;
+	long disconnectedAt;
+	// cards whose text the phone already has, by ID; only used for the binary format without a
+	// card pack
+	final BitSet textSent = new BitSet();
+
+	Player(int id, String senderID, String resumeToken, String name, int maxHandSize) {
+		this.id = id;
+		this.senderID = senderID;
+		this.resumeToken = resumeToken;
+		this.name = name;
+		this.hand = new int[maxHandSize];
+	}
+
+	boolean holds(int cardID) {
+		for (int i = 0; i < handSize; ++i) {
+			if (hand[i] == cardID) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	void take(int cardID) {
+		hand[handSize++] = cardID;
+	}
+
+	// Removes the cards from the hand; they must all be in it.
+	void play(int[] cardIDs) {
+		for (int cardID : cardIDs) {
+			for (int i = 0; i < handSize; ++i) {
+				if (hand[i] == cardID) {
+					System.arraycopy(hand, i + 1, hand, i, handSize - i - 1);
+					--handSize;
+					break;
+				}
+			}
+		}
+	}
+
+	// Numbers the event and keeps it for resending.
+	String sequence(String message) {
+		int seq = nextSeq++;
+		String wrapped = EventSequence.wrap(seq, message);
+		recentEvents[seq % RECENT_EVENTS] = wrapped;
+		return wrapped;
+	}
+
+	// Whether every event after this one is still kept, or there aren't any. Only events of the
+	// current sequence are resent; asking from before its didJoin gets a catch-up.
+	boolean canResendAfter(int seq) {
+		return seq >= sequenceStart && seq < nextSeq && nextSeq - 1 - seq <= RECENT_EVENTS;
+	}
+
+	String recentEvent(int seq) {
+		return recentEvents[seq % RECENT_EVENTS];
+	}
+
+	int[] copyHand() {
+		return Arrays.copyOf(hand, handSize);
+	}
+
+	@Override
+	public String toString() {
+		return name + " (#" + id + ")";
+	}
+}
@@ -0,0 +1,681 @@
+package com.jelleslaats.freakyfriday.engine;
+
+import com.jelleslaats.freakyfriday.protocol.BinaryFormat;
+import com.jelleslaats.freakyfriday.protocol.PayloadCompressor;
+import com.jelleslaats.freakyfriday.protocol.ProtocolClient;
+import com.jelleslaats.freakyfriday.protocol.ProtocolLog;
+import com.jelleslaats.freakyfriday.protocol.ProtocolSchema;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One game: the players at the table, their hands, and the round in progress. A room belongs to
+ * a single shard thread and is never touched from anywhere else, so nothing here is locked.
+ *
+ * Every command is answered with a response carrying its request ID. Commands that are sent
+ * again because the response got lost are answered from a small cache instead of being applied
+ * twice.
+ *
+ * Players who offer the binary format when joining get their events in it from didJoin on; the
+ * rest get JSON. Likewise for compression, which only kicks in for large events, and for event
+ * sequencing. A player whose connection drops keeps their seat for a while; if they come back
+ * in time, a resync sends them what they missed. If they come back on a new connection, the
+ * resume token from their didJoin gets them the seat back, hand and all.
+ */
+final class Room {
+	private static final String TAG = Room.class.getSimpleName();
+
+	static final int HAND_SIZE = 10;
+	static final int MIN_PLAYERS = 3;
+	// responses remembered per sender for answering retries
+	static final int RECENT_RESPONSES = 16;
+	static final int RESUME_TOKEN_BYTES = 16;
+
+	// resume tokens stand in for the sender, so unlike the shuffles they mustn't be predictable
+	private static final SecureRandom TOKENS = new SecureRandom();
+
+	// deflate keeps a few hundred KB per instance, so rooms share one per shard thread
+	private static final ThreadLocal<PayloadCompressor> COMPRESSOR = new ThreadLocal<PayloadCompressor>() {
+		@Override
+		protected PayloadCompressor initialValue() {
+			return new PayloadCompressor();
+		}
+	};
+
+	private static final int OK = 0;
+
+	private enum Phase {
+		// between rounds; players join straight away
+		LOBBY,
+		// waiting for everyone but the judge to submit
+		PLAYING,
+		// waiting for the judge to pick a winner
+		JUDGING
+	}
+
+	private final String roomID;
+	private final CardPack pack;
+	private final GameServer.Outbox outbox;
+	private final Random random;
+	private final Deck whiteCards;
+	private final Deck prompts;
+	private final JsonEventEncoder jsonEvents;
+	private final BinaryEventEncoder binaryEvents;
+	private final Command command = new Command();
+
+	private final HashMap<String, Player> playersBySender = new HashMap<String, Player>();
+	private final HashMap<String, Player> playersByResumeToken = new HashMap<String, Player>();
+	// seated players in turn order; the judge rotates through them
+	private final ArrayList<Player> seats = new ArrayList<Player>();
+	// players who joined mid-round and sit down when the next one starts
+	private final ArrayList<Player> queue = new ArrayList<Player>();
+	private final HashMap<String, RecentResponses> recentResponses = new HashMap<String, RecentResponses>();
+	private final ArrayList<Submission> submissions = new ArrayList<Submission>();
+
+	private Phase phase = Phase.LOBBY;
+	private int nextPlayerID = 0;
+	private int judgeSeat = -1;
+	private Player judge;
+	private int prompt = -1;
+
+	Room(String roomID, CardPack pack, GameServer.Outbox outbox, long seed) {
+		this.roomID = roomID;
+		this.pack = pack;
+		this.outbox = outbox;
+		this.random = new Random(seed);
+		this.whiteCards = new Deck(pack.getWhiteCardCount(), random);
+		this.prompts = new Deck(pack.getPromptCount(), random);
+		this.jsonEvents = new JsonEventEncoder(pack);
+		this.binaryEvents = new BinaryEventEncoder(pack);
+	}
+
+	// Nobody is playing or waiting to play, so the room can go.
+	boolean isEmpty() {
+		return playersBySender.isEmpty();
+	}
+
+	int getPlayerCount() {
+		return playersBySender.size();
+	}
+
+	void onMessage(String senderID, String message) {
+		Player sender = playersBySender.get(senderID);
+		if (sender != null && !sender.connected) {
+			ProtocolLog.d(TAG, roomID + ": " + sender + " is back");
+			sender.connected = true;
+		}
+		try {
+			if (PayloadCompressor.isCompressed(message)) {
+				message = COMPRESSOR.get().decompress(message);
+			}
+			CommandDecoder.decode(message, command);
+		}
+		catch (IOException | IllegalStateException | IllegalArgumentException e) {
+			ProtocolLog.w(TAG, roomID + ": can't decode " + message, e);
+			send(senderID, eventsFor(senderID).response(ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE, -1));
+			return;
+		}
+
+		RecentResponses recent = recentResponses.get(senderID);
+		if (recent == null) {
+			recent = new RecentResponses();
+			recentResponses.put(senderID, recent);
+		}
+		if (command.requestID >= 0 && recent.contains(command.requestID)) {
+			// a retry of something we already did
+			send(senderID, eventsFor(senderID).response(recent.get(command.requestID), command.requestID));
+			return;
+		}
+
+		int code = handle(senderID, command);
+		if (command.requestID >= 0) {
+			recent.put(command.requestID, code);
+		}
+		send(senderID, eventsFor(senderID).response(code, command.requestID));
+	}
+
+	/**
+	 * The sender's connection dropped. They keep their seat and their events are kept for them
+	 * until {@link #expire(String)}, unless they send something before then.
+	 */
+	void onDisconnected(String senderID) {
+		Player player = playersBySender.get(senderID);
+		if (player == null) {
+			recentResponses.remove(senderID);
+			return;
+		}
+		ProtocolLog.d(TAG, roomID + ": " + player + " disconnected");
+		player.connected = false;
+		player.disconnectedAt = System.nanoTime();
+	}
+
+	// The sender went away without saying goodbye, unless they came back since disconnecting.
+	void expire(String senderID) {
+		expire(senderID, System.nanoTime());
+	}
+
+	// As above, with the grace period measured up to the given System.nanoTime().
+	void expire(String senderID, long now) {
+		Player player = playersBySender.get(senderID);
+		if (player != null && (player.connected
+				|| now - player.disconnectedAt < TimeUnit.MILLISECONDS.toNanos(GameServer.RECONNECT_GRACE_MS))) {
+			// back, or dropped again since and this is an earlier timer
+			return;
+		}
+		leave(senderID);
+		recentResponses.remove(senderID);
+	}
+
+	private int handle(String senderID, Command command) {
+		switch (command.type) {
+			case ProtocolSchema.COMMAND_JOIN:
+				return join(senderID, command);
+			case ProtocolSchema.COMMAND_LEAVE:
+				return leave(senderID);
+			case ProtocolSchema.COMMAND_UPDATE_SETTINGS:
+				return updateSettings(senderID, command.name);
+			case ProtocolSchema.COMMAND_START_NEXT_ROUND:
+				return startRound();
+			case ProtocolSchema.COMMAND_SUBMIT_CARD:
+				return submit(senderID, command.cardIDs);
+			case ProtocolSchema.COMMAND_HAVE_READ_SUBMISSIONS:
+				return markRead(senderID, command.submissions);
+			case ProtocolSchema.COMMAND_HAVE_READ_SUBMISSION:
+				return markRead(senderID, command.cardIDs != null ? new int[][]{command.cardIDs} : null);
+			case ProtocolSchema.COMMAND_SUBMIT_WINNER:
+				return pickWinner(senderID, command.winnerID);
+			case ProtocolSchema.COMMAND_REQUEST_GAMESYNC:
+				return syncHand(senderID);
+			case ProtocolSchema.COMMAND_RESYNC:
+				return resync(senderID, command.resyncAfter);
+			default:
+				return ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE;
+		}
+	}
+
+	private int join(String senderID, Command command) {
+		String name = command.name;
+		if (isBlank(name)) {
+			return ProtocolClient.ERROR_TRIED_TO_JOIN_WITH_BLANK_NAME;
+		}
+
+		Player player = playersBySender.get(senderID);
+		if (player == null && command.resumeToken != null) {
+			player = reattach(senderID, command.resumeToken);
+		}
+		if (player != null) {
+			// the app joins again after reconnecting
+			player.name = name;
+			offer(player, command);
+			catchUp(player);
+			return OK;
+		}
+
+		player = new Player(nextPlayerID++, senderID, newResumeToken(), name, HAND_SIZE);
+		offer(player, command);
+		playersBySender.put(senderID, player);
+		playersByResumeToken.put(player.resumeToken, player);
+		if (phase == Phase.LOBBY) {
+			seats.add(player);
+			confirmJoin(player);
+		}
+		else {
+			queue.add(player);
+			send(player, jsonEvents.playerQueued());
+		}
+		ProtocolLog.d(TAG, roomID + ": " + player + " joined");
+		return OK;
+	}
+
+	/**
+	 * Moves the player holding the token over to the sender, who is them on a new connection.
+	 * Anything still coming from their old one is no longer theirs.
+	 *
+	 * @return the player, or null if nobody holds the token, e.g. because the seat was let go
+	 */
+	private Player reattach(String senderID, String resumeToken) {
+		Player player = playersByResumeToken.get(resumeToken);
+		if (player == null) {
+			ProtocolLog.d(TAG, roomID + ": unknown resume token, joining as a new player");
+			return null;
+		}
+		ProtocolLog.d(TAG, roomID + ": " + player + " is back on a new connection");
+		playersBySender.remove(player.senderID);
+		recentResponses.remove(player.senderID);
+		player.senderID = senderID;
+		player.connected = true;
+		// the phone may have started over without the hand, so deltas against it won't do
+		player.sentVersion = Player.UNVERSIONED;
+		playersBySender.put(senderID, player);
+		return player;
+	}
+
+	private int leave(String senderID) {
+		Player player = playersBySender.remove(senderID);
+		if (player == null) {
+			return OK;
+		}
+		playersByResumeToken.remove(player.resumeToken);
+		ProtocolLog.d(TAG, roomID + ": " + player + " left");
+
+		if (queue.remove(player)) {
+			return OK;
+		}
+
+		int seat = seats.indexOf(player);
+		seats.remove(seat);
+		// keep the rotation going from whoever sits after the judge
+		if (seat <= judgeSeat) {
+			--judgeSeat;
+		}
+		for (int i = 0; i < player.handSize; ++i) {
+			whiteCards.discard(player.hand[i]);
+		}
+		player.handSize = 0;
+
+		if (phase == Phase.LOBBY) {
+			return OK;
+		}
+		if (player == judge || seats.size() < MIN_PLAYERS) {
+			endRound();
+			return OK;
+		}
+
+		Submission submission = findSubmission(player);
+		if (submission != null) {
+			submissions.remove(submission);
+			discard(submission);
+		}
+		if (phase == Phase.PLAYING) {
+			startJudgingIfEveryoneSubmitted();
+		}
+		else if (submissions.isEmpty()) {
+			endRound();
+		}
+		else {
+			send(judge, eventsFor(judge).judgeSubmissions(judge, submissions));
+		}
+		return OK;
+	}
+
+	private int updateSettings(String senderID, String name) {
+		if (isBlank(name)) {
+			return ProtocolClient.ERROR_TRIED_TO_JOIN_WITH_BLANK_NAME;
+		}
+		Player player = playersBySender.get(senderID);
+		if (player == null) {
+			return ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE;
+		}
+		player.name = name;
+		return OK;
+	}
+
+	private int startRound() {
+		if (phase != Phase.LOBBY) {
+			return ProtocolClient.ERROR_TRIED_TO_START_ROUND_WHILE_ROUND_EXISTS;
+		}
+
+		// whoever was waiting sits down now
+		for (Player player : queue) {
+			seats.add(player);
+			confirmJoin(player);
+		}
+		queue.clear();
+
+		if (seats.size() < MIN_PLAYERS) {
+			return ProtocolClient.ERROR_TRIED_TO_START_ROUND_INSUFFICIENT_PLAYERS;
+		}
+
+		judgeSeat = (judgeSeat + 1) % seats.size();
+		judge = seats.get(judgeSeat);
+		if (prompt >= 0) {
+			prompts.discard(prompt);
+		}
+		prompt = prompts.draw();
+
+		for (Player player : seats) {
+			while (player.handSize < HAND_SIZE) {
+				int card = whiteCards.draw();
+				if (card < 0) {
+					break;
+				}
+				player.take(card);
+			}
+		}
+		submissions.clear();
+		phase = Phase.PLAYING;
+		ProtocolLog.d(TAG, roomID + ": round started, " + judge + " judges");
+
+		String roundStarted = jsonEvents.roundStarted(pack.getPrompt(prompt), pack.getBlanks(prompt), false);
+		String roundStartedBinary = binaryEvents.roundStarted(pack.getPrompt(prompt), pack.getBlanks(prompt), false);
+		for (Player player : seats) {
+			syncHand(player, false);
+			send(player, player.binary ? roundStartedBinary : roundStarted);
+		}
+		return OK;
+	}
+
+	private int submit(String senderID, int[] cardIDs) {
+		Player player = playersBySender.get(senderID);
+		if (phase != Phase.PLAYING || player == null || player == judge || !seats.contains(player)
+				|| findSubmission(player) != null || cardIDs == null) {
+			return ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE;
+		}
+		if (cardIDs.length != pack.getBlanks(prompt)) {
+			return ProtocolClient.ERROR_WRONG_NUMBER_OF_CARDS;
+		}
+		for (int i = 0; i < cardIDs.length; ++i) {
+			if (!player.holds(cardIDs[i])) {
+				return ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE;
+			}
+			for (int j = 0; j < i; ++j) {
+				if (cardIDs[j] == cardIDs[i]) {
+					return ProtocolClient.ERROR_WRONG_NUMBER_OF_CARDS;
+				}
+			}
+		}
+
+		player.play(cardIDs);
+		submissions.add(new Submission(player, cardIDs.clone()));
+		startJudgingIfEveryoneSubmitted();
+		return OK;
+	}
+
+	private int markRead(String senderID, int[][] read) {
+		if (phase != Phase.JUDGING || playersBySender.get(senderID) != judge || read == null) {
+			return ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE;
+		}
+		for (int[] cardIDs : read) {
+			for (Submission submission : submissions) {
+				if (submission.matches(cardIDs)) {
+					submission.read = true;
+					break;
+				}
+			}
+		}
+		return OK;
+	}
+
+	private int pickWinner(String senderID, int winnerID) {
+		if (phase != Phase.JUDGING || playersBySender.get(senderID) != judge) {
+			return ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE;
+		}
+		Submission winner = findSubmission(winnerID);
+		if (winner == null) {
+			return ProtocolClient.ERROR_INVALID_WINNER_SUBMITTED;
+		}
+		for (Submission submission : submissions) {
+			if (!submission.read) {
+				return ProtocolClient.ERROR_JUDGED_BEFORE_CARDS_WERE_READ;
+			}
+		}
+
+		winner.player.score++;
+		ProtocolLog.d(TAG, roomID + ": " + winner.player + " wins the round");
+		endRound();
+		return OK;
+	}
+
+	private int syncHand(String senderID) {
+		Player player = playersBySender.get(senderID);
+		if (player == null || !seats.contains(player) || judge == null) {
+			return ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE;
+		}
+		syncHand(player, true);
+		return OK;
+	}
+
+	/**
+	 * Sends the events after the given one again, exactly as they went out, or catches the
+	 * player up from scratch if they aren't all kept any more.
+	 */
+	private int resync(String senderID, int after) {
+		Player player = playersBySender.get(senderID);
+		if (player == null || !player.sequenced) {
+			return ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE;
+		}
+		if (player.canResendAfter(after)) {
+			ProtocolLog.d(TAG, roomID + ": resending " + (player.nextSeq - 1 - after) + " events to " + player);
+			for (int seq = after + 1; seq < player.nextSeq; ++seq) {
+				outbox.send(roomID, senderID, player.recentEvent(seq));
+			}
+		}
+		else {
+			ProtocolLog.d(TAG, roomID + ": " + player + " missed too much, catching up");
+			catchUp(player);
+		}
+		return OK;
+	}
+
+	/**
+	 * Tells a returning player where the game is: queued, or seated with the round so far,
+	 * including whether their cards are already in, so they wait instead of playing again.
+	 */
+	private void catchUp(Player player) {
+		if (queue.contains(player)) {
+			send(player, jsonEvents.playerQueued());
+			return;
+		}
+		confirmJoin(player);
+		if (phase != Phase.LOBBY) {
+			EventEncoder events = eventsFor(player);
+			syncHand(player, true);
+			send(player, events.roundStarted(pack.getPrompt(prompt), pack.getBlanks(prompt),
+					findSubmission(player) != null));
+			if (phase == Phase.JUDGING) {
+				send(player, player == judge ? events.judgeSubmissions(player, submissions) : events.judgingStarted());
+			}
+		}
+	}
+
+	private void startJudgingIfEveryoneSubmitted() {
+		if (submissions.size() < seats.size() - 1) {
+			return;
+		}
+		phase = Phase.JUDGING;
+		// don't give away who played what by the order
+		Collections.shuffle(submissions, random);
+
+		String judgingStarted = jsonEvents.judgingStarted();
+		String judgingStartedBinary = binaryEvents.judgingStarted();
+		for (Player player : seats) {
+			if (player != judge) {
+				send(player, player.binary ? judgingStartedBinary : judgingStarted);
+			}
+		}
+		send(judge, eventsFor(judge).judgeSubmissions(judge, submissions));
+	}
+
+	private void endRound() {
+		for (Submission submission : submissions) {
+			discard(submission);
+		}
+		submissions.clear();
+		phase = Phase.LOBBY;
+
+		String roundEnded = jsonEvents.roundEnded();
+		String roundEndedBinary = binaryEvents.roundEnded();
+		for (Player player : seats) {
+			send(player, player.binary ? roundEndedBinary : roundEnded);
+		}
+	}
+
+	/**
+	 * Sends the player's hand, as the cards added and removed since the hand their phone last
+	 * got, or in full if it never got one or asked for it.
+	 */
+	private void syncHand(Player player, boolean full) {
+		int[] hand = player.copyHand();
+		int baseVersion = player.sentVersion;
+		int version = ++player.handVersion;
+
+		if (full || baseVersion == Player.UNVERSIONED) {
+			send(player, eventsFor(player).fullSync(player, version, hand, judge.id));
+		}
+		else {
+			send(player, eventsFor(player).deltaSync(player, baseVersion, version,
+					missingFrom(player.sentHand, hand), missingFrom(hand, player.sentHand), judge.id));
+		}
+		player.sentHand = hand;
+		player.sentVersion = version;
+	}
+
+	// The cards in b that aren't in a. Hands are ten cards, so a nested loop is plenty.
+	private static int[] missingFrom(int[] a, int[] b) {
+		int[] missing = new int[b.length];
+		int count = 0;
+		for (int card : b) {
+			boolean found = false;
+			for (int other : a) {
+				if (other == card) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				missing[count++] = card;
+			}
+		}
+		int[] result = new int[count];
+		System.arraycopy(missing, 0, result, 0, count);
+		return result;
+	}
+
+	private Submission findSubmission(Player player) {
+		return findSubmission(player.id);
+	}
+
+	private Submission findSubmission(int playerID) {
+		for (Submission submission : submissions) {
+			if (submission.player.id == playerID) {
+				return submission;
+			}
+		}
+		return null;
+	}
+
+	private void discard(Submission submission) {
+		for (int card : submission.cardIDs) {
+			whiteCards.discard(card);
+		}
+	}
+
+	private void offer(Player player, Command join) {
+		player.offersBinary = join.offersBinary;
+		player.offersCompression = join.offersCompression;
+		player.offersSequencing = join.offersSequencing;
+		player.offersBatchedReads = join.offersBatchedReads;
+		player.offersRetries = join.offersRetries;
+		player.offersCardPack = pack.getHashName().equals(join.cardPack);
+	}
+
+	/**
+	 * Tells the player they're seated, agreeing to the binary format, compression, event
+	 * sequencing, batched reads, retries and the card pack if they offered them. Their phone starts a fresh string table,
+	 * so every card's text goes out again unless it has the pack, and didJoin starts a new
+	 * sequence, numbered on from the last one so nothing late from that one passes for part of
+	 * it. It also carries the player's resume token.
+	 */
+	private void confirmJoin(Player player) {
+		player.binary = player.offersBinary;
+		player.textSent.clear();
+		// didJoin itself is small, so turning compression on first doesn't affect it
+		player.compressed = player.offersCompression;
+		player.sequenced = player.offersSequencing;
+		player.sequenceStart = player.nextSeq;
+		player.hasCardPack = player.offersCardPack;
+		send(player, jsonEvents.playerJoined(player.id, player.binary ? BinaryFormat.NAME : null,
+				player.compressed ? PayloadCompressor.NAME : null,
+				player.hasCardPack ? pack.getHashName() : null,
+				player.offersBatchedReads ? ProtocolClient.BATCHED_READS : null,
+				player.offersRetries ? ProtocolClient.DEDUPLICATED_RETRIES : null, player.resumeToken));
+	}
+
+	private EventEncoder eventsFor(Player player) {
+		return player.binary ? binaryEvents : jsonEvents;
+	}
+
+	// Senders who aren't playing get JSON.
+	private EventEncoder eventsFor(String senderID) {
+		Player player = playersBySender.get(senderID);
+		return player != null ? eventsFor(player) : jsonEvents;
+	}
+
+	// Compresses and numbers the event as the player agreed to. Events are still numbered and
+	// kept while the player is disconnected, for the resync when they're back.
+	private void send(Player player, String message) {
+		if (player.compressed) {
+			message = COMPRESSOR.get().compress(message);
+		}
+		if (player.sequenced) {
+			message = player.sequence(message);
+		}
+		if (player.connected) {
+			outbox.send(roomID, player.senderID, message);
+		}
+	}
+
+	private void send(String senderID, String message) {
+		Player player = playersBySender.get(senderID);
+		if (player != null) {
+			send(player, message);
+		}
+		else {
+			outbox.send(roomID, senderID, message);
+		}
+	}
+
+	private static String newResumeToken() {
+		byte[] bytes = new byte[RESUME_TOKEN_BYTES];
+		TOKENS.nextBytes(bytes);
+		StringBuilder token = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return token.toString();
+	}
+
+	private static boolean isBlank(String name) {
+		return name == null || name.trim().isEmpty();
+	}
+
+	/**
+	 * The last few request IDs from one sender and what they were answered with.
+	 */
+	private static final class RecentResponses {
+		private final int[] requestIDs = new int[RECENT_RESPONSES];
+		private final int[] codes = new int[RECENT_RESPONSES];
+		private int count = 0;
+		private int next = 0;
+
+		boolean contains(int requestID) {
+			return indexOf(requestID) >= 0;
+		}
+
+		int get(int requestID) {
+			return codes[indexOf(requestID)];
+		}
+
+		void put(int requestID, int code) {
+			requestIDs[next] = requestID;
+			codes[next] = code;
+			next = (next + 1) % RECENT_RESPONSES;
+			count = Math.min(count + 1, RECENT_RESPONSES);
+		}
+
+		private int indexOf(int requestID) {
+			for (int i = 0; i < count; ++i) {
+				if (requestIDs[i] == requestID) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package com.jelleslaats.freakyfriday.engine;
+
+import java.util.Arrays;
+
+/**
+ * The cards one player put forward for the current prompt.
+ */
+final class Submission {
+	final Player player;
+	final int[] cardIDs;
+	// the judge has to read every submission before picking a winner
+	boolean read = false;
+
+	Submission(Player player, int[] cardIDs) {
+		this.player = player;
+		this.cardIDs = cardIDs;
+	}
+
+	// Whether these are the submitted cards, in any order.
+	boolean matches(int[] ids) {
+		if (ids.length != cardIDs.length) {
+			return false;
+		}
+		int[] sorted = ids.clone();
+		int[] ours = cardIDs.clone();
+		Arrays.sort(sorted);
+		Arrays.sort(ours);
+		return Arrays.equals(sorted, ours);
+	}
+}
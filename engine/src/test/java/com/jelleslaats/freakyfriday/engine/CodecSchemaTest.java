@@ -0,0 +1,286 @@
+package com.jelleslaats.freakyfriday.engine;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.jelleslaats.freakyfriday.protocol.BinaryFormat;
+import com.jelleslaats.freakyfriday.protocol.Card;
+import com.jelleslaats.freakyfriday.protocol.CardPackFile;
+import com.jelleslaats.freakyfriday.protocol.EventSequence;
+import com.jelleslaats.freakyfriday.protocol.LoopbackTransport;
+import com.jelleslaats.freakyfriday.protocol.ProtocolClient;
+import com.jelleslaats.freakyfriday.protocol.ProtocolSchema;
+import com.jelleslaats.freakyfriday.protocol.Response;
+import com.jelleslaats.freakyfriday.protocol.Scheduler;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Checks every codec on both ends against messages.schema: the JSON of each message type carries
+ * exactly the keys the schema lists for it, and binary frames decode to what the same message
+ * decodes to as JSON. The app's end is driven through ProtocolClient, the way the app uses it.
+ */
+public class CodecSchemaTest {
+	private static final CardPack PACK = CardPack.generated(4, 32);
+	private static final Gson GSON = new Gson();
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void commandsCarryTheSchemasKeys() throws IOException {
+		assertKeys(ProtocolSchema.commandTypes(), sendEveryCommand(false));
+	}
+
+	@Test
+	public void eventsCarryTheSchemasKeys() {
+		JsonEventEncoder encoder = new JsonEventEncoder(PACK);
+		List<String> events = everyEvent(encoder);
+		events.add(encoder.playerJoined(3, BinaryFormat.NAME, "deflate1", PACK.getHashName(),
+				ProtocolClient.BATCHED_READS, ProtocolClient.DEDUPLICATED_RETRIES, "token"));
+		assertKeys(ProtocolSchema.eventTypes(), events);
+	}
+
+	@Test
+	public void binaryCommandsDecodeLikeJson() throws IOException {
+		List<String> json = sendEveryCommand(false);
+		List<String> binary = sendEveryCommand(true);
+		assertEquals(json.size(), binary.size());
+
+		// request IDs start anywhere, so they're compared relative to the join's
+		Command command = new Command();
+		CommandDecoder.decode(json.get(0), command);
+		int jsonJoin = command.requestID;
+		CommandDecoder.decode(binary.get(0), command);
+		int binaryJoin = command.requestID;
+		for (int i = 1; i < json.size(); ++i) {
+			assertEquals(describe(json.get(i), jsonJoin), describe(binary.get(i), binaryJoin));
+		}
+	}
+
+	@Test
+	public void binaryEventsDecodeLikeJson() {
+		App json = new App(new ArrayList<String>());
+		for (String event : everyEvent(new JsonEventEncoder(PACK))) {
+			json.onMessage(event);
+		}
+		App binary = new App(new ArrayList<String>());
+		for (String event : everyEvent(new BinaryEventEncoder(PACK))) {
+			assertEquals(BinaryFormat.FRAME_PREFIX, event.charAt(0));
+			binary.onMessage(event);
+		}
+		assertEquals(json.events, binary.events);
+		assertEquals(9, json.events.size());
+	}
+
+	// The JSON keys written for each type, nested ones included, must be the ones the schema lists.
+	private static void assertKeys(String[] types, List<String> messages) {
+		Map<String, Set<String>> written = new HashMap<String, Set<String>>();
+		for (String message : messages) {
+			JsonObject object = GSON.fromJson(message, JsonObject.class);
+			String type = object.get(ProtocolSchema.KEY_TYPE).getAsString();
+			if (!written.containsKey(type)) {
+				written.put(type, new TreeSet<String>());
+			}
+			collectKeys(object, written.get(type));
+		}
+		for (String type : types) {
+			assertEquals(type, new TreeSet<String>(Arrays.asList(ProtocolSchema.keysOf(type))), written.get(type));
+		}
+		for (String type : written.keySet()) {
+			assertNotNull(type + " isn't in the schema", ProtocolSchema.keysOf(type));
+		}
+	}
+
+	private static void collectKeys(JsonElement element, Set<String> into) {
+		if (element.isJsonObject()) {
+			for (Entry<String, JsonElement> field : element.getAsJsonObject().entrySet()) {
+				into.add(field.getKey());
+				collectKeys(field.getValue(), into);
+			}
+		}
+		else if (element.isJsonArray()) {
+			for (JsonElement item : element.getAsJsonArray()) {
+				collectKeys(item, into);
+			}
+		}
+	}
+
+	/**
+	 * Joins, offering a card pack and a seat to take back, then sends every command with every
+	 * optional field filled in and returns them all as they went out. The receiver confirms
+	 * batched reads, and the binary format if asked to.
+	 */
+	private List<String> sendEveryCommand(boolean binary) throws IOException {
+		File packFile = folder.newFile();
+		FileOutputStream out = new FileOutputStream(packFile);
+		try {
+			PACK.writeWhiteCards(out);
+		}
+		finally {
+			out.close();
+		}
+
+		List<String> sent = new ArrayList<String>();
+		App app = new App(sent);
+		app.setCardPack(CardPackFile.open(packFile));
+		app.setResumeToken("token", 3);
+		app.joinGame("Ann");
+		app.readSubmissions(new int[][]{{4, 8}, {15}});
+		// numbered, so there's something to resync after
+		app.onMessage(EventSequence.wrap(16, new JsonEventEncoder(PACK).playerJoined(3,
+				binary ? BinaryFormat.NAME : null, null, null, ProtocolClient.BATCHED_READS, null, "token")));
+
+		app.updateSettings("Bob \"the judge\"");
+		app.submitResponse(new int[]{23, 0, 31});
+		app.declareWinner(-2);
+		app.readSubmissions(new int[][]{{4, 8}, {15}, {}});
+		app.startNextRound();
+		app.requestGameSync(42);
+		app.resync();
+		app.leaveGame();
+		return sent;
+	}
+
+	private static String describe(String message, int firstRequestID) throws IOException {
+		Command command = new Command();
+		CommandDecoder.decode(message, command);
+		return command.type + " #" + (command.requestID - firstRequestID)
+				+ " name=" + command.name
+				+ " cardIDs=" + Arrays.toString(command.cardIDs)
+				+ " winnerID=" + command.winnerID
+				+ " submissions=" + Arrays.deepToString(command.submissions)
+				+ " handVersion=" + command.handVersion
+				+ " resyncAfter=" + command.resyncAfter;
+	}
+
+	// Every event with a binary form, each card text going out for the first time and again.
+	private static List<String> everyEvent(EventEncoder encoder) {
+		Player player = new Player(1, "sender1", "token1", "Ann", 10);
+		Player judge = new Player(2, "sender2", "token2", "Bob", 10);
+		List<Submission> submissions = new ArrayList<Submission>();
+		submissions.add(new Submission(player, new int[]{5, 6}));
+		submissions.add(new Submission(new Player(4, "sender4", "token4", "Cy", 10), new int[]{7}));
+
+		List<String> events = new ArrayList<String>();
+		events.add(encoder.playerQueued());
+		events.add(encoder.roundStarted("Why is there \u00e9 ____?", 2, false));
+		events.add(encoder.fullSync(player, 4, new int[]{1, 2, 3}, 2));
+		events.add(encoder.deltaSync(player, 4, 5, new int[]{3, 9}, new int[]{1, 2}, 2));
+		events.add(encoder.judgingStarted());
+		events.add(encoder.judgeSubmissions(judge, submissions));
+		events.add(encoder.roundEnded());
+		events.add(encoder.roundStarted("And ____ again?", 1, true));
+		events.add(encoder.response(ProtocolClient.ERROR_WRONG_NUMBER_OF_CARDS, 12));
+		return events;
+	}
+
+	// The app's end: whatever it sends is kept, and every event it decodes is written down.
+	private static final class App extends ProtocolClient {
+		// runs what's due now, which is all a single-threaded test needs; timers never fire
+		private static final Scheduler NOW = new Scheduler() {
+			@Override
+			public void schedule(Runnable task, long delayMillis) {
+				if (delayMillis == 0) {
+					task.run();
+				}
+			}
+
+			@Override
+			public void cancel(Runnable task) {
+			}
+
+			@Override
+			public long now() {
+				return 0;
+			}
+		};
+
+		final List<String> events = new ArrayList<String>();
+
+		App(final List<String> sent) {
+			super(new LoopbackTransport(new LoopbackTransport.Receiver() {
+				@Override
+				public void onMessage(String message, LoopbackTransport transport) {
+					sent.add(message);
+				}
+			}), NOW);
+		}
+
+		@Override
+		protected void onPlayerQueued() {
+			events.add("queued");
+		}
+
+		@Override
+		protected void onPlayerJoined(int newID) {
+			events.add("joined " + newID);
+		}
+
+		@Override
+		protected void onJudgeModeStarted() {
+			events.add("judging");
+		}
+
+		@Override
+		protected void onGameSync(int playerID, int handVersion, Card[] hand, int newJudge) {
+			events.add("sync " + playerID + " v" + handVersion + " " + describe(hand) + " judge " + newJudge);
+		}
+
+		@Override
+		protected void onHandDelta(int playerID, int baseVersion, int handVersion, Card[] added, int[] removedIDs,
+				int newJudge) {
+			events.add("delta " + playerID + " v" + baseVersion + "-v" + handVersion + " +" + describe(added)
+					+ " -" + Arrays.toString(removedIDs) + " judge " + newJudge);
+		}
+
+		@Override
+		protected void onJudgeResponses(Response[] responses) {
+			StringBuilder event = new StringBuilder("responses");
+			for (Response response : responses) {
+				event.append(' ').append(response.owner).append(describe(response.contents));
+			}
+			events.add(event.toString());
+		}
+
+		@Override
+		protected void onRoundStarted(String newPrompt, int numOfBlanks, boolean submitted) {
+			events.add("round " + newPrompt + " " + numOfBlanks + (submitted ? " submitted" : ""));
+		}
+
+		@Override
+		protected void onRoundEnded() {
+			events.add("ended");
+		}
+
+		@Override
+		protected void onServerError(int errorCode) {
+			events.add("error " + errorCode);
+		}
+
+		private static String describe(Card[] cards) {
+			StringBuilder out = new StringBuilder("[");
+			for (Card card : cards) {
+				out.append(card.id).append('=').append(card.prompt).append(';');
+			}
+			return out.append(']').toString();
+		}
+	}
+}
@@ -0,0 +1,304 @@
+package com.jelleslaats.freakyfriday.engine;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.jelleslaats.freakyfriday.protocol.ProtocolSchema;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plays many rooms at once through a {@link GameServer}, checking that each room is handled on
+ * one shard thread and that rooms on different shards don't get in each other's way.
+ */
+public class GameServerTest {
+	private static final CardPack PACK = CardPack.generated(30, 600);
+	private static final Gson GSON = new Gson();
+	private static final int SHARDS = 3;
+	private static final int OK = 0;
+	private static final long TIMEOUT_MS = 5000;
+
+	// events per room and sender, guarded by itself
+	private final Map<String, List<JsonObject>> inbox = new HashMap<String, List<JsonObject>>();
+	// the threads each room's events went out on, guarded by inbox
+	private final Map<String, Set<String>> threads = new HashMap<String, Set<String>>();
+	private final AtomicInteger nextRequestID = new AtomicInteger();
+	private final GameServer server = new GameServer(PACK, new GameServer.Outbox() {
+		@Override
+		public void send(String roomID, String senderID, String message) {
+			synchronized (inbox) {
+				inbox(roomID, senderID).add(GSON.fromJson(message, JsonObject.class));
+				Set<String> names = threads.get(roomID);
+				if (names == null) {
+					names = new HashSet<String>();
+					threads.put(roomID, names);
+				}
+				names.add(Thread.currentThread().getName());
+				inbox.notifyAll();
+			}
+		}
+	}, SHARDS, 11);
+
+	@After
+	public void shutDown() throws InterruptedException {
+		server.shutdown(1, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void roomsAreSpreadOverShardsAndEachStaysOnOne() throws InterruptedException {
+		assertEquals(SHARDS, server.getShardCount());
+		for (int i = 0; i < 12; ++i) {
+			for (String sender : new String[]{"ann", "bob"}) {
+				assertEquals(OK, join("room" + i, sender));
+			}
+		}
+		assertEquals(12, server.getRoomCount());
+
+		Set<String> used = new HashSet<String>();
+		synchronized (inbox) {
+			for (int i = 0; i < 12; ++i) {
+				Set<String> names = threads.get("room" + i);
+				assertEquals(1, names.size());
+				used.addAll(names);
+			}
+		}
+		assertEquals(SHARDS, used.size());
+
+		// a room goes once everyone in it has left
+		for (int i = 0; i < 12; ++i) {
+			assertEquals(OK, command("room" + i, "ann", ProtocolSchema.COMMAND_LEAVE, null));
+		}
+		assertEquals(12, server.getRoomCount());
+		for (int i = 0; i < 12; ++i) {
+			assertEquals(OK, command("room" + i, "bob", ProtocolSchema.COMMAND_LEAVE, null));
+		}
+		awaitRoomCount(0);
+	}
+
+	@Test
+	public void roomsPlayAtTheSameTime() throws InterruptedException {
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		Thread[] tables = new Thread[8];
+		for (int i = 0; i < tables.length; ++i) {
+			final String roomID = "table" + i;
+			tables[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						play(roomID, 6, "ann", "bob", "cy", "dee");
+					}
+					catch (Throwable t) {
+						failures.add(t);
+					}
+				}
+			});
+			tables[i].start();
+		}
+		for (Thread table : tables) {
+			table.join();
+		}
+		if (!failures.isEmpty()) {
+			throw new AssertionError(failures.get(0));
+		}
+		assertEquals(tables.length, server.getRoomCount());
+	}
+
+	/**
+	 * Seats the players and plays the rounds, each player submitting the first cards in their
+	 * hand and the judge picking the first submission, checking the judge goes round the table
+	 * and that everyone holds a full hand of their own at the start of each round.
+	 */
+	private void play(String roomID, int rounds, String... senders) {
+		for (String sender : senders) {
+			assertEquals(OK, join(roomID, sender));
+		}
+		for (int round = 0; round < rounds; ++round) {
+			assertEquals(OK, command(roomID, senders[0], ProtocolSchema.COMMAND_START_NEXT_ROUND, null));
+			String judge = senders[round % senders.length];
+			Set<Integer> dealt = new HashSet<Integer>();
+			for (String sender : senders) {
+				JsonObject sync = last(roomID, sender, ProtocolSchema.EVENT_GAMESYNC);
+				assertEquals(playerID(roomID, judge), sync.get(ProtocolSchema.KEY_JUDGE_ID).getAsInt());
+				List<Integer> hand = hand(roomID, sender);
+				assertEquals(Room.HAND_SIZE, hand.size());
+				dealt.addAll(hand);
+			}
+			assertEquals(senders.length * Room.HAND_SIZE, dealt.size());
+
+			int blanks = last(roomID, judge, ProtocolSchema.EVENT_ROUND_STARTED)
+					.get(ProtocolSchema.KEY_NUM_OF_BLANKS).getAsInt();
+			for (String sender : senders) {
+				if (sender.equals(judge)) {
+					continue;
+				}
+				JsonArray cards = new JsonArray();
+				for (int card : hand(roomID, sender).subList(0, blanks)) {
+					cards.add(card);
+				}
+				JsonObject fields = new JsonObject();
+				fields.add(ProtocolSchema.KEY_CARD_ID_ARRAY, cards);
+				assertEquals(OK, command(roomID, sender, ProtocolSchema.COMMAND_SUBMIT_CARD, fields));
+			}
+
+			JsonArray responses = last(roomID, judge, ProtocolSchema.EVENT_JUDGE_SUBMISSIONS)
+					.getAsJsonArray(ProtocolSchema.KEY_RESPONSES_ARRAY);
+			assertEquals(senders.length - 1, responses.size());
+			JsonArray read = new JsonArray();
+			for (JsonElement response : responses) {
+				JsonArray ids = new JsonArray();
+				for (JsonElement card : response.getAsJsonObject().getAsJsonArray(ProtocolSchema.KEY_CARDS)) {
+					ids.add(card.getAsJsonObject().get(ProtocolSchema.KEY_ID).getAsInt());
+				}
+				read.add(ids);
+			}
+			JsonObject fields = new JsonObject();
+			fields.add(ProtocolSchema.KEY_SUBMISSIONS_THAT_WERE_READ, read);
+			assertEquals(OK, command(roomID, judge, ProtocolSchema.COMMAND_HAVE_READ_SUBMISSIONS, fields));
+			fields = new JsonObject();
+			fields.add(ProtocolSchema.KEY_CHOSEN_WINNER,
+					responses.get(0).getAsJsonObject().get(ProtocolSchema.KEY_SUBMITTER));
+			assertEquals(OK, command(roomID, judge, ProtocolSchema.COMMAND_SUBMIT_WINNER, fields));
+			for (String sender : senders) {
+				assertEquals(round + 1, count(roomID, sender, ProtocolSchema.EVENT_ROUND_ENDED));
+			}
+		}
+	}
+
+	// Rooms are closed on their shard thread just after answering, so this waits for that.
+	private void awaitRoomCount(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (server.getRoomCount() != count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(count, server.getRoomCount());
+	}
+
+	private int join(String roomID, String senderID) {
+		JsonObject fields = new JsonObject();
+		fields.addProperty(ProtocolSchema.KEY_NAME, "Player " + senderID);
+		return command(roomID, senderID, ProtocolSchema.COMMAND_JOIN, fields);
+	}
+
+	// Sends a command and waits for the code it's answered with.
+	private int command(String roomID, String senderID, String type, JsonObject fields) {
+		JsonObject command = new JsonObject();
+		command.addProperty(ProtocolSchema.KEY_TYPE, type);
+		int requestID = nextRequestID.getAndIncrement();
+		command.addProperty(ProtocolSchema.KEY_REQUEST_ID, requestID);
+		if (fields != null) {
+			for (Map.Entry<String, JsonElement> field : fields.entrySet()) {
+				command.add(field.getKey(), field.getValue());
+			}
+		}
+		server.onMessage(roomID, senderID, command.toString());
+
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		synchronized (inbox) {
+			while (true) {
+				for (JsonObject event : inbox(roomID, senderID)) {
+					if (isType(event, ProtocolSchema.EVENT_SERVER_RESPONSE)
+							&& event.has(ProtocolSchema.KEY_REQUEST_ID)
+							&& event.get(ProtocolSchema.KEY_REQUEST_ID).getAsInt() == requestID) {
+						return event.get(ProtocolSchema.KEY_RESPONSE_CODE).getAsInt();
+					}
+				}
+				long left = deadline - System.currentTimeMillis();
+				assertTrue(roomID + ": no answer to " + type + " from " + senderID, left > 0);
+				try {
+					inbox.wait(left);
+				}
+				catch (InterruptedException e) {
+					throw new AssertionError(e);
+				}
+			}
+		}
+	}
+
+	// The sender's hand as of their latest gameSync, full or delta.
+	private List<Integer> hand(String roomID, String senderID) {
+		List<Integer> hand = new ArrayList<Integer>();
+		synchronized (inbox) {
+			for (JsonObject event : inbox(roomID, senderID)) {
+				if (!isType(event, ProtocolSchema.EVENT_GAMESYNC)) {
+					continue;
+				}
+				JsonObject player = event.getAsJsonObject(ProtocolSchema.KEY_PLAYER_OBJECT);
+				if (player.has(ProtocolSchema.KEY_HAND)) {
+					hand.clear();
+					addCards(player.getAsJsonArray(ProtocolSchema.KEY_HAND), hand);
+				}
+				else {
+					for (JsonElement removed : player.getAsJsonArray(ProtocolSchema.KEY_REMOVED_CARD_IDS)) {
+						hand.remove(Integer.valueOf(removed.getAsInt()));
+					}
+					addCards(player.getAsJsonArray(ProtocolSchema.KEY_ADDED_CARDS), hand);
+				}
+			}
+		}
+		return hand;
+	}
+
+	private static void addCards(JsonArray cards, List<Integer> into) {
+		for (JsonElement card : cards) {
+			into.add(card.getAsJsonObject().get(ProtocolSchema.KEY_ID).getAsInt());
+		}
+	}
+
+	private int playerID(String roomID, String senderID) {
+		return last(roomID, senderID, ProtocolSchema.EVENT_PLAYER_JOINED).get(ProtocolSchema.KEY_PLAYER_ID).getAsInt();
+	}
+
+	private JsonObject last(String roomID, String senderID, String type) {
+		synchronized (inbox) {
+			List<JsonObject> events = inbox(roomID, senderID);
+			for (int i = events.size() - 1; i >= 0; --i) {
+				if (isType(events.get(i), type)) {
+					return events.get(i);
+				}
+			}
+		}
+		throw new AssertionError(roomID + ": " + senderID + " got no " + type);
+	}
+
+	private int count(String roomID, String senderID, String type) {
+		int count = 0;
+		synchronized (inbox) {
+			for (JsonObject event : inbox(roomID, senderID)) {
+				if (isType(event, type)) {
+					++count;
+				}
+			}
+		}
+		return count;
+	}
+
+	private static boolean isType(JsonObject event, String type) {
+		return type.equals(event.get(ProtocolSchema.KEY_TYPE).getAsString());
+	}
+
+	// Only with inbox held.
+	private List<JsonObject> inbox(String roomID, String senderID) {
+		String key = roomID + '/' + senderID;
+		List<JsonObject> events = inbox.get(key);
+		if (events == null) {
+			events = new ArrayList<JsonObject>();
+			inbox.put(key, events);
+		}
+		return events;
+	}
+}
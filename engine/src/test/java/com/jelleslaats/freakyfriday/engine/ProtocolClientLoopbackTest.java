@@ -0,0 +1,383 @@
+package com.jelleslaats.freakyfriday.engine;
+
+import com.jelleslaats.freakyfriday.protocol.Card;
+import com.jelleslaats.freakyfriday.protocol.ExecutorScheduler;
+import com.jelleslaats.freakyfriday.protocol.LoopbackTransport;
+import com.jelleslaats.freakyfriday.protocol.PendingCommand;
+import com.jelleslaats.freakyfriday.protocol.ProtocolClient;
+import com.jelleslaats.freakyfriday.protocol.ProtocolSchema;
+import com.jelleslaats.freakyfriday.protocol.Response;
+import com.jelleslaats.freakyfriday.protocol.Transport;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives ProtocolClients through a round against the engine over a {@link LoopbackHub}: joining,
+ * didJoin, dealing, submitting, judging and the round ending, along with the error code of every
+ * command the receiver refuses. Everything on the wire goes through the app's real codecs, with
+ * whatever the join negotiated.
+ */
+public class ProtocolClientLoopbackTest {
+	private static final String ROOM = "room";
+	private static final long TIMEOUT_MS = 5000;
+	private static final int OK = 0;
+	// what a command that never got an answer reports
+	private static final int FAILED = Integer.MIN_VALUE;
+
+	private final LoopbackHub hub = new LoopbackHub(CardPack.generated(30, 300), 2, 5);
+	private final List<Client> clients = new ArrayList<Client>();
+
+	@After
+	public void shutDown() throws InterruptedException {
+		hub.getServer().shutdown(1, TimeUnit.SECONDS);
+		for (Client client : clients) {
+			client.scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void joinsPlaysAndJudgesARound() throws InterruptedException {
+		Client ann = connect("ann");
+		assertEquals(OK, ann.join("Ann"));
+		ann.expect(ProtocolSchema.EVENT_PLAYER_JOINED);
+		assertTrue(ann.getPlayerID() >= 0);
+		assertNotNull(ann.getResumeToken());
+
+		// two short of a round
+		assertEquals(ProtocolClient.ERROR_TRIED_TO_START_ROUND_INSUFFICIENT_PLAYERS, ann.startRound());
+		ann.expectError(ProtocolClient.ERROR_TRIED_TO_START_ROUND_INSUFFICIENT_PLAYERS);
+
+		Client nobody = connect("nobody");
+		assertEquals(ProtocolClient.ERROR_TRIED_TO_JOIN_WITH_BLANK_NAME, nobody.join(" "));
+		nobody.expectError(ProtocolClient.ERROR_TRIED_TO_JOIN_WITH_BLANK_NAME);
+
+		Client bob = connect("bob");
+		Client cy = connect("cy");
+		assertEquals(OK, bob.join("Bob"));
+		assertEquals(OK, cy.join("Cy"));
+		bob.expect(ProtocolSchema.EVENT_PLAYER_JOINED);
+		cy.expect(ProtocolSchema.EVENT_PLAYER_JOINED);
+		assertTrue(bob.getPlayerID() != cy.getPlayerID());
+
+		assertEquals(OK, ann.startRound());
+		Client judge = null;
+		List<Client> players = new ArrayList<Client>();
+		for (Client client : new Client[]{ann, bob, cy}) {
+			client.expect(ProtocolSchema.EVENT_GAMESYNC);
+			client.expect(ProtocolSchema.EVENT_ROUND_STARTED);
+			assertEquals(Room.HAND_SIZE, client.hand().length);
+			if (client.getPlayerID() == client.judge) {
+				judge = client;
+			}
+			else {
+				players.add(client);
+			}
+		}
+		assertNotNull(judge);
+		assertEquals(2, players.size());
+		assertEquals(ProtocolClient.ERROR_TRIED_TO_START_ROUND_WHILE_ROUND_EXISTS, bob.startRound());
+		bob.expectError(ProtocolClient.ERROR_TRIED_TO_START_ROUND_WHILE_ROUND_EXISTS);
+
+		Client first = players.get(0);
+		int blanks = first.numOfBlanks;
+		assertEquals(ProtocolClient.ERROR_WRONG_NUMBER_OF_CARDS,
+				first.submit(Arrays.copyOf(first.hand(), blanks + 1)));
+		first.expectError(ProtocolClient.ERROR_WRONG_NUMBER_OF_CARDS);
+		for (Client player : players) {
+			assertEquals(OK, player.submit(Arrays.copyOf(player.hand(), blanks)));
+		}
+
+		judge.expect(ProtocolSchema.EVENT_JUDGE_SUBMISSIONS);
+		Response[] responses = judge.responses;
+		assertEquals(2, responses.length);
+		int[][] read = new int[responses.length][];
+		for (int i = 0; i < responses.length; ++i) {
+			assertEquals(blanks, responses[i].contents.length);
+			read[i] = new int[blanks];
+			for (int j = 0; j < blanks; ++j) {
+				read[i][j] = responses[i].contents[j].id;
+			}
+		}
+		int winner = responses[1].owner;
+		assertEquals(ProtocolClient.ERROR_JUDGED_BEFORE_CARDS_WERE_READ, judge.pick(winner));
+		judge.expectError(ProtocolClient.ERROR_JUDGED_BEFORE_CARDS_WERE_READ);
+		assertEquals(OK, judge.read(read));
+		assertEquals(ProtocolClient.ERROR_INVALID_WINNER_SUBMITTED, judge.pick(judge.getPlayerID()));
+		judge.expectError(ProtocolClient.ERROR_INVALID_WINNER_SUBMITTED);
+		assertEquals(OK, judge.pick(winner));
+
+		for (Client client : new Client[]{ann, bob, cy}) {
+			client.expect(ProtocolSchema.EVENT_ROUND_ENDED);
+		}
+		// the players were dealt back up to a full hand
+		for (Client player : players) {
+			player.awaitHandSize(Room.HAND_SIZE);
+		}
+
+		for (Client client : clients) {
+			client.expectNoErrors();
+		}
+	}
+
+	@Test
+	public void messageTheReceiverCantMakeSenseOfIsAnsweredWithAnError() throws InterruptedException {
+		Client ann = connect("ann");
+		assertEquals(OK, ann.join("Ann"));
+		ann.expect(ProtocolSchema.EVENT_PLAYER_JOINED);
+
+		// not a command, so the answer can't say which one it's for and no command completes
+		ann.transport.send("{\"type\":\"dance\"}", new Transport.SendCallback() {
+			@Override
+			public void onSent(boolean success) {
+			}
+		});
+		ann.expectError(ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE);
+
+		// and the client carries on
+		assertEquals(ProtocolClient.ERROR_TRIED_TO_START_ROUND_INSUFFICIENT_PLAYERS, ann.startRound());
+		ann.expectError(ProtocolClient.ERROR_TRIED_TO_START_ROUND_INSUFFICIENT_PLAYERS);
+		assertEquals(OK, ann.leave());
+		ann.expectNoErrors();
+	}
+
+	private Client connect(String senderID) {
+		Client client = new Client(hub.connect(ROOM, senderID), senderID);
+		clients.add(client);
+		return client;
+	}
+
+	// A command, sent from the client's scheduler thread.
+	private interface Send {
+		PendingCommand send();
+	}
+
+	/**
+	 * Records every event it decodes, by type, and every error it's told about as "error <code>",
+	 * in the order they come. Events are decoded on the room's shard thread and errors reported on
+	 * the client's own, so what they carry is kept under the client's lock.
+	 */
+	private static final class Client extends ProtocolClient {
+		final LoopbackTransport transport;
+		final ExecutorScheduler scheduler;
+		final BlockingQueue<String> events = new LinkedBlockingQueue<String>();
+
+		// guarded by this
+		private final List<Card> hand = new ArrayList<Card>();
+		volatile int judge = -1;
+		volatile int numOfBlanks;
+		volatile Response[] responses;
+
+		Client(LoopbackTransport transport, String name) {
+			this(transport, new ExecutorScheduler(name));
+		}
+
+		private Client(LoopbackTransport transport, ExecutorScheduler scheduler) {
+			super(transport, scheduler);
+			this.transport = transport;
+			this.scheduler = scheduler;
+		}
+
+		int join(final String name) throws InterruptedException {
+			return answer(new Send() {
+				@Override
+				public PendingCommand send() {
+					return joinGame(name);
+				}
+			});
+		}
+
+		int leave() throws InterruptedException {
+			return answer(new Send() {
+				@Override
+				public PendingCommand send() {
+					return leaveGame();
+				}
+			});
+		}
+
+		int startRound() throws InterruptedException {
+			return answer(new Send() {
+				@Override
+				public PendingCommand send() {
+					return startNextRound();
+				}
+			});
+		}
+
+		int submit(final int[] cardIDs) throws InterruptedException {
+			return answer(new Send() {
+				@Override
+				public PendingCommand send() {
+					return submitResponse(cardIDs);
+				}
+			});
+		}
+
+		int read(final int[][] submissions) throws InterruptedException {
+			return answer(new Send() {
+				@Override
+				public PendingCommand send() {
+					return readSubmissions(submissions);
+				}
+			});
+		}
+
+		int pick(final int winnerID) throws InterruptedException {
+			return answer(new Send() {
+				@Override
+				public PendingCommand send() {
+					return declareWinner(winnerID);
+				}
+			});
+		}
+
+		// Sends the command and waits for the code it's answered with, or FAILED.
+		private int answer(final Send send) throws InterruptedException {
+			final BlockingQueue<Integer> code = new ArrayBlockingQueue<Integer>(1);
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					send.send().setCallback(new PendingCommand.Callback() {
+						@Override
+						public void onCompleted(PendingCommand command, int responseCode) {
+							code.add(responseCode);
+						}
+
+						@Override
+						public void onFailed(PendingCommand command) {
+							code.add(FAILED);
+						}
+					});
+				}
+			}, 0);
+			Integer answered = code.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			assertNotNull("no answer", answered);
+			return answered;
+		}
+
+		// Waits for the next event of this type, passing over any others.
+		void expect(String type) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+			List<String> passed = new ArrayList<String>();
+			while (true) {
+				String event = events.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+				assertNotNull("no " + type + " after " + passed, event);
+				if (event.equals(type)) {
+					return;
+				}
+				assertTrue("unexpected " + event, !event.startsWith("error"));
+				passed.add(event);
+			}
+		}
+
+		// Errors are reported just after the command they answer completes.
+		void expectError(int code) throws InterruptedException {
+			expect("error " + code);
+		}
+
+		void expectNoErrors() {
+			for (Iterator<String> it = events.iterator(); it.hasNext(); ) {
+				String event = it.next();
+				assertTrue("unexpected " + event, !event.startsWith("error"));
+			}
+		}
+
+		synchronized int[] hand() {
+			int[] ids = new int[hand.size()];
+			for (int i = 0; i < ids.length; ++i) {
+				ids[i] = hand.get(i).id;
+			}
+			return ids;
+		}
+
+		// The delta dealing the next cards comes after the round has ended.
+		synchronized void awaitHandSize(int size) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+			while (hand.size() != size) {
+				long left = deadline - System.currentTimeMillis();
+				assertTrue("holding " + hand.size() + " cards", left > 0);
+				wait(left);
+			}
+		}
+
+		@Override
+		protected void onPlayerQueued() {
+			events.add(ProtocolSchema.EVENT_PLAYER_QUEUED);
+		}
+
+		@Override
+		protected void onPlayerJoined(int newID) {
+			events.add(ProtocolSchema.EVENT_PLAYER_JOINED);
+		}
+
+		@Override
+		protected void onJudgeModeStarted() {
+			events.add(ProtocolSchema.EVENT_JUDGING_STARTED);
+		}
+
+		@Override
+		protected void onGameSync(int playerID, int handVersion, Card[] newHand, int newJudge) {
+			synchronized (this) {
+				hand.clear();
+				hand.addAll(Arrays.asList(newHand));
+				notifyAll();
+			}
+			judge = newJudge;
+			events.add(ProtocolSchema.EVENT_GAMESYNC);
+		}
+
+		@Override
+		protected void onHandDelta(int playerID, int baseVersion, int handVersion, Card[] added, int[] removedIDs,
+				int newJudge) {
+			synchronized (this) {
+				for (int removed : removedIDs) {
+					for (Iterator<Card> it = hand.iterator(); it.hasNext(); ) {
+						if (it.next().id == removed) {
+							it.remove();
+						}
+					}
+				}
+				hand.addAll(Arrays.asList(added));
+				notifyAll();
+			}
+			judge = newJudge;
+			events.add(ProtocolSchema.EVENT_GAMESYNC);
+		}
+
+		@Override
+		protected void onJudgeResponses(Response[] responses) {
+			this.responses = responses;
+			events.add(ProtocolSchema.EVENT_JUDGE_SUBMISSIONS);
+		}
+
+		@Override
+		protected void onRoundStarted(String newPrompt, int numOfBlanks, boolean submitted) {
+			this.numOfBlanks = numOfBlanks;
+			events.add(ProtocolSchema.EVENT_ROUND_STARTED);
+		}
+
+		@Override
+		protected void onRoundEnded() {
+			events.add(ProtocolSchema.EVENT_ROUND_ENDED);
+		}
+
+		@Override
+		protected void onServerError(int errorCode) {
+			events.add("error " + errorCode);
+		}
+	}
+}
@@ -0,0 +1,530 @@
+package com.jelleslaats.freakyfriday.engine;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.jelleslaats.freakyfriday.protocol.EventSequence;
+import com.jelleslaats.freakyfriday.protocol.ProtocolClient;
+import com.jelleslaats.freakyfriday.protocol.ProtocolSchema;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plays rooms by sending them commands as JSON and checking the codes they answer with and the
+ * events each sender gets.
+ */
+public class RoomTest {
+	private static final CardPack PACK = CardPack.generated(8, 120);
+	private static final Gson GSON = new Gson();
+	private static final int OK = 0;
+	private static final long GRACE_NANOS = TimeUnit.MILLISECONDS.toNanos(GameServer.RECONNECT_GRACE_MS);
+
+	private final Map<String, List<JsonObject>> inbox = new HashMap<String, List<JsonObject>>();
+	// the number of the latest event each sender got, for those who offered sequencing
+	private final Map<String, Integer> lastSeq = new HashMap<String, Integer>();
+	private final Room room = new Room("room", PACK, new GameServer.Outbox() {
+		@Override
+		public void send(String roomID, String senderID, String message) {
+			int seq = EventSequence.seqOf(message);
+			if (seq != EventSequence.NONE) {
+				lastSeq.put(senderID, seq);
+			}
+			inbox(senderID).add(GSON.fromJson(EventSequence.payloadOf(message), JsonObject.class));
+		}
+	}, 7);
+	private int nextRequestID = 0;
+
+	@Test
+	public void playerWhoSubmittedIsToldSoWhenReattaching() {
+		startRoundWith("ann", "bob", "cy");
+		String player = notJudging("ann", "bob", "cy")[0];
+		String other = notJudging("ann", "bob", "cy")[1];
+		int[] played = play(player);
+
+		assertEquals(OK, join("player-2", "Player", resumeToken(player)));
+		JsonObject roundStarted = last("player-2", ProtocolSchema.EVENT_ROUND_STARTED);
+		assertTrue(roundStarted.get(ProtocolSchema.KEY_SUBMITTED).getAsBoolean());
+		List<Integer> hand = hand("player-2");
+		assertEquals(Room.HAND_SIZE - played.length, hand.size());
+		for (int card : played) {
+			assertFalse(hand.contains(card));
+		}
+		// so the app waits instead of offering to play again, which would be refused
+		assertEquals(ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE,
+				command("player-2", ProtocolSchema.COMMAND_SUBMIT_CARD, cardIDs(firstCards(hand, played.length))));
+
+		// whoever hasn't played yet still gets to
+		assertEquals(OK, join("other-2", "Other", resumeToken(other)));
+		assertFalse(last("other-2", ProtocolSchema.EVENT_ROUND_STARTED).has(ProtocolSchema.KEY_SUBMITTED));
+		play("other-2");
+		assertNotNull(last(judge("ann", "bob", "cy"), ProtocolSchema.EVENT_JUDGE_SUBMISSIONS));
+	}
+
+	@Test
+	public void judgeReattachingGetsTheSubmissions() {
+		startRoundWith("ann", "bob", "cy");
+		String judge = judge("ann", "bob", "cy");
+		String[] players = notJudging("ann", "bob", "cy");
+
+		// mid-round: still the judge, with nothing to play
+		assertEquals(OK, join("judge-2", "Judge", resumeToken(judge)));
+		JsonObject sync = last("judge-2", ProtocolSchema.EVENT_GAMESYNC);
+		assertEquals(playerID("judge-2"), sync.get(ProtocolSchema.KEY_JUDGE_ID).getAsInt());
+		assertFalse(last("judge-2", ProtocolSchema.EVENT_ROUND_STARTED).has(ProtocolSchema.KEY_SUBMITTED));
+
+		int before = inbox(judge).size();
+		play(players[0]);
+		play(players[1]);
+		assertEquals(2, responses(last("judge-2", ProtocolSchema.EVENT_JUDGE_SUBMISSIONS)).size());
+		assertEquals(before, inbox(judge).size());
+
+		// while judging: the submissions again, and picking a winner still works
+		assertEquals(OK, join("judge-3", "Judge", resumeToken(judge)));
+		JsonArray responses = responses(last("judge-3", ProtocolSchema.EVENT_JUDGE_SUBMISSIONS));
+		assertEquals(2, responses.size());
+		assertEquals(OK, readAll("judge-3", responses));
+		assertEquals(OK, pick("judge-3", responses.get(0)));
+		assertNotNull(last(players[0], ProtocolSchema.EVENT_ROUND_ENDED));
+	}
+
+	@Test
+	public void dealsFullHandsAndPassesTheJudgeAlong() {
+		String[] senders = {"ann", "bob", "cy"};
+		startRoundWith(senders);
+		for (int round = 0; round < 4; ++round) {
+			if (round > 0) {
+				assertEquals(OK, command("bob", ProtocolSchema.COMMAND_START_NEXT_ROUND, null));
+			}
+			// in the order they sat down, starting over after the last
+			assertEquals(senders[round % senders.length], judge(senders));
+			Set<Integer> dealt = new HashSet<Integer>();
+			for (String sender : senders) {
+				List<Integer> hand = hand(sender);
+				assertEquals(Room.HAND_SIZE, hand.size());
+				dealt.addAll(hand);
+			}
+			assertEquals(senders.length * Room.HAND_SIZE, dealt.size());
+
+			finishRound(senders);
+			for (String sender : senders) {
+				assertEquals(round + 1, count(sender, ProtocolSchema.EVENT_ROUND_ENDED));
+			}
+		}
+	}
+
+	@Test
+	public void playerJoiningMidRoundSitsDownAtTheNextOne() {
+		startRoundWith("ann", "bob", "cy");
+		assertEquals(OK, join("dee", "Dee", null));
+		assertNotNull(last("dee", ProtocolSchema.EVENT_PLAYER_QUEUED));
+		assertNull(last("dee", ProtocolSchema.EVENT_PLAYER_JOINED));
+		assertNull(last("dee", ProtocolSchema.EVENT_ROUND_STARTED));
+
+		// the round doesn't wait for them
+		finishRound("ann", "bob", "cy");
+		assertEquals(OK, command("ann", ProtocolSchema.COMMAND_START_NEXT_ROUND, null));
+		assertNotNull(last("dee", ProtocolSchema.EVENT_PLAYER_JOINED));
+		assertEquals(Room.HAND_SIZE, hand("dee").size());
+		assertEquals("bob", judge("ann", "bob", "cy", "dee"));
+	}
+
+	@Test
+	public void judgeHasToReadEverySubmissionBeforePicking() {
+		startRoundWith("ann", "bob", "cy");
+		play("bob");
+		play("cy");
+		JsonArray responses = responses(last("ann", ProtocolSchema.EVENT_JUDGE_SUBMISSIONS));
+
+		assertEquals(ProtocolClient.ERROR_JUDGED_BEFORE_CARDS_WERE_READ, pick("ann", responses.get(0)));
+		assertEquals(OK, readOne("ann", responses.get(0)));
+		assertEquals(ProtocolClient.ERROR_JUDGED_BEFORE_CARDS_WERE_READ, pick("ann", responses.get(0)));
+		assertEquals(OK, readOne("ann", responses.get(1)));
+		assertEquals(OK, pick("ann", responses.get(1)));
+		assertNotNull(last("bob", ProtocolSchema.EVENT_ROUND_ENDED));
+	}
+
+	@Test
+	public void submissionWithTheWrongCardsIsRefused() {
+		startRoundWith("ann", "bob", "cy");
+		// a prompt with more than one blank, to try one card twice
+		while (blanks("bob") < 2) {
+			finishRound("ann", "bob", "cy");
+			assertEquals(OK, command("ann", ProtocolSchema.COMMAND_START_NEXT_ROUND, null));
+		}
+		String player = notJudging("ann", "bob", "cy")[0];
+		List<Integer> hand = hand(player);
+		int blanks = blanks(player);
+
+		assertEquals(ProtocolClient.ERROR_WRONG_NUMBER_OF_CARDS,
+				command(player, ProtocolSchema.COMMAND_SUBMIT_CARD, cardIDs(firstCards(hand, blanks + 1))));
+		assertEquals(ProtocolClient.ERROR_WRONG_NUMBER_OF_CARDS,
+				command(player, ProtocolSchema.COMMAND_SUBMIT_CARD, cardIDs(firstCards(hand, blanks - 1))));
+		int[] twice = firstCards(hand, blanks);
+		twice[1] = twice[0];
+		assertEquals(ProtocolClient.ERROR_WRONG_NUMBER_OF_CARDS,
+				command(player, ProtocolSchema.COMMAND_SUBMIT_CARD, cardIDs(twice)));
+		// someone else's card
+		int[] notHeld = firstCards(hand, blanks);
+		notHeld[0] = hand(judge("ann", "bob", "cy")).get(0);
+		assertEquals(ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE,
+				command(player, ProtocolSchema.COMMAND_SUBMIT_CARD, cardIDs(notHeld)));
+		assertEquals(hand, hand(player));
+
+		play(player);
+		assertEquals(ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE,
+				command(player, ProtocolSchema.COMMAND_SUBMIT_CARD, cardIDs(firstCards(hand(player), blanks))));
+	}
+
+	@Test
+	public void winnerHasToBeSomeoneWhoSubmitted() {
+		startRoundWith("ann", "bob", "cy");
+		play("bob");
+		play("cy");
+		JsonArray responses = responses(last("ann", ProtocolSchema.EVENT_JUDGE_SUBMISSIONS));
+		assertEquals(OK, readAll("ann", responses));
+
+		JsonObject fields = new JsonObject();
+		fields.addProperty(ProtocolSchema.KEY_CHOSEN_WINNER, playerID("ann"));
+		assertEquals(ProtocolClient.ERROR_INVALID_WINNER_SUBMITTED,
+				command("ann", ProtocolSchema.COMMAND_SUBMIT_WINNER, fields));
+		fields.addProperty(ProtocolSchema.KEY_CHOSEN_WINNER, 999);
+		assertEquals(ProtocolClient.ERROR_INVALID_WINNER_SUBMITTED,
+				command("ann", ProtocolSchema.COMMAND_SUBMIT_WINNER, fields));
+		// only the judge picks
+		assertEquals(ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE, pick("bob", responses.get(0)));
+		assertEquals(OK, pick("ann", responses.get(0)));
+	}
+
+	@Test
+	public void blankNamesAreRefused() {
+		assertEquals(ProtocolClient.ERROR_TRIED_TO_JOIN_WITH_BLANK_NAME, join("ann", " ", null));
+		assertEquals(ProtocolClient.ERROR_TRIED_TO_JOIN_WITH_BLANK_NAME, command("ann", ProtocolSchema.COMMAND_JOIN, null));
+		assertEquals(0, room.getPlayerCount());
+
+		assertEquals(OK, join("ann", "Ann", null));
+		JsonObject fields = new JsonObject();
+		fields.addProperty(ProtocolSchema.KEY_NAME, "");
+		assertEquals(ProtocolClient.ERROR_TRIED_TO_JOIN_WITH_BLANK_NAME,
+				command("ann", ProtocolSchema.COMMAND_UPDATE_SETTINGS, fields));
+	}
+
+	@Test
+	public void roundStartsOnlyWithEnoughPlayersAndNoRoundGoing() {
+		assertEquals(OK, join("ann", "Ann", null));
+		assertEquals(OK, join("bob", "Bob", null));
+		assertEquals(ProtocolClient.ERROR_TRIED_TO_START_ROUND_INSUFFICIENT_PLAYERS,
+				command("ann", ProtocolSchema.COMMAND_START_NEXT_ROUND, null));
+		assertNull(last("ann", ProtocolSchema.EVENT_ROUND_STARTED));
+
+		assertEquals(OK, join("cy", "Cy", null));
+		assertEquals(OK, command("ann", ProtocolSchema.COMMAND_START_NEXT_ROUND, null));
+		assertEquals(ProtocolClient.ERROR_TRIED_TO_START_ROUND_WHILE_ROUND_EXISTS,
+				command("bob", ProtocolSchema.COMMAND_START_NEXT_ROUND, null));
+		play(notJudging("ann", "bob", "cy")[0]);
+		assertEquals(ProtocolClient.ERROR_TRIED_TO_START_ROUND_WHILE_ROUND_EXISTS,
+				command("bob", ProtocolSchema.COMMAND_START_NEXT_ROUND, null));
+	}
+
+	@Test
+	public void commandsThatDontFitAreRefused() {
+		startRoundWith("ann", "bob", "cy");
+		assertEquals(ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE, command("bob", "dance", null));
+		// the judge has nothing to play, and there's nothing to read yet
+		assertEquals(ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE,
+				command("ann", ProtocolSchema.COMMAND_SUBMIT_CARD, cardIDs(firstCards(hand("ann"), blanks("ann")))));
+		assertEquals(ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE, readAll("ann", new JsonArray()));
+		// nor anything to do for someone who never joined
+		assertEquals(ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE,
+				command("eve", ProtocolSchema.COMMAND_REQUEST_GAMESYNC, null));
+
+		// what can't be read at all is answered without a request ID
+		room.onMessage("bob", "{\"type\":\"playSubmission\",\"cardIDs\":[");
+		JsonObject response = last("bob", ProtocolSchema.EVENT_SERVER_RESPONSE);
+		assertEquals(ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE, response.get(ProtocolSchema.KEY_RESPONSE_CODE).getAsInt());
+		assertFalse(response.has(ProtocolSchema.KEY_REQUEST_ID));
+	}
+
+	@Test
+	public void retriedCommandIsAnsweredAgainWithoutBeingApplied() {
+		startRoundWith("ann", "bob", "cy");
+		int[] cards = firstCards(hand("bob"), blanks("bob"));
+		assertEquals(OK, command("bob", ProtocolSchema.COMMAND_SUBMIT_CARD, cardIDs(cards)));
+		--nextRequestID;
+		assertEquals(OK, command("bob", ProtocolSchema.COMMAND_SUBMIT_CARD, cardIDs(cards)));
+		// it would have been refused as a second submission
+		assertEquals(ProtocolClient.ERROR_SENT_INVALID_MESSAGE_TYPE,
+				command("bob", ProtocolSchema.COMMAND_SUBMIT_CARD, cardIDs(cards)));
+	}
+
+	@Test
+	public void droppedPlayerLosesTheirSeatOnceTheGracePeriodIsOver() {
+		startRoundWith("ann", "bob", "cy");
+		String token = resumeToken("cy");
+		room.onDisconnected("cy");
+		int got = inbox("cy").size();
+
+		room.expire("cy", System.nanoTime() + GRACE_NANOS / 2);
+		assertEquals(3, room.getPlayerCount());
+		play("bob");
+		room.expire("cy", System.nanoTime() + GRACE_NANOS);
+		assertEquals(2, room.getPlayerCount());
+		// two can't play on, so the round is over
+		assertNotNull(last("bob", ProtocolSchema.EVENT_ROUND_ENDED));
+		assertEquals(got, inbox("cy").size());
+
+		// and the seat is gone
+		assertEquals(OK, join("cy-2", "Cy", token));
+		assertFalse(playerID("cy-2") == playerID("cy"));
+	}
+
+	@Test
+	public void playerBackWithinTheGracePeriodStays() {
+		startRoundWith("ann", "bob", "cy");
+		room.onDisconnected("cy");
+		play("bob");
+		assertEquals(OK, command("cy", ProtocolSchema.COMMAND_REQUEST_GAMESYNC, null));
+		// the timer from when they dropped still goes off
+		room.expire("cy", System.nanoTime() + GRACE_NANOS);
+		assertEquals(3, room.getPlayerCount());
+		play("cy");
+		assertNotNull(last("ann", ProtocolSchema.EVENT_JUDGE_SUBMISSIONS));
+	}
+
+	@Test
+	public void playerBackWithinTheGracePeriodGetsWhatTheyMissed() {
+		JsonObject fields = new JsonObject();
+		fields.addProperty(ProtocolSchema.KEY_NAME, "Cy");
+		JsonArray sequencing = new JsonArray();
+		sequencing.add(EventSequence.NAME);
+		fields.add(ProtocolSchema.KEY_SEQUENCING, sequencing);
+		assertEquals(OK, join("ann", "Ann", null));
+		assertEquals(OK, join("bob", "Bob", null));
+		assertEquals(OK, command("cy", ProtocolSchema.COMMAND_JOIN, fields));
+		assertEquals(OK, command("ann", ProtocolSchema.COMMAND_START_NEXT_ROUND, null));
+		play("cy");
+
+		room.onDisconnected("cy");
+		int seen = lastSeq.get("cy");
+		play("bob");
+		assertNull(last("cy", ProtocolSchema.EVENT_JUDGING_STARTED));
+
+		JsonObject after = new JsonObject();
+		after.addProperty(ProtocolSchema.KEY_RESYNC_AFTER, seen);
+		assertEquals(OK, command("cy", ProtocolSchema.COMMAND_RESYNC, after));
+		assertNotNull(last("cy", ProtocolSchema.EVENT_JUDGING_STARTED));
+	}
+
+	private void startRoundWith(String... senders) {
+		for (String sender : senders) {
+			assertEquals(OK, join(sender, "Player " + sender, null));
+		}
+		assertEquals(OK, command(senders[0], ProtocolSchema.COMMAND_START_NEXT_ROUND, null));
+	}
+
+	private int join(String senderID, String name, String resumeToken) {
+		JsonObject fields = new JsonObject();
+		fields.addProperty(ProtocolSchema.KEY_NAME, name);
+		if (resumeToken != null) {
+			fields.addProperty(ProtocolSchema.KEY_RESUME_TOKEN, resumeToken);
+		}
+		return command(senderID, ProtocolSchema.COMMAND_JOIN, fields);
+	}
+
+	// Plays the first cards in the sender's hand that fill the prompt, and returns them.
+	private int[] play(String senderID) {
+		int[] cards = firstCards(hand(senderID), blanks(senderID));
+		assertEquals(OK, command(senderID, ProtocolSchema.COMMAND_SUBMIT_CARD, cardIDs(cards)));
+		return cards;
+	}
+
+	// Everyone but the judge plays, and the judge reads everything and picks the first.
+	private void finishRound(String... senders) {
+		for (String player : notJudging(senders)) {
+			play(player);
+		}
+		String judge = judge(senders);
+		JsonArray responses = responses(last(judge, ProtocolSchema.EVENT_JUDGE_SUBMISSIONS));
+		assertEquals(OK, readAll(judge, responses));
+		assertEquals(OK, pick(judge, responses.get(0)));
+	}
+
+	private int blanks(String senderID) {
+		return last(senderID, ProtocolSchema.EVENT_ROUND_STARTED).get(ProtocolSchema.KEY_NUM_OF_BLANKS).getAsInt();
+	}
+
+	private int readAll(String senderID, JsonArray responses) {
+		JsonArray read = new JsonArray();
+		for (JsonElement response : responses) {
+			read.add(cardsOf(response));
+		}
+		JsonObject fields = new JsonObject();
+		fields.add(ProtocolSchema.KEY_SUBMISSIONS_THAT_WERE_READ, read);
+		return command(senderID, ProtocolSchema.COMMAND_HAVE_READ_SUBMISSIONS, fields);
+	}
+
+	// One submission at a time, as receivers without batched reads take them.
+	private int readOne(String senderID, JsonElement response) {
+		JsonObject fields = new JsonObject();
+		fields.add(ProtocolSchema.KEY_CARD_ID_ARRAY, cardsOf(response));
+		return command(senderID, ProtocolSchema.COMMAND_HAVE_READ_SUBMISSION, fields);
+	}
+
+	private int pick(String senderID, JsonElement response) {
+		JsonObject fields = new JsonObject();
+		fields.addProperty(ProtocolSchema.KEY_CHOSEN_WINNER,
+				response.getAsJsonObject().get(ProtocolSchema.KEY_SUBMITTER).getAsInt());
+		return command(senderID, ProtocolSchema.COMMAND_SUBMIT_WINNER, fields);
+	}
+
+	// Sends a command with the next request ID and returns the code it's answered with.
+	private int command(String senderID, String type, JsonObject fields) {
+		JsonObject command = new JsonObject();
+		command.addProperty(ProtocolSchema.KEY_TYPE, type);
+		int requestID = nextRequestID++;
+		command.addProperty(ProtocolSchema.KEY_REQUEST_ID, requestID);
+		if (fields != null) {
+			for (Map.Entry<String, JsonElement> field : fields.entrySet()) {
+				command.add(field.getKey(), field.getValue());
+			}
+		}
+		room.onMessage(senderID, command.toString());
+		JsonObject response = last(senderID, ProtocolSchema.EVENT_SERVER_RESPONSE);
+		assertEquals(requestID, response.get(ProtocolSchema.KEY_REQUEST_ID).getAsInt());
+		return response.get(ProtocolSchema.KEY_RESPONSE_CODE).getAsInt();
+	}
+
+	private static JsonObject cardIDs(int[] cards) {
+		JsonArray ids = new JsonArray();
+		for (int card : cards) {
+			ids.add(card);
+		}
+		JsonObject fields = new JsonObject();
+		fields.add(ProtocolSchema.KEY_CARD_ID_ARRAY, ids);
+		return fields;
+	}
+
+	private static JsonArray cardsOf(JsonElement response) {
+		JsonArray ids = new JsonArray();
+		for (JsonElement card : response.getAsJsonObject().getAsJsonArray(ProtocolSchema.KEY_CARDS)) {
+			ids.add(card.getAsJsonObject().get(ProtocolSchema.KEY_ID).getAsInt());
+		}
+		return ids;
+	}
+
+	private static JsonArray responses(JsonObject judgeSubmissions) {
+		return judgeSubmissions.getAsJsonArray(ProtocolSchema.KEY_RESPONSES_ARRAY);
+	}
+
+	private static int[] firstCards(List<Integer> hand, int count) {
+		int[] cards = new int[count];
+		for (int i = 0; i < count; ++i) {
+			cards[i] = hand.get(i);
+		}
+		return cards;
+	}
+
+	// The sender's hand as their gameSyncs, full and delta, leave it.
+	private List<Integer> hand(String senderID) {
+		List<Integer> hand = new ArrayList<Integer>();
+		for (JsonObject event : inbox(senderID)) {
+			if (!ProtocolSchema.EVENT_GAMESYNC.equals(event.get(ProtocolSchema.KEY_TYPE).getAsString())) {
+				continue;
+			}
+			JsonObject player = event.getAsJsonObject(ProtocolSchema.KEY_PLAYER_OBJECT);
+			if (player.has(ProtocolSchema.KEY_HAND)) {
+				hand.clear();
+				addCards(player.getAsJsonArray(ProtocolSchema.KEY_HAND), hand);
+			}
+			else {
+				for (JsonElement removed : player.getAsJsonArray(ProtocolSchema.KEY_REMOVED_CARD_IDS)) {
+					hand.remove(Integer.valueOf(removed.getAsInt()));
+				}
+				addCards(player.getAsJsonArray(ProtocolSchema.KEY_ADDED_CARDS), hand);
+			}
+		}
+		return hand;
+	}
+
+	private static void addCards(JsonArray cards, List<Integer> into) {
+		for (JsonElement card : cards) {
+			into.add(card.getAsJsonObject().get(ProtocolSchema.KEY_ID).getAsInt());
+		}
+	}
+
+	private String resumeToken(String senderID) {
+		return last(senderID, ProtocolSchema.EVENT_PLAYER_JOINED).get(ProtocolSchema.KEY_RESUME_TOKEN).getAsString();
+	}
+
+	private int playerID(String senderID) {
+		return last(senderID, ProtocolSchema.EVENT_PLAYER_JOINED).get(ProtocolSchema.KEY_PLAYER_ID).getAsInt();
+	}
+
+	private String judge(String... senders) {
+		for (String sender : senders) {
+			if (isJudge(sender)) {
+				return sender;
+			}
+		}
+		throw new AssertionError("nobody judges");
+	}
+
+	private String[] notJudging(String... senders) {
+		List<String> players = new ArrayList<String>();
+		for (String sender : senders) {
+			if (!isJudge(sender)) {
+				players.add(sender);
+			}
+		}
+		return players.toArray(new String[players.size()]);
+	}
+
+	private boolean isJudge(String senderID) {
+		JsonObject sync = last(senderID, ProtocolSchema.EVENT_GAMESYNC);
+		return sync.get(ProtocolSchema.KEY_JUDGE_ID).getAsInt() == playerID(senderID);
+	}
+
+	// The latest event of the type the sender got, or null if none.
+	private JsonObject last(String senderID, String type) {
+		List<JsonObject> events = inbox(senderID);
+		for (int i = events.size() - 1; i >= 0; --i) {
+			if (type.equals(events.get(i).get(ProtocolSchema.KEY_TYPE).getAsString())) {
+				return events.get(i);
+			}
+		}
+		return null;
+	}
+
+	private int count(String senderID, String type) {
+		int count = 0;
+		for (JsonObject event : inbox(senderID)) {
+			if (type.equals(event.get(ProtocolSchema.KEY_TYPE).getAsString())) {
+				++count;
+			}
+		}
+		return count;
+	}
+
+	private List<JsonObject> inbox(String senderID) {
+		List<JsonObject> events = inbox.get(senderID);
+		if (events == null) {
+			events = new ArrayList<JsonObject>();
+			inbox.put(senderID, events);
+		}
+		return events;
+	}
+}
@@ -0,0 +1,280 @@
+package com.jelleslaats.freakyfriday.engine;
+
+import com.jelleslaats.freakyfriday.protocol.Card;
+import com.jelleslaats.freakyfriday.protocol.ExecutorScheduler;
+import com.jelleslaats.freakyfriday.protocol.PendingCommand;
+import com.jelleslaats.freakyfriday.protocol.ProtocolClient;
+import com.jelleslaats.freakyfriday.protocol.Response;
+import com.jelleslaats.freakyfriday.protocol.Transport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Bots play full rounds against a {@link LoopbackHub} while one in ten events reaches them twice,
+ * and one of them keeps losing its connection for a moment, missing whatever was sent meanwhile
+ * and resyncing when it's back. Every bot's hand has to stay exactly what the receiver dealt.
+ */
+public class SequencingLoopbackTest {
+	private static final int BOTS = 5;
+	private static final int ROUNDS = 30;
+	private static final String ROOM = "room";
+
+	private final List<String> problems = Collections.synchronizedList(new ArrayList<String>());
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final AtomicInteger rounds = new AtomicInteger();
+	private final AtomicInteger duplicates = new AtomicInteger();
+	private final AtomicInteger dropped = new AtomicInteger();
+	private final AtomicInteger resyncs = new AtomicInteger();
+
+	@Test
+	public void playsThroughDuplicatesAndDrops() throws InterruptedException {
+		final LoopbackHub hub = new LoopbackHub(CardPack.generated(90, 500), 2, 7);
+		final Bot[] bots = new Bot[BOTS];
+		for (int i = 0; i < BOTS; ++i) {
+			final Bot bot = bots[i] = new Bot(hub.connect(ROOM, "sender" + i), "Bot " + i, i == 0, new Random(i));
+			bot.run(new Runnable() {
+				@Override
+				public void run() {
+					bot.joinGame(bot.name);
+				}
+			});
+		}
+		Thread.sleep(200);
+		bots[0].run(new Runnable() {
+			@Override
+			public void run() {
+				bots[0].startNextRound();
+			}
+		});
+
+		Random random = new Random(3);
+		final Bot flaky = bots[2];
+		while (done.getCount() > 0) {
+			if (done.await(20 + random.nextInt(60), TimeUnit.MILLISECONDS)) {
+				break;
+			}
+			flaky.offline = true;
+			if (random.nextBoolean()) {
+				hub.getServer().onSenderDisconnected(ROOM, "sender2");
+			}
+			Thread.sleep(5 + random.nextInt(40));
+			flaky.offline = false;
+			flaky.run(new Runnable() {
+				@Override
+				public void run() {
+					resync(flaky);
+				}
+			});
+			assertTrue("stalled after " + rounds.get() + " rounds: " + problems,
+					System.nanoTime() - flaky.lastEventAt < TimeUnit.SECONDS.toNanos(10));
+		}
+
+		hub.getServer().shutdown(1, TimeUnit.SECONDS);
+		for (Bot bot : bots) {
+			bot.scheduler.shutdown();
+		}
+		assertEquals("[]", problems.toString());
+		assertEquals(ROUNDS, rounds.get());
+		assertTrue(duplicates.get() > 0);
+		assertTrue(dropped.get() > 0);
+		assertTrue(resyncs.get() > 0);
+	}
+
+	private void resync(Bot bot) {
+		PendingCommand resync = bot.resync();
+		if (resync == null) {
+			problems.add(bot.name + " had nothing to resync from");
+			return;
+		}
+		resync.setCallback(new PendingCommand.Callback() {
+			@Override
+			public void onCompleted(PendingCommand command, int responseCode) {
+				if (responseCode != 0) {
+					problems.add("resync answered " + responseCode);
+				}
+				resyncs.incrementAndGet();
+			}
+
+			@Override
+			public void onFailed(PendingCommand command) {
+				problems.add("resync failed");
+			}
+		});
+	}
+
+	/**
+	 * Plays the first cards in its hand, and as judge reads everything and picks the first
+	 * submission. The first bot starts every round. Events are decoded on the room's shard
+	 * thread; commands go out on the bot's own.
+	 */
+	private final class Bot extends ProtocolClient {
+		final String name;
+		final boolean host;
+		final Random random;
+		final ExecutorScheduler scheduler;
+		// deliveries are lost while set
+		volatile boolean offline = false;
+		volatile long lastEventAt = System.nanoTime();
+
+		private int id = -1;
+		private int judge = -1;
+		private int version;
+		private final List<Card> hand = new ArrayList<Card>();
+
+		Bot(Transport transport, String name, boolean host, Random random) {
+			this(transport, new ExecutorScheduler(name), name, host, random);
+		}
+
+		private Bot(Transport transport, ExecutorScheduler scheduler, String name, boolean host, Random random) {
+			super(transport, scheduler);
+			this.scheduler = scheduler;
+			this.name = name;
+			this.host = host;
+			this.random = random;
+		}
+
+		void run(Runnable task) {
+			scheduler.schedule(task, 0);
+		}
+
+		@Override
+		public void onMessage(String message) {
+			if (offline) {
+				dropped.incrementAndGet();
+				return;
+			}
+			lastEventAt = System.nanoTime();
+			super.onMessage(message);
+			if (random.nextInt(10) == 0) {
+				duplicates.incrementAndGet();
+				super.onMessage(message);
+			}
+		}
+
+		@Override
+		protected void onPlayerQueued() {
+			problems.add(name + " was queued");
+		}
+
+		@Override
+		protected void onPlayerJoined(int newID) {
+			id = newID;
+		}
+
+		@Override
+		protected void onJudgeModeStarted() {
+		}
+
+		@Override
+		protected void onGameSync(int playerID, int handVersion, Card[] newHand, int newJudge) {
+			judge = newJudge;
+			version = handVersion;
+			hand.clear();
+			for (Card card : newHand) {
+				check(card);
+				hand.add(card);
+			}
+		}
+
+		@Override
+		protected void onHandDelta(int playerID, int baseVersion, int handVersion, Card[] added, int[] removedIDs,
+				int newJudge) {
+			judge = newJudge;
+			if (baseVersion != version) {
+				problems.add(name + " got a delta against v" + baseVersion + " holding v" + version);
+			}
+			version = handVersion;
+			for (int removed : removedIDs) {
+				for (Iterator<Card> it = hand.iterator(); it.hasNext(); ) {
+					if (it.next().id == removed) {
+						it.remove();
+					}
+				}
+			}
+			for (Card card : added) {
+				check(card);
+				hand.add(card);
+			}
+			if (hand.size() != Room.HAND_SIZE) {
+				problems.add(name + " holds " + hand.size() + " cards");
+			}
+		}
+
+		@Override
+		protected void onJudgeResponses(final Response[] responses) {
+			final int[][] read = new int[responses.length][];
+			for (int i = 0; i < responses.length; ++i) {
+				read[i] = new int[responses[i].contents.length];
+				for (int j = 0; j < read[i].length; ++j) {
+					check(responses[i].contents[j]);
+					read[i][j] = responses[i].contents[j].id;
+				}
+			}
+			run(new Runnable() {
+				@Override
+				public void run() {
+					readSubmissions(read);
+					declareWinner(responses[0].owner);
+				}
+			});
+		}
+
+		@Override
+		protected void onRoundStarted(String newPrompt, int numOfBlanks, boolean submitted) {
+			if (id == judge || submitted) {
+				return;
+			}
+			final int[] cardIDs = new int[numOfBlanks];
+			for (int i = 0; i < numOfBlanks; ++i) {
+				cardIDs[i] = hand.remove(0).id;
+			}
+			run(new Runnable() {
+				@Override
+				public void run() {
+					submitResponse(cardIDs);
+				}
+			});
+		}
+
+		@Override
+		protected void onRoundEnded() {
+			if (!host) {
+				return;
+			}
+			if (rounds.incrementAndGet() >= ROUNDS) {
+				done.countDown();
+				return;
+			}
+			run(new Runnable() {
+				@Override
+				public void run() {
+					startNextRound();
+				}
+			});
+		}
+
+		@Override
+		protected void onServerError(int errorCode) {
+			problems.add(name + " got error " + errorCode);
+		}
+
+		// CardPack.generated names every card after its ID
+		private void check(Card card) {
+			if (!card.prompt.equals("White card " + card.id + ".")) {
+				problems.add(name + " got " + card.id + " as \"" + card.prompt + "\"");
+			}
+		}
+	}
+}
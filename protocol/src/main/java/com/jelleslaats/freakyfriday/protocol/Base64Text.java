@@ -0,0 +1,94 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import java.util.Arrays;
+
+/**
+ * Standard base64 with padding, for carrying binary frames over the Cast string channel.
+ * Written out here because java.util.Base64 needs API 26 and android.util.Base64 doesn't exist
+ * off-device.
+ */
+public final class Base64Text {
+	private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+	private static final int[] VALUES = new int[128];
+
+	static {
+		Arrays.fill(VALUES, -1);
+		for (int i = 0; i < ALPHABET.length; ++i) {
+			VALUES[ALPHABET[i]] = i;
+		}
+	}
+
+	private Base64Text() {
+	}
+
+	public static void encode(byte[] bytes, int offset, int length, StringBuilder out) {
+		int end = offset + length;
+		int i = offset;
+		for (; i + 2 < end; i += 3) {
+			int chunk = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+			out.append(ALPHABET[chunk >>> 18])
+					.append(ALPHABET[(chunk >>> 12) & 0x3F])
+					.append(ALPHABET[(chunk >>> 6) & 0x3F])
+					.append(ALPHABET[chunk & 0x3F]);
+		}
+		if (end - i == 1) {
+			int chunk = (bytes[i] & 0xFF) << 16;
+			out.append(ALPHABET[chunk >>> 18])
+					.append(ALPHABET[(chunk >>> 12) & 0x3F])
+					.append("==");
+		}
+		else if (end - i == 2) {
+			int chunk = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8;
+			out.append(ALPHABET[chunk >>> 18])
+					.append(ALPHABET[(chunk >>> 12) & 0x3F])
+					.append(ALPHABET[(chunk >>> 6) & 0x3F])
+					.append('=');
+		}
+	}
+
+	/**
+	 * Decodes the text from the given offset to the end. '=' may only be padding at the very end.
+	 *
+	 * @throws IllegalArgumentException if it isn't valid base64
+	 */
+	public static byte[] decode(String text, int offset) {
+		int length = text.length() - offset;
+		if (length % 4 != 0) {
+			throw new IllegalArgumentException("Base64 length " + length + " isn't a multiple of 4");
+		}
+		int padding = 0;
+		if (length > 0 && text.charAt(text.length() - 1) == '=') {
+			padding = text.charAt(text.length() - 2) == '=' ? 2 : 1;
+		}
+
+		// '=' isn't in the alphabet, so one anywhere before the padding fails in valueOf
+		int end = text.length() - 4;
+		byte[] bytes = new byte[length / 4 * 3 - padding];
+		int out = 0;
+		int i = offset;
+		for (; i < end || (i == end && padding == 0); i += 4) {
+			int chunk = valueOf(text.charAt(i)) << 18 | valueOf(text.charAt(i + 1)) << 12
+					| valueOf(text.charAt(i + 2)) << 6 | valueOf(text.charAt(i + 3));
+			bytes[out++] = (byte) (chunk >>> 16);
+			bytes[out++] = (byte) (chunk >>> 8);
+			bytes[out++] = (byte) chunk;
+		}
+		if (padding > 0) {
+			int chunk = valueOf(text.charAt(i)) << 18 | valueOf(text.charAt(i + 1)) << 12;
+			bytes[out++] = (byte) (chunk >>> 16);
+			if (padding == 1) {
+				chunk |= valueOf(text.charAt(i + 2)) << 6;
+				bytes[out] = (byte) (chunk >>> 8);
+			}
+		}
+		return bytes;
+	}
+
+	private static int valueOf(char c) {
+		int value = c < 128 ? VALUES[c] : -1;
+		if (value < 0) {
+			throw new IllegalArgumentException("Not a base64 character: " + c);
+		}
+		return value;
+	}
+}
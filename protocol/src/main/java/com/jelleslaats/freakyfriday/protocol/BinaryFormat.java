@@ -0,0 +1,24 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+/**
+ * The compact binary encoding, offered by the app when it joins and used once the receiver
+ * confirms it in didJoin. A frame is {@link #FRAME_PREFIX} followed by base64; JSON messages
+ * always start with '{', so either end can tell the two apart from the first character.
+ *
+ * <p>Each frame starts with a varint type code from {@link ProtocolSchema}, followed by that
+ * type's fields in a fixed order. IDs, versions and counts are varints; values that can be -1
+ * are zigzag varints. A card is a varint of (ID &lt;&lt; 1 | hasText), followed by its text the
+ * first time the receiver sends that card on the connection. Both ends forget the texts when the app joins.
+ */
+public final class BinaryFormat {
+	// name offered in join and confirmed in didJoin
+	public static final String NAME = "bin1";
+	public static final char FRAME_PREFIX = '~';
+
+	private BinaryFormat() {
+	}
+
+	public static boolean isFrame(String message) {
+		return !message.isEmpty() && message.charAt(0) == FRAME_PREFIX;
+	}
+}
@@ -0,0 +1,121 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import java.util.Arrays;
+
+/**
+ * Decodes binary frames into the same callbacks as {@link MessageDecoder}. Keeps the connection's
+ * string table: the receiver sends a card's text only the first time, after that just its ID.
+ * The table isn't shared with {@link CardRegistry}, because the registry may evict a card the
+ * receiver still expects us to know.
+ */
+final class BinaryMessageDecoder {
+	// card IDs index the table directly, so refuse anything a pack couldn't have
+	private static final int MAX_CARD_ID = 1 << 20;
+	private static final Card[] NO_CARDS = new Card[0];
+
+	// decoding thread only
+	private String[] mTexts = new String[512];
+
+	/**
+	 * Forgets every card text. Called when the receiver confirms a join, which is when it
+	 * forgets which texts it has sent.
+	 */
+	void reset() {
+		Arrays.fill(mTexts, null);
+	}
+
+	/**
+	 * Decodes one frame and hands the result to the matching callback.
+	 *
+	 * @return the type of the message, as the JSON type name, or null for a type we don't know
+	 * @throws IllegalStateException if the frame is malformed or refers to a card we have no text for
+	 * @throws IllegalArgumentException if the frame isn't base64
+	 */
+	String decode(String frame, MessageDecoder.Callbacks callbacks) {
+		FrameReader in = new FrameReader(frame);
+		switch (in.readVarint()) {
+			case ProtocolSchema.CODE_PLAYER_QUEUED:
+				callbacks.onPlayerQueued();
+				return ProtocolSchema.EVENT_PLAYER_QUEUED;
+			case ProtocolSchema.CODE_JUDGING_STARTED:
+				callbacks.onJudgeModeStarted();
+				return ProtocolSchema.EVENT_JUDGING_STARTED;
+			case ProtocolSchema.CODE_GAMESYNC: {
+				int playerID = in.readSignedVarint();
+				int handVersion = in.readSignedVarint();
+				int newJudge = in.readSignedVarint();
+				callbacks.onGameSync(playerID, handVersion, readCards(in), newJudge);
+				return ProtocolSchema.EVENT_GAMESYNC;
+			}
+			case ProtocolSchema.CODE_GAMESYNC_DELTA: {
+				int playerID = in.readSignedVarint();
+				int baseVersion = in.readSignedVarint();
+				int handVersion = in.readSignedVarint();
+				int newJudge = in.readSignedVarint();
+				Card[] added = readCards(in);
+				int[] removedIDs = new int[in.readCount()];
+				for (int i = 0; i < removedIDs.length; ++i) {
+					removedIDs[i] = in.readVarint();
+				}
+				callbacks.onHandDelta(playerID, baseVersion, handVersion, added, removedIDs, newJudge);
+				return ProtocolSchema.EVENT_GAMESYNC;
+			}
+			case ProtocolSchema.CODE_JUDGE_SUBMISSIONS: {
+				Response[] responses = new Response[in.readCount()];
+				for (int i = 0; i < responses.length; ++i) {
+					int owner = in.readSignedVarint();
+					responses[i] = new Response(owner, readCards(in));
+				}
+				callbacks.onJudgeResponses(responses);
+				return ProtocolSchema.EVENT_JUDGE_SUBMISSIONS;
+			}
+			case ProtocolSchema.CODE_ROUND_STARTED: {
+				String prompt = in.readString();
+				int numOfBlanks = in.readVarint();
+				// receivers from before the flag end the frame here
+				boolean submitted = in.hasMore() && in.readVarint() != 0;
+				callbacks.onRoundStarted(prompt, numOfBlanks, submitted);
+				return ProtocolSchema.EVENT_ROUND_STARTED;
+			}
+			case ProtocolSchema.CODE_ROUND_ENDED:
+				callbacks.onRoundEnded();
+				return ProtocolSchema.EVENT_ROUND_ENDED;
+			case ProtocolSchema.CODE_SERVER_RESPONSE: {
+				int responseCode = in.readSignedVarint();
+				callbacks.onServerResponse(responseCode, in.readSignedVarint());
+				return ProtocolSchema.EVENT_SERVER_RESPONSE;
+			}
+			default:
+				return null;
+		}
+	}
+
+	private Card[] readCards(FrameReader in) {
+		int count = in.readCount();
+		if (count == 0) {
+			return NO_CARDS;
+		}
+		Card[] cards = new Card[count];
+		for (int i = 0; i < count; ++i) {
+			int header = in.readVarint();
+			int id = header >>> 1;
+			if (id >= MAX_CARD_ID) {
+				throw new IllegalStateException("Card ID out of range: " + id);
+			}
+			String text;
+			if ((header & 1) != 0) {
+				text = in.readString();
+				if (id >= mTexts.length) {
+					mTexts = Arrays.copyOf(mTexts, Math.max(mTexts.length * 2, id + 1));
+				}
+				mTexts[id] = text;
+			}
+			else {
+				// not sent at all if the receiver knows we have its card pack
+				text = id < mTexts.length ? mTexts[id] : null;
+			}
+			cards[i] = CardRegistry.get().obtain(id, text);
+		}
+		return cards;
+	}
+}
@@ -0,0 +1,79 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+/**
+ * Builds the binary frames for commands, once the receiver has agreed to {@link BinaryFormat}.
+ * Same commands as {@link MessageEncoder}, minus joining, which is always JSON because that's
+ * where the format gets negotiated.
+ */
+final class BinaryMessageEncoder {
+	// each frame is done before the next one begins, so a writer per thread is enough
+	private static final ThreadLocal<FrameWriter> WRITER = new ThreadLocal<FrameWriter>() {
+		@Override
+		protected FrameWriter initialValue() {
+			return new FrameWriter();
+		}
+	};
+
+	private BinaryMessageEncoder() {
+	}
+
+	static String leaveGame(int requestID) {
+		return begin(ProtocolSchema.CODE_LEAVE, requestID).toFrame();
+	}
+
+	static String updateSettings(int requestID, String name) {
+		return begin(ProtocolSchema.CODE_UPDATE_SETTINGS, requestID)
+				.writeString(name)
+				.toFrame();
+	}
+
+	static String submitResponse(int requestID, int[] cardIDs) {
+		FrameWriter out = begin(ProtocolSchema.CODE_SUBMIT_CARD, requestID);
+		writeIDs(out, cardIDs);
+		return out.toFrame();
+	}
+
+	static String declareWinner(int requestID, int winnerID) {
+		return begin(ProtocolSchema.CODE_SUBMIT_WINNER, requestID)
+				.writeSignedVarint(winnerID)
+				.toFrame();
+	}
+
+	static String readSubmissions(int requestID, int[][] submissionsRead) {
+		FrameWriter out = begin(ProtocolSchema.CODE_HAVE_READ_SUBMISSIONS, requestID);
+		out.writeVarint(submissionsRead.length);
+		for (int[] submission : submissionsRead) {
+			writeIDs(out, submission);
+		}
+		return out.toFrame();
+	}
+
+	static String startNextRound(int requestID) {
+		return begin(ProtocolSchema.CODE_START_NEXT_ROUND, requestID).toFrame();
+	}
+
+	static String requestGameSync(int requestID, int handVersion) {
+		return begin(ProtocolSchema.CODE_REQUEST_GAMESYNC, requestID)
+				.writeSignedVarint(handVersion)
+				.toFrame();
+	}
+
+	static String resync(int requestID, int after) {
+		return begin(ProtocolSchema.CODE_RESYNC, requestID)
+				.writeVarint(after)
+				.toFrame();
+	}
+
+	private static FrameWriter begin(int type, int requestID) {
+		return WRITER.get().reset()
+				.writeVarint(type)
+				.writeSignedVarint(requestID);
+	}
+
+	private static void writeIDs(FrameWriter out, int[] ids) {
+		out.writeVarint(ids.length);
+		for (int id : ids) {
+			out.writeVarint(id);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * The white cards of a pack, memory-mapped so opening it costs next to nothing and a card's text
+ * is only decoded when it's looked up. An app that has the same pack as the receiver offers its
+ * {@link #getHashName() hash} when it joins, and once the receiver confirms it, cards arrive as
+ * bare IDs and their texts come from here.
+ *
+ * <p>Layout, big-endian: the magic "FFC1", the card count, the 64-bit hash of the texts, then
+ * count + 1 int offsets into the UTF-8 texts that follow. Card i's text runs from offset i to
+ * offset i + 1, so a lookup is two reads and a decode.
+ */
+public final class CardPackFile {
+	private static final int MAGIC = 0x46464331;
+	private static final int HEADER_BYTES = 16;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final ByteBuffer buffer;
+	private final int count;
+	private final long hash;
+	private final int textsStart;
+
+	private CardPackFile(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < HEADER_BYTES + 4 || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a card pack");
+		}
+		this.buffer = buffer;
+		this.count = buffer.getInt(4);
+		this.hash = buffer.getLong(8);
+		if (count < 0 || count > (buffer.capacity() - HEADER_BYTES) / 4 - 1) {
+			throw new IOException("Corrupt card pack: " + count + " cards");
+		}
+		this.textsStart = HEADER_BYTES + (count + 1) * 4;
+		if (textsStart + (long) buffer.getInt(HEADER_BYTES + count * 4) > buffer.capacity()) {
+			throw new IOException("Truncated card pack");
+		}
+	}
+
+	public static CardPackFile open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return map(raf.getChannel(), 0, raf.length());
+		}
+		finally {
+			// the mapping stays valid after the file is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Maps a pack that's part of a larger file, such as an uncompressed asset in an APK.
+	 */
+	public static CardPackFile open(FileInputStream in, long offset, long length) throws IOException {
+		try {
+			return map(in.getChannel(), offset, length);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static CardPackFile map(FileChannel channel, long offset, long length) throws IOException {
+		return new CardPackFile(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+	}
+
+	// Writes the texts as a pack, card ID i being texts[i].
+	public static void write(String[] texts, OutputStream out) throws IOException {
+		byte[][] encoded = encode(texts);
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(texts.length);
+		data.writeLong(hashOf(encoded));
+		int offset = 0;
+		for (byte[] text : encoded) {
+			data.writeInt(offset);
+			offset += text.length;
+		}
+		data.writeInt(offset);
+		for (byte[] text : encoded) {
+			data.write(text);
+		}
+		data.flush();
+	}
+
+	/**
+	 * The hash a pack of these texts has, for a receiver to compare with the one the app offers.
+	 * 64-bit FNV-1a over the count and each text's UTF-8 length and bytes.
+	 */
+	public static long hashOf(String[] texts) {
+		return hashOf(encode(texts));
+	}
+
+	// The hash as it's written on the wire.
+	public static String hashName(long hash) {
+		String hex = Long.toHexString(hash);
+		return "0000000000000000".substring(hex.length()) + hex;
+	}
+
+	private static byte[][] encode(String[] texts) {
+		byte[][] encoded = new byte[texts.length][];
+		for (int i = 0; i < texts.length; ++i) {
+			encoded[i] = texts[i].getBytes(UTF_8);
+		}
+		return encoded;
+	}
+
+	private static long hashOf(byte[][] texts) {
+		long h = hashInt(FNV_OFFSET_BASIS, texts.length);
+		for (byte[] text : texts) {
+			h = hashInt(h, text.length);
+			for (byte b : text) {
+				h = (h ^ (b & 0xFF)) * FNV_PRIME;
+			}
+		}
+		return h;
+	}
+
+	private static long hashInt(long h, int value) {
+		for (int shift = 24; shift >= 0; shift -= 8) {
+			h = (h ^ ((value >>> shift) & 0xFF)) * FNV_PRIME;
+		}
+		return h;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public long getHash() {
+		return hash;
+	}
+
+	public String getHashName() {
+		return hashName(hash);
+	}
+
+	/**
+	 * Decodes the card's text. Safe from any thread; the mapping is only ever read with absolute
+	 * positions.
+	 *
+	 * @return the text, or null if the pack has no card with this ID
+	 * @throws IllegalStateException if the pack's index is corrupt
+	 */
+	public String getText(int id) {
+		if (id < 0 || id >= count) {
+			return null;
+		}
+		int start = buffer.getInt(HEADER_BYTES + id * 4);
+		int end = buffer.getInt(HEADER_BYTES + (id + 1) * 4);
+		if (start < 0 || end < start || textsStart + (long) end > buffer.capacity()) {
+			throw new IllegalStateException("Corrupt card pack at card " + id);
+		}
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; ++i) {
+			bytes[i] = buffer.get(textsStart + start + i);
+		}
+		return new String(bytes, UTF_8);
+	}
+}
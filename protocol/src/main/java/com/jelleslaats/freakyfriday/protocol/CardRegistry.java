@@ -0,0 +1,180 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+/**
+ * Process-wide registry that hands out one canonical Card per card ID, so cards that come back
+ * round after round are not allocated again. Lookups use an open-addressing table keyed on the
+ * primitive ID. The registry holds a fixed number of cards and evicts with the CLOCK
+ * (second chance) policy once full.
+ */
+final class CardRegistry {
+	static final int DEFAULT_CAPACITY = 1024;
+
+	private static final CardRegistry INSTANCE = new CardRegistry(DEFAULT_CAPACITY);
+
+	// cards in clock order, and whether each was used since the clock hand last passed it
+	private final Card[] entries;
+	private final boolean[] referenced;
+	// hash bucket -> index into entries + 1, 0 for an empty bucket
+	private final int[] table;
+	private final int mask;
+
+	// where cards that arrive without their text get it from, if the app has a pack
+	private CardPackFile pack;
+
+	private int size = 0;
+	private int clockHand = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	static CardRegistry get() {
+		return INSTANCE;
+	}
+
+	CardRegistry(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		}
+		entries = new Card[capacity];
+		referenced = new boolean[capacity];
+
+		// keep the table at most half full
+		int buckets = Integer.highestOneBit(capacity) << 2;
+		table = new int[buckets];
+		mask = buckets - 1;
+	}
+
+	synchronized void setPack(CardPackFile pack) {
+		this.pack = pack;
+	}
+
+	/**
+	 * Returns the registered card for this ID, or registers a new one. A card whose text no
+	 * longer matches (e.g. after the deck changed) is replaced. Without a text, the registered
+	 * card is taken as it is, and a new one gets its text from the pack.
+	 *
+	 * @throws IllegalStateException if there's no text and the pack doesn't have the card
+	 */
+	synchronized Card obtain(int id, String text) {
+		int bucket = findBucket(id);
+		if (bucket >= 0) {
+			int slot = table[bucket] - 1;
+			Card card = entries[slot];
+			referenced[slot] = true;
+			if (text == null || card.prompt.equals(text)) {
+				hits++;
+				return card;
+			}
+			misses++;
+			card = new Card(id, text);
+			entries[slot] = card;
+			return card;
+		}
+
+		misses++;
+		if (text == null) {
+			text = pack != null ? pack.getText(id) : null;
+			if (text == null) {
+				throw new IllegalStateException("No text for card " + id);
+			}
+		}
+		int slot;
+		if (size < entries.length) {
+			slot = size++;
+		}
+		else {
+			slot = evict();
+		}
+
+		Card card = new Card(id, text);
+		entries[slot] = card;
+		referenced[slot] = false;
+		insert(id, slot);
+		return card;
+	}
+
+	// The registered card for this ID, or null.
+	synchronized Card peek(int id) {
+		int bucket = findBucket(id);
+		return bucket >= 0 ? entries[table[bucket] - 1] : null;
+	}
+
+	synchronized int size() {
+		return size;
+	}
+
+	synchronized long getHits() {
+		return hits;
+	}
+
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	synchronized long getEvictions() {
+		return evictions;
+	}
+
+	synchronized void clear() {
+		for (int i = 0; i < size; ++i) {
+			entries[i] = null;
+			referenced[i] = false;
+		}
+		for (int i = 0; i < table.length; ++i) {
+			table[i] = 0;
+		}
+		size = 0;
+		clockHand = 0;
+	}
+
+	private int home(int id) {
+		int h = id * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private int findBucket(int id) {
+		for (int i = home(id); table[i] != 0; i = (i + 1) & mask) {
+			if (entries[table[i] - 1].id == id) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void insert(int id, int slot) {
+		int i = home(id);
+		while (table[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		table[i] = slot + 1;
+	}
+
+	// Frees a slot using the clock hand, giving recently used cards a second chance.
+	private int evict() {
+		while (referenced[clockHand]) {
+			referenced[clockHand] = false;
+			clockHand = (clockHand + 1) % entries.length;
+		}
+		int victim = clockHand;
+		clockHand = (clockHand + 1) % entries.length;
+
+		removeBucket(findBucket(entries[victim].id));
+		entries[victim] = null;
+		evictions++;
+		return victim;
+	}
+
+	// Backward-shift deletion, so lookups never need tombstones.
+	private void removeBucket(int bucket) {
+		int hole = bucket;
+		for (int i = (hole + 1) & mask; table[i] != 0; i = (i + 1) & mask) {
+			int home = home(entries[table[i] - 1].id);
+			if (((i - home) & mask) >= ((i - hole) & mask)) {
+				table[hole] = table[i];
+				hole = i;
+			}
+		}
+		table[hole] = 0;
+	}
+}
@@ -0,0 +1,157 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import java.util.ArrayList;
+
+/**
+ * Bounded queue of commands waiting for the receiver to answer. Each command is retried with
+ * exponential backoff when the send fails, until it runs out of attempts or passes its deadline.
+ * A command that was sent but not answered in time may still have arrived, so it's only sent
+ * again to receivers that drop commands they've already had, going by request ID; otherwise it
+ * waits for a late answer until its deadline. Everything here runs on the scheduler's thread,
+ * apart from {@link #setResendUnanswered(boolean)}.
+ */
+class CommandQueue {
+	private static final String TAG = CommandQueue.class.getSimpleName();
+
+	static final int MAX_QUEUED = 32;
+	static final int MAX_ATTEMPTS = 4;
+	static final long ACK_TIMEOUT_MS = 3000;
+	static final long DEADLINE_MS = 10000;
+	static final long BASE_BACKOFF_MS = 250;
+
+	/**
+	 * Puts a command on the wire.
+	 */
+	interface Transmitter {
+		// returns false if the command couldn't be handed to the transport at all
+		boolean transmit(PendingCommand command);
+	}
+
+	private final Transmitter transmitter;
+	private final Scheduler scheduler;
+	private final ArrayList<PendingCommand> queued = new ArrayList<PendingCommand>();
+	private volatile boolean resendUnanswered = false;
+
+	CommandQueue(Transmitter transmitter, Scheduler scheduler) {
+		this.transmitter = transmitter;
+		this.scheduler = scheduler;
+	}
+
+	// Whether the receiver drops repeated request IDs, so unanswered commands can be sent again.
+	void setResendUnanswered(boolean resend) {
+		resendUnanswered = resend;
+	}
+
+	PendingCommand enqueue(String type, int requestID, String payload) {
+		long now = scheduler.now();
+		final PendingCommand command = new PendingCommand(type, requestID, payload, now, now + DEADLINE_MS);
+
+		if (queued.size() >= MAX_QUEUED) {
+			ProtocolLog.w(TAG, "Queue full, dropping " + command);
+			command.fail(now);
+			return command;
+		}
+
+		command.timer = new Runnable() {
+			@Override
+			public void run() {
+				onTimer(command);
+			}
+		};
+		queued.add(command);
+		attempt(command);
+		return command;
+	}
+
+	// Result of handing the command to the transport.
+	void onTransmitted(PendingCommand command, boolean success) {
+		if (command.isDone() || success) {
+			return;
+		}
+		ProtocolLog.d(TAG, "Send failed for " + command);
+		scheduler.cancel(command.timer);
+		command.awaitingAck = false;
+		retryLater(command);
+	}
+
+	/**
+	 * Matches a response from the receiver to the command that caused it. Responses without a
+	 * request ID are matched to the oldest command that has been sent.
+	 *
+	 * @return the command that was completed, or null if nothing matched
+	 */
+	PendingCommand onServerResponse(int requestID, int responseCode) {
+		for (int i = 0; i < queued.size(); ++i) {
+			PendingCommand command = queued.get(i);
+			if (requestID >= 0 ? command.requestID == requestID : command.attempts > 0) {
+				queued.remove(i);
+				scheduler.cancel(command.timer);
+				command.complete(responseCode, scheduler.now());
+				Metrics metrics = Metrics.get();
+				metrics.histogram(Metrics.COMMAND_ROUND_TRIP).recordMillis(command.getLatencyMillis());
+				metrics.histogram(Metrics.COMMAND_ROUND_TRIP + "." + command.type).recordMillis(command.getLatencyMillis());
+				ProtocolLog.d(TAG, command + " answered in " + command.getLatencyMillis() + "ms after " + command.attempts + " attempt(s)");
+				return command;
+			}
+		}
+		return null;
+	}
+
+	// Gives up on everything, e.g. when the session goes away.
+	void failAll() {
+		long now = scheduler.now();
+		ArrayList<PendingCommand> failed = new ArrayList<PendingCommand>(queued);
+		queued.clear();
+		for (PendingCommand command : failed) {
+			scheduler.cancel(command.timer);
+			command.fail(now);
+		}
+	}
+
+	private void attempt(PendingCommand command) {
+		command.attempts++;
+		// before transmitting, since the transport may report a failed send before it returns
+		command.awaitingAck = true;
+		scheduler.schedule(command.timer, ACK_TIMEOUT_MS);
+		if (!transmitter.transmit(command) && command.awaitingAck) {
+			scheduler.cancel(command.timer);
+			command.awaitingAck = false;
+			retryLater(command);
+		}
+	}
+
+	private void onTimer(PendingCommand command) {
+		if (command.awaitingAck && !resendUnanswered) {
+			// sending it again could have it applied twice, like a round skipped, so only wait
+			long now = scheduler.now();
+			if (now < command.deadline) {
+				ProtocolLog.d(TAG, "No response to " + command + " yet, waiting");
+				scheduler.schedule(command.timer, command.deadline - now);
+				return;
+			}
+			ProtocolLog.w(TAG, "Giving up on " + command + ", never answered");
+			queued.remove(command);
+			command.fail(now);
+		}
+		else if (command.awaitingAck) {
+			ProtocolLog.d(TAG, "No response to " + command);
+			command.awaitingAck = false;
+			retryLater(command);
+		}
+		else {
+			attempt(command);
+		}
+	}
+
+	private void retryLater(PendingCommand command) {
+		long now = scheduler.now();
+		long backoff = BASE_BACKOFF_MS << (command.attempts - 1);
+		if (command.attempts >= MAX_ATTEMPTS || now + backoff > command.deadline) {
+			ProtocolLog.w(TAG, "Giving up on " + command + " after " + command.attempts + " attempt(s)");
+			queued.remove(command);
+			command.fail(now);
+			return;
+		}
+		scheduler.schedule(command.timer, backoff);
+	}
+}
@@ -0,0 +1,69 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+/**
+ * Numbering of the events the receiver sends, offered by the app when it joins. Once the
+ * receiver takes it up, every event to that player is wrapped as {@link #PREFIX}, the sequence
+ * number, {@link #SEPARATOR}, then the message as it would otherwise have been sent: JSON, a
+ * binary frame or a compressed one. Only didJoin starts a new sequence. It's numbered on from the
+ * events before it, so a late copy of any earlier event, an earlier didJoin included, can't be
+ * taken for part of the new sequence. Numbers start from 0 for a new seat, or when the receiver
+ * itself starts over, which is why the app takes the first didJoin after joining whatever its
+ * number.
+ *
+ * <p>A phone that missed events, say while its Wi-Fi dropped, asks for everything after the
+ * last number it applied. The receiver sends those events again exactly as they went out the
+ * first time, or starts a new sequence with a full catch-up if it no longer has them.
+ */
+public final class EventSequence {
+	// name offered in join; seq1 receivers numbered each sequence from 0
+	public static final String NAME = "seq2";
+
+	public static final char PREFIX = '@';
+	public static final char SEPARATOR = ':';
+	// an event that wasn't numbered, or no event applied yet
+	public static final int NONE = -1;
+
+	private EventSequence() {
+	}
+
+	public static String wrap(int seq, String message) {
+		return new StringBuilder(message.length() + 12)
+				.append(PREFIX)
+				.append(seq)
+				.append(SEPARATOR)
+				.append(message)
+				.toString();
+	}
+
+	/**
+	 * The event's number, or {@link #NONE} if it isn't wrapped.
+	 *
+	 * @throws IllegalStateException if the number is malformed
+	 */
+	public static int seqOf(String message) {
+		if (message.isEmpty() || message.charAt(0) != PREFIX) {
+			return NONE;
+		}
+		int seq = 0;
+		int i = 1;
+		for (; i < message.length() && message.charAt(i) != SEPARATOR; ++i) {
+			char c = message.charAt(i);
+			if (c < '0' || c > '9' || seq > (Integer.MAX_VALUE - 9) / 10) {
+				throw new IllegalStateException("Bad sequence number in " + message);
+			}
+			seq = seq * 10 + (c - '0');
+		}
+		if (i == 1 || i == message.length()) {
+			throw new IllegalStateException("Bad sequence number in " + message);
+		}
+		return seq;
+	}
+
+	// The message inside the wrapping, or the message itself if it isn't wrapped.
+	public static String payloadOf(String message) {
+		if (message.isEmpty() || message.charAt(0) != PREFIX) {
+			return message;
+		}
+		return message.substring(message.indexOf(SEPARATOR) + 1);
+	}
+}
@@ -0,0 +1,81 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler backed by a thread of its own, for running the protocol on a plain JVM. Commands
+ * must be sent from that thread too, e.g. from a task passed to {@link #schedule}. Scheduling
+ * a task that is already waiting replaces it.
+ */
+public final class ExecutorScheduler implements Scheduler {
+	private final ScheduledExecutorService executor;
+	private final HashMap<Runnable, Entry> scheduled = new HashMap<Runnable, Entry>();
+
+	// A task waiting to run; stale entries notice they were replaced or cancelled.
+	private final class Entry implements Runnable {
+		final Runnable task;
+		ScheduledFuture<?> future;
+
+		Entry(Runnable task) {
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			synchronized (scheduled) {
+				if (scheduled.get(task) != this) {
+					return;
+				}
+				scheduled.remove(task);
+			}
+			task.run();
+		}
+	}
+
+	public ExecutorScheduler(final String threadName) {
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, threadName);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	@Override
+	public void schedule(Runnable task, long delayMillis) {
+		Entry entry = new Entry(task);
+		synchronized (scheduled) {
+			Entry previous = scheduled.put(task, entry);
+			if (previous != null) {
+				previous.future.cancel(false);
+			}
+			entry.future = executor.schedule(entry, delayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public void cancel(Runnable task) {
+		synchronized (scheduled) {
+			Entry entry = scheduled.remove(task);
+			if (entry != null) {
+				entry.future.cancel(false);
+			}
+		}
+	}
+
+	@Override
+	public long now() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+}
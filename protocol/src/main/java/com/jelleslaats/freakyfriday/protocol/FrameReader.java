@@ -0,0 +1,68 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import java.nio.charset.Charset;
+
+/**
+ * Reads the values of a frame built by {@link FrameWriter}.
+ */
+public final class FrameReader {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final byte[] bytes;
+	private int position = 0;
+
+	/**
+	 * @throws IllegalStateException if the frame isn't prefixed
+	 * @throws IllegalArgumentException if what follows the prefix isn't base64
+	 */
+	public FrameReader(String frame) {
+		if (!BinaryFormat.isFrame(frame)) {
+			throw new IllegalStateException("Not a binary frame");
+		}
+		bytes = Base64Text.decode(frame, 1);
+	}
+
+	public boolean hasMore() {
+		return position < bytes.length;
+	}
+
+	public int readVarint() {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = nextByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalStateException("Varint too long");
+	}
+
+	public int readSignedVarint() {
+		int value = readVarint();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	// A count that must fit in what's left of the frame, so a corrupt one can't allocate much.
+	public int readCount() {
+		int count = readVarint();
+		if (count < 0 || count > bytes.length - position) {
+			throw new IllegalStateException("Bad count " + count);
+		}
+		return count;
+	}
+
+	public String readString() {
+		int length = readCount();
+		String value = new String(bytes, position, length, UTF_8);
+		position += length;
+		return value;
+	}
+
+	private byte nextByte() {
+		if (position >= bytes.length) {
+			throw new IllegalStateException("Frame ends early");
+		}
+		return bytes[position++];
+	}
+}
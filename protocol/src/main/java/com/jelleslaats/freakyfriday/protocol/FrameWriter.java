@@ -0,0 +1,79 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import java.util.Arrays;
+
+/**
+ * Builds one binary frame: varints, zigzag varints for values that can be negative, and
+ * length-prefixed UTF-8 strings, finished off as base64 behind {@link BinaryFormat#FRAME_PREFIX}.
+ * Reusable; the buffer only grows.
+ */
+public final class FrameWriter {
+	private byte[] buffer = new byte[256];
+	private int length = 0;
+
+	public FrameWriter reset() {
+		length = 0;
+		return this;
+	}
+
+	public FrameWriter writeVarint(int value) {
+		ensureCapacity(5);
+		while ((value & ~0x7F) != 0) {
+			buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[length++] = (byte) value;
+		return this;
+	}
+
+	public FrameWriter writeSignedVarint(int value) {
+		return writeVarint((value << 1) ^ (value >> 31));
+	}
+
+	public FrameWriter writeString(String value) {
+		int byteLength = Metrics.utf8Length(value);
+		writeVarint(byteLength);
+		ensureCapacity(byteLength);
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				buffer[length++] = (byte) c;
+			}
+			else if (c < 0x800) {
+				buffer[length++] = (byte) (0xC0 | (c >> 6));
+				buffer[length++] = (byte) (0x80 | (c & 0x3F));
+			}
+			// must agree with Metrics.utf8Length, which wrote the length prefix
+			else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer[length++] = (byte) (0xF0 | (codePoint >> 18));
+				buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				buffer[length++] = (byte) (0x80 | (codePoint & 0x3F));
+			}
+			else {
+				buffer[length++] = (byte) (0xE0 | (c >> 12));
+				buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buffer[length++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		return this;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public String toFrame() {
+		StringBuilder out = new StringBuilder(1 + (length + 2) / 3 * 4);
+		out.append(BinaryFormat.FRAME_PREFIX);
+		Base64Text.encode(buffer, 0, length, out);
+		return out.toString();
+	}
+
+	private void ensureCapacity(int extra) {
+		if (length + extra > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+		}
+	}
+}
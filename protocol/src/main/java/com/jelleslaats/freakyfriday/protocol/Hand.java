@@ -0,0 +1,127 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import java.util.Arrays;
+
+/**
+ * The player's hand along with the version the receiver last synced it at. Delta updates are
+ * only applied on top of the version they were computed against; anything else needs a full
+ * snapshot. Drawn cards take the slots of the cards they replace, so between rounds only those
+ * rows change.
+ */
+public class Hand {
+	public static final int UNVERSIONED = -1;
+
+	private Card[] cards = new Card[0];
+	private int version = UNVERSIONED;
+
+	// positions touched by the last apply(), valid until the next update
+	private int[] changedPositions = new int[0];
+	private int changedCount = 0;
+	private boolean resized = false;
+
+	public int size() {
+		return cards.length;
+	}
+
+	public Card get(int position) {
+		return cards[position];
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	// Position of the card with this ID, or -1 if it isn't in the hand.
+	public int indexOf(int cardID) {
+		for (int i = 0; i < cards.length; ++i) {
+			if (cards[i].id == cardID) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// Replaces the whole hand with a snapshot from the receiver.
+	public void replace(Card[] newCards, int newVersion) {
+		cards = newCards;
+		version = newVersion;
+		changedCount = 0;
+		resized = true;
+	}
+
+	public void clear() {
+		replace(new Card[0], UNVERSIONED);
+	}
+
+	/**
+	 * Applies the cards added and removed since baseVersion.
+	 *
+	 * @return false if the hand isn't at baseVersion or the delta doesn't fit it, in which case
+	 * nothing is changed and a full snapshot is needed
+	 */
+	public boolean apply(int baseVersion, int newVersion, Card[] added, int[] removedIDs) {
+		if (version == UNVERSIONED || baseVersion != version) {
+			return false;
+		}
+
+		int[] slots = new int[removedIDs.length];
+		for (int i = 0; i < removedIDs.length; ++i) {
+			slots[i] = indexOf(removedIDs[i]);
+			if (slots[i] < 0) {
+				return false;
+			}
+		}
+		Arrays.sort(slots);
+
+		if (changedPositions.length < cards.length) {
+			changedPositions = new int[cards.length];
+		}
+		changedCount = 0;
+		resized = false;
+
+		// drawn cards go into the slots of the cards that were played
+		int filled = Math.min(slots.length, added.length);
+		for (int i = 0; i < filled; ++i) {
+			cards[slots[i]] = added[i];
+			changedPositions[changedCount++] = slots[i];
+		}
+
+		if (added.length > filled) {
+			int oldLength = cards.length;
+			cards = Arrays.copyOf(cards, oldLength + added.length - filled);
+			System.arraycopy(added, filled, cards, oldLength, added.length - filled);
+			resized = true;
+		}
+		else if (slots.length > filled) {
+			Card[] remaining = new Card[cards.length - (slots.length - filled)];
+			int next = 0;
+			int slot = filled;
+			for (int i = 0; i < cards.length; ++i) {
+				if (slot < slots.length && slots[slot] == i) {
+					++slot;
+				}
+				else {
+					remaining[next++] = cards[i];
+				}
+			}
+			cards = remaining;
+			resized = true;
+		}
+
+		version = newVersion;
+		return true;
+	}
+
+	// True if the last update changed the number of cards or replaced the hand outright.
+	public boolean wasResized() {
+		return resized;
+	}
+
+	public int getChangedCount() {
+		return changedCount;
+	}
+
+	public int getChangedPosition(int i) {
+		return changedPositions[i];
+	}
+}
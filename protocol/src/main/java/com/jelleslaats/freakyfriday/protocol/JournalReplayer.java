@@ -0,0 +1,45 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import java.util.List;
+
+/**
+ * Feeds the inbound messages of a {@link MessageJournal} back into a client as if the receiver
+ * were sending them again, to reproduce a bug or to profile the client on a real game. What the
+ * client sends in response goes wherever its transport sends it; the recorded outbound messages
+ * are only there to compare against.
+ */
+public final class JournalReplayer {
+	private JournalReplayer() {
+	}
+
+	/**
+	 * Delivers the inbound records on the calling thread, in the order they were recorded.
+	 *
+	 * @param realTime wait out the recorded gaps between messages, rather than going as fast as
+	 *                 the listener takes them
+	 * @return the number of messages delivered
+	 */
+	public static int replay(List<MessageJournal.Record> records, Transport.Listener listener, boolean realTime)
+			throws InterruptedException {
+		int delivered = 0;
+		long firstRecorded = 0;
+		long started = System.nanoTime();
+		for (MessageJournal.Record record : records) {
+			if (record.direction != MessageJournal.INBOUND) {
+				continue;
+			}
+			if (realTime) {
+				if (delivered == 0) {
+					firstRecorded = record.timestampNanos;
+				}
+				long waitNanos = (record.timestampNanos - firstRecorded) - (System.nanoTime() - started);
+				if (waitNanos > 0) {
+					Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+				}
+			}
+			listener.onMessage(record.message);
+			++delivered;
+		}
+		return delivered;
+	}
+}
@@ -0,0 +1,49 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+/**
+ * String escaping for code that writes JSON by hand.
+ */
+public final class JsonText {
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private JsonText() {
+	}
+
+	// Appends the value as a quoted JSON string.
+	public static void appendQuoted(StringBuilder out, String value) {
+		out.append('"');
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					out.append("\\\"");
+					break;
+				case '\\':
+					out.append("\\\\");
+					break;
+				case '\n':
+					out.append("\\n");
+					break;
+				case '\r':
+					out.append("\\r");
+					break;
+				case '\t':
+					out.append("\\t");
+					break;
+				default:
+					// control characters, and the separators JavaScript doesn't allow in strings
+					if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+						out.append("\\u")
+								.append(HEX_DIGITS[(c >> 12) & 0xF])
+								.append(HEX_DIGITS[(c >> 8) & 0xF])
+								.append(HEX_DIGITS[(c >> 4) & 0xF])
+								.append(HEX_DIGITS[c & 0xF]);
+					}
+					else {
+						out.append(c);
+					}
+			}
+		}
+		out.append('"');
+	}
+}
@@ -0,0 +1,114 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram in microseconds. Values below 16 get a bucket each; above that
+ * every power of two is split into 8 buckets, so percentiles are accurate to within 12.5%
+ * across the whole range. Recording is a couple of atomic increments and never allocates.
+ */
+public final class LatencyHistogram {
+	private static final int EXACT_BUCKETS = 16;
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// exponents 4 through 62 cover every positive long
+	private static final int BUCKETS = EXACT_BUCKETS + (63 - 4) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void recordNanos(long nanos) {
+		record(nanos / 1000);
+	}
+
+	public void recordMillis(long millis) {
+		record(millis * 1000);
+	}
+
+	public void record(long micros) {
+		if (micros < 0) {
+			micros = 0;
+		}
+		buckets.incrementAndGet(indexOf(micros));
+		count.incrementAndGet();
+		sum.addAndGet(micros);
+
+		long currentMax = max.get();
+		while (micros > currentMax && !max.compareAndSet(currentMax, micros)) {
+			currentMax = max.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMaxMicros() {
+		return max.get();
+	}
+
+	public long getMeanMicros() {
+		long n = count.get();
+		return n == 0 ? 0 : sum.get() / n;
+	}
+
+	/**
+	 * The value at the given percentile (0-100), reported as the upper end of its bucket, or 0
+	 * if nothing has been recorded.
+	 */
+	public long getPercentileMicros(double percentile) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; ++i) {
+			snapshot[i] = buckets.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; ++i) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	private static int indexOf(long value) {
+		if (value < EXACT_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return EXACT_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long lowerBoundOf(int index) {
+		if (index < EXACT_BUCKETS) {
+			return index;
+		}
+		int exponent = (index - EXACT_BUCKETS) / SUB_BUCKETS + 4;
+		int subBucket = (index - EXACT_BUCKETS) % SUB_BUCKETS;
+		return (1L << exponent) + ((long) subBucket << (exponent - SUB_BUCKET_BITS));
+	}
+
+	private static long upperBoundOf(int index) {
+		return index + 1 < BUCKETS ? lowerBoundOf(index + 1) - 1 : Long.MAX_VALUE;
+	}
+}
@@ -0,0 +1,51 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+/**
+ * In-memory transport for running the protocol on a plain JVM. Every message sent goes straight
+ * to a {@link Receiver}, which answers through {@link #deliver(String)}.
+ */
+public final class LoopbackTransport implements Transport {
+
+	/**
+	 * Stands in for the receiver. Called on the thread that sent the message.
+	 */
+	public interface Receiver {
+		void onMessage(String message, LoopbackTransport transport);
+	}
+
+	private final Receiver receiver;
+	private volatile Listener listener;
+	private volatile boolean connected = true;
+
+	public LoopbackTransport(Receiver receiver) {
+		this.receiver = receiver;
+	}
+
+	@Override
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	// While disconnected every send fails, like a phone without a Cast session.
+	public void setConnected(boolean connected) {
+		this.connected = connected;
+	}
+
+	@Override
+	public boolean send(String message, SendCallback callback) {
+		if (!connected) {
+			return false;
+		}
+		callback.onSent(true);
+		receiver.onMessage(message, this);
+		return true;
+	}
+
+	// Hands a message from the receiver to the listener, on the calling thread.
+	public void deliver(String message) {
+		Listener current = listener;
+		if (current != null) {
+			current.onMessage(message);
+		}
+	}
+}
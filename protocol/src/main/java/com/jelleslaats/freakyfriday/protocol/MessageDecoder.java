@@ -0,0 +1,186 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Streaming decoder for messages coming in from the receiver. The type field is read first and the
+ * rest of the payload is read by the type's {@link JsonMessages} holder, so no JSON tree is built
+ * for a message that is only walked once.
+ */
+final class MessageDecoder {
+	private static final Card[] NO_CARDS = new Card[0];
+	private static final int[] NO_IDS = new int[0];
+	// how a message starts when the receiver puts the type first, as it normally does
+	private static final String TYPE_FIRST = "{" + ProtocolSchema.NAME_TYPE;
+	private static final String PLAYER_JOINED_FIRST = TYPE_FIRST + '"' + ProtocolSchema.EVENT_PLAYER_JOINED + '"';
+
+	/**
+	 * Receives the typed events produced by {@link #decode(String, Callbacks)}.
+	 */
+	interface Callbacks {
+		void onPlayerQueued();
+		// format is the binary format the receiver agreed to, or null to stay on JSON;
+		// compression likewise, or null to send everything as it is; cardPack is the hash of
+		// the card pack it agreed we share, or null if it sends every card's text; reads is
+		// ProtocolClient.BATCHED_READS if it takes several reads in one command, or null;
+		// retries is ProtocolClient.DEDUPLICATED_RETRIES if it drops repeated request IDs, or
+		// null; resumeToken takes this seat back when joining again, or is null if the receiver
+		// doesn't issue one
+		void onPlayerJoined(int newID, String format, String compression, String cardPack, String reads,
+				String retries, String resumeToken);
+		void onJudgeModeStarted();
+		// handVersion is Hand.UNVERSIONED if the receiver doesn't version hands
+		void onGameSync(int playerID, int handVersion, Card[] hand, int newJudge);
+		void onHandDelta(int playerID, int baseVersion, int handVersion, Card[] added, int[] removedIDs, int newJudge);
+		void onJudgeResponses(Response[] responses);
+		// submitted is true if the player's cards for this round are already in, when catching up
+		void onRoundStarted(String newPrompt, int numOfBlanks, boolean submitted);
+		void onRoundEnded();
+		// requestID is -1 if the receiver didn't say which command it is answering
+		void onServerResponse(int responseCode, int requestID);
+	}
+
+	private MessageDecoder() {
+	}
+
+	/**
+	 * Decodes one message and hands the result to the matching callback.
+	 *
+	 * @return the type of the message, or null if it has no type or a type we don't know about
+	 * @throws IOException if the message isn't valid JSON
+	 * @throws IllegalStateException if a value has the wrong type or a required key is missing
+	 */
+	static String decode(String msg, Callbacks callbacks) throws IOException {
+		JsonReader reader = new JsonReader(new StringReader(msg));
+		reader.beginObject();
+		if (!reader.hasNext()) {
+			return null;
+		}
+
+		// the receiver puts the type first, so normally we can carry on with the same reader
+		String event;
+		if (ProtocolSchema.KEY_TYPE.equals(reader.nextName())) {
+			event = reader.nextString();
+		}
+		else {
+			reader.skipValue();
+			event = findType(reader);
+			if (event == null) {
+				return null;
+			}
+			reader = new JsonReader(new StringReader(msg));
+			reader.beginObject();
+		}
+
+		switch (event) {
+			case ProtocolSchema.EVENT_PLAYER_QUEUED:
+				callbacks.onPlayerQueued();
+				return event;
+			case ProtocolSchema.EVENT_PLAYER_JOINED:
+				decodePlayerJoined(reader, callbacks);
+				return event;
+			case ProtocolSchema.EVENT_JUDGING_STARTED:
+				callbacks.onJudgeModeStarted();
+				return event;
+			case ProtocolSchema.EVENT_GAMESYNC:
+				decodeGameSync(reader, callbacks);
+				return event;
+			case ProtocolSchema.EVENT_JUDGE_SUBMISSIONS:
+				decodeJudgeSubmissions(reader, callbacks);
+				return event;
+			case ProtocolSchema.EVENT_ROUND_STARTED:
+				decodeRoundStarted(reader, callbacks);
+				return event;
+			case ProtocolSchema.EVENT_ROUND_ENDED:
+				callbacks.onRoundEnded();
+				return event;
+			case ProtocolSchema.EVENT_SERVER_RESPONSE:
+				decodeServerResponse(reader, callbacks);
+				return event;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Whether the message is a didJoin, without decoding it. Messages that start with their type
+	 * are only compared, so this is cheap enough to ask of every event.
+	 *
+	 * @throws IOException if the type has to be looked for and the message isn't valid JSON
+	 */
+	static boolean isPlayerJoined(String msg) throws IOException {
+		if (msg.startsWith(PLAYER_JOINED_FIRST)) {
+			return true;
+		}
+		if (msg.isEmpty() || msg.charAt(0) != '{' || msg.startsWith(TYPE_FIRST)) {
+			return false;
+		}
+		JsonReader reader = new JsonReader(new StringReader(msg));
+		reader.beginObject();
+		return ProtocolSchema.EVENT_PLAYER_JOINED.equals(findType(reader));
+	}
+
+	private static String findType(JsonReader reader) throws IOException {
+		while (reader.hasNext()) {
+			if (ProtocolSchema.KEY_TYPE.equals(reader.nextName())) {
+				return reader.nextString();
+			}
+			reader.skipValue();
+		}
+		return null;
+	}
+
+	private static void decodePlayerJoined(JsonReader reader, Callbacks callbacks) throws IOException {
+		JsonMessages.PlayerJoined joined = JsonMessages.PlayerJoined.read(reader);
+		callbacks.onPlayerJoined(joined.playerID, joined.format, joined.compression, joined.cardPack, joined.reads,
+				joined.retries, joined.resumeToken);
+	}
+
+	// A gameSync carries either the full hand or the cards added and removed since baseVersion.
+	private static void decodeGameSync(JsonReader reader, Callbacks callbacks) throws IOException {
+		JsonMessages.Gamesync sync = JsonMessages.Gamesync.read(reader);
+		JsonMessages.Player player = sync.playerObject;
+		if (player != null && player.hand != null) {
+			callbacks.onGameSync(player.id, player.handVersion, cards(player.hand), sync.judgeID);
+		}
+		else if (player != null && (player.addedCards != null || player.removedCardIDs != null)) {
+			callbacks.onHandDelta(player.id, player.baseVersion, player.handVersion,
+					player.addedCards != null ? cards(player.addedCards) : NO_CARDS,
+					player.removedCardIDs != null ? player.removedCardIDs : NO_IDS, sync.judgeID);
+		}
+		else {
+			throw new IllegalStateException("Missing key: " + ProtocolSchema.KEY_HAND);
+		}
+	}
+
+	private static void decodeJudgeSubmissions(JsonReader reader, Callbacks callbacks) throws IOException {
+		JsonMessages.Response[] read = JsonMessages.JudgeSubmissions.read(reader).responsesArray;
+		Response[] responses = new Response[read.length];
+		for (int i = 0; i < read.length; ++i) {
+			responses[i] = new Response(read[i].submitter, cards(read[i].cards));
+		}
+		callbacks.onJudgeResponses(responses);
+	}
+
+	private static void decodeRoundStarted(JsonReader reader, Callbacks callbacks) throws IOException {
+		JsonMessages.RoundStarted started = JsonMessages.RoundStarted.read(reader);
+		callbacks.onRoundStarted(started.promptString, started.numOfBlanks, started.submitted);
+	}
+
+	private static void decodeServerResponse(JsonReader reader, Callbacks callbacks) throws IOException {
+		JsonMessages.ServerResponse response = JsonMessages.ServerResponse.read(reader);
+		callbacks.onServerResponse(response.responseCode, response.requestID);
+	}
+
+	// No text when the receiver knows we have its card pack.
+	private static Card[] cards(JsonMessages.Card[] read) {
+		Card[] cards = new Card[read.length];
+		for (int i = 0; i < read.length; ++i) {
+			cards[i] = CardRegistry.get().obtain(read[i].id, read[i].text);
+		}
+		return cards;
+	}
+}
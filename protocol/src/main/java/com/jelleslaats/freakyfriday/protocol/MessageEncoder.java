@@ -0,0 +1,96 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+/**
+ * Builds the JSON for every command sent to the receiver. Pure Java, so it can be benchmarked
+ * off-device. Each command is filled into its {@link JsonMessages} holder, which writes it
+ * straight into a StringBuilder instead of going through a JSON tree.
+ */
+final class MessageEncoder {
+	private static final String[] FORMATS = {BinaryFormat.NAME};
+	private static final String[] COMPRESSION = {PayloadCompressor.NAME};
+	private static final String[] SEQUENCING = {EventSequence.NAME};
+	private static final String[] READS = {ProtocolClient.BATCHED_READS};
+	private static final String[] RETRIES = {ProtocolClient.DEDUPLICATED_RETRIES};
+
+	private MessageEncoder() {
+	}
+
+	// Offers the binary format, compression, event sequencing, batched reads, retries and the card
+	// pack, if there is one (cardPack is its hash name, or null), and presents the token from the
+	// last didJoin, if any, to get the same seat back; receivers that don't know them ignore the
+	// keys.
+	static String joinGame(int requestID, String name, String cardPack, String resumeToken) {
+		JsonMessages.Join join = new JsonMessages.Join();
+		join.requestID = requestID;
+		join.name = name;
+		join.formats = FORMATS;
+		join.compression = COMPRESSION;
+		join.sequencing = SEQUENCING;
+		join.reads = READS;
+		join.retries = RETRIES;
+		join.cardPack = cardPack;
+		join.resumeToken = resumeToken;
+		return join.toJson();
+	}
+
+	static String leaveGame(int requestID) {
+		JsonMessages.Leave leave = new JsonMessages.Leave();
+		leave.requestID = requestID;
+		return leave.toJson();
+	}
+
+	static String updateSettings(int requestID, String name) {
+		JsonMessages.UpdateSettings update = new JsonMessages.UpdateSettings();
+		update.requestID = requestID;
+		update.name = name;
+		return update.toJson();
+	}
+
+	static String submitResponse(int requestID, int[] cardIDs) {
+		JsonMessages.SubmitCard submit = new JsonMessages.SubmitCard();
+		submit.requestID = requestID;
+		submit.cardIDArray = cardIDs;
+		return submit.toJson();
+	}
+
+	static String declareWinner(int requestID, int winnerID) {
+		JsonMessages.SubmitWinner submit = new JsonMessages.SubmitWinner();
+		submit.requestID = requestID;
+		submit.chosenWinner = winnerID;
+		return submit.toJson();
+	}
+
+	static String readSubmission(int requestID, int[] cardIDs) {
+		JsonMessages.HaveReadSubmission read = new JsonMessages.HaveReadSubmission();
+		read.requestID = requestID;
+		read.cardIDArray = cardIDs;
+		return read.toJson();
+	}
+
+	static String readSubmissions(int requestID, int[][] submissionsRead) {
+		JsonMessages.HaveReadSubmissions read = new JsonMessages.HaveReadSubmissions();
+		read.requestID = requestID;
+		read.submissionsThatWereRead = submissionsRead;
+		return read.toJson();
+	}
+
+	static String startNextRound(int requestID) {
+		JsonMessages.StartNextRound start = new JsonMessages.StartNextRound();
+		start.requestID = requestID;
+		return start.toJson();
+	}
+
+	static String requestGameSync(int requestID, int handVersion) {
+		JsonMessages.RequestGamesync request = new JsonMessages.RequestGamesync();
+		request.requestID = requestID;
+		request.handVersion = handVersion;
+		return request.toJson();
+	}
+
+	static String resync(int requestID, int after) {
+		JsonMessages.Resync resync = new JsonMessages.Resync();
+		resync.requestID = requestID;
+		resync.resyncAfter = after;
+		return resync.toJson();
+	}
+}
@@ -0,0 +1,249 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Every message in and out, kept in a memory-mapped ring file so the last stretch of a game can
+ * be looked at, or replayed with {@link JournalReplayer}, after something went wrong. Appending
+ * is a copy into the mapping with no system call, so it's cheap enough for the main thread. The
+ * file survives the app crashing, and opening it again carries on after the last record.
+ *
+ * The file starts with a header holding the ring's bounds. Each record after it is an int of
+ * (payload length << 1 | direction), the System.nanoTime() it was recorded at, and the payload
+ * as UTF-8. A record never straddles the end of the file; the space left at the end is skipped
+ * and marked with {@link #WRAP} if there is room for it. Once the ring is full the oldest
+ * records are dropped to make room.
+ */
+public final class MessageJournal implements Closeable {
+	public static final int INBOUND = 0;
+	public static final int OUTBOUND = 1;
+
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+
+	private static final int MAGIC = 0x46464A31; // "FFJ1"
+	// magic, capacity, head, tail, record count, then padding to keep the records 8-aligned
+	private static final int HEADER_SIZE = 32;
+	private static final int OFFSET_CAPACITY = 4;
+	private static final int OFFSET_HEAD = 8;
+	private static final int OFFSET_TAIL = 16;
+	private static final int OFFSET_COUNT = 24;
+	private static final int RECORD_HEADER_SIZE = 12;
+	private static final int WRAP = -1;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * One message as it went over the wire.
+	 */
+	public static final class Record {
+		public final int direction;
+		public final long timestampNanos;
+		public final String message;
+
+		Record(int direction, long timestampNanos, String message) {
+			this.direction = direction;
+			this.timestampNanos = timestampNanos;
+			this.message = message;
+		}
+	}
+
+	private final MappedByteBuffer buffer;
+	private final int dataSize;
+	// logical positions that only ever grow; a record's place in the file is HEADER_SIZE + position % dataSize
+	private long head;
+	private long tail;
+	private int count;
+	private long dropped;
+	private boolean closed;
+
+	private MessageJournal(MappedByteBuffer buffer, int capacity) {
+		this.buffer = buffer;
+		this.dataSize = capacity - HEADER_SIZE;
+	}
+
+	/**
+	 * Maps the journal at file, creating it if needed. An existing journal of the same capacity
+	 * is appended to; anything else there is started over.
+	 */
+	public static MessageJournal open(File file, int capacity) throws IOException {
+		if (capacity < HEADER_SIZE + RECORD_HEADER_SIZE) {
+			throw new IllegalArgumentException("Capacity too small: " + capacity);
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		MappedByteBuffer buffer;
+		try {
+			raf.setLength(capacity);
+			// the mapping stays valid after the channel is closed
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		}
+		finally {
+			raf.close();
+		}
+
+		MessageJournal journal = new MessageJournal(buffer, capacity);
+		if (!journal.readHeader(capacity)) {
+			journal.clear();
+		}
+		return journal;
+	}
+
+	private boolean readHeader(int capacity) {
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(OFFSET_CAPACITY) != capacity) {
+			return false;
+		}
+		head = buffer.getLong(OFFSET_HEAD);
+		tail = buffer.getLong(OFFSET_TAIL);
+		count = buffer.getInt(OFFSET_COUNT);
+		return tail >= 0 && head >= tail && head - tail <= dataSize && count >= 0;
+	}
+
+	private void writeHeader() {
+		buffer.putLong(OFFSET_HEAD, head);
+		buffer.putLong(OFFSET_TAIL, tail);
+		buffer.putInt(OFFSET_COUNT, count);
+	}
+
+	public synchronized void clear() {
+		head = 0;
+		tail = 0;
+		count = 0;
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(OFFSET_CAPACITY, HEADER_SIZE + dataSize);
+		writeHeader();
+	}
+
+	/**
+	 * Adds a message to the journal, dropping the oldest ones if there's no room. Messages too
+	 * big for the whole ring aren't kept, and neither is anything after {@link #close()}.
+	 */
+	public synchronized void append(int direction, long timestampNanos, String message) {
+		int length = Metrics.utf8Length(message);
+		int size = RECORD_HEADER_SIZE + length;
+		if (closed || size > dataSize) {
+			++dropped;
+			return;
+		}
+
+		int offset = (int) (head % dataSize);
+		if (offset + size > dataSize) {
+			int skipped = dataSize - offset;
+			reserve(skipped);
+			if (skipped >= 4) {
+				buffer.putInt(HEADER_SIZE + offset, WRAP);
+			}
+			head += skipped;
+			offset = 0;
+		}
+		reserve(size);
+		// the bounds go out before the bytes they make room for, so a crash leaves a readable ring
+		writeHeader();
+
+		int position = HEADER_SIZE + offset;
+		buffer.putInt(position, length << 1 | direction);
+		buffer.putLong(position + 4, timestampNanos);
+		putUtf8(position + RECORD_HEADER_SIZE, message);
+		head += size;
+		++count;
+		writeHeader();
+	}
+
+	// Drops the oldest records until the next bytes fit.
+	private void reserve(int bytes) {
+		while (head + bytes - tail > dataSize) {
+			int offset = (int) (tail % dataSize);
+			int word = dataSize - offset >= 4 ? buffer.getInt(HEADER_SIZE + offset) : WRAP;
+			if (word == WRAP) {
+				tail += dataSize - offset;
+			}
+			else {
+				tail += RECORD_HEADER_SIZE + (word >>> 1);
+				--count;
+			}
+		}
+	}
+
+	// Must agree with Metrics.utf8Length, which sized the record.
+	private void putUtf8(int position, String value) {
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				buffer.put(position++, (byte) c);
+			}
+			else if (c < 0x800) {
+				buffer.put(position++, (byte) (0xC0 | (c >> 6)));
+				buffer.put(position++, (byte) (0x80 | (c & 0x3F)));
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer.put(position++, (byte) (0xF0 | (codePoint >> 18)));
+				buffer.put(position++, (byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+				buffer.put(position++, (byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+				buffer.put(position++, (byte) (0x80 | (codePoint & 0x3F)));
+			}
+			else {
+				buffer.put(position++, (byte) (0xE0 | (c >> 12)));
+				buffer.put(position++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put(position++, (byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	// Every record still in the ring, oldest first.
+	public synchronized List<Record> records() {
+		List<Record> records = new ArrayList<Record>(count);
+		byte[] payload = new byte[0];
+		long position = tail;
+		while (position < head) {
+			int offset = (int) (position % dataSize);
+			int word = dataSize - offset >= 4 ? buffer.getInt(HEADER_SIZE + offset) : WRAP;
+			if (word == WRAP) {
+				position += dataSize - offset;
+				continue;
+			}
+			int length = word >>> 1;
+			if (offset + RECORD_HEADER_SIZE + length > dataSize) {
+				// only a torn write leaves a record running off the end
+				break;
+			}
+			if (payload.length < length) {
+				payload = new byte[length];
+			}
+			int start = HEADER_SIZE + offset + RECORD_HEADER_SIZE;
+			for (int i = 0; i < length; ++i) {
+				payload[i] = buffer.get(start + i);
+			}
+			records.add(new Record(word & 1, buffer.getLong(HEADER_SIZE + offset + 4),
+					new String(payload, 0, length, UTF_8)));
+			position += RECORD_HEADER_SIZE + length;
+		}
+		return records;
+	}
+
+	public synchronized int size() {
+		return count;
+	}
+
+	// Messages that weren't kept because they were bigger than the ring or came after close().
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Flushes the journal to the file and stops recording. The mapping itself goes away with
+	 * the garbage collector.
+	 */
+	@Override
+	public synchronized void close() {
+		if (!closed) {
+			closed = true;
+			buffer.force();
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide metrics: message counts and byte counts per event type in each direction, how
+ * well large messages compress, and named latency histograms. Recording is lock-free and can happen on any thread.
+ */
+public final class Metrics {
+	// time spent decoding one inbound message
+	public static final String DECODE = "decode";
+	// time from a message arriving to the UI showing its result
+	public static final String MESSAGE_TO_UI = "messageToUi";
+	// time from queueing a command to the receiver answering it
+	public static final String COMMAND_ROUND_TRIP = "commandRoundTrip";
+	// time spent deflating or inflating one large message
+	public static final String COMPRESS = "compress";
+	public static final String DECOMPRESS = "decompress";
+	// cold start, from the process starting to each startup phase finishing
+	public static final String STARTUP_FIRST_FRAME = "startupFirstFrame";
+	public static final String STARTUP_PREFERENCES = "startupPreferences";
+	public static final String STARTUP_CAST_READY = "startupCastReady";
+	// time laying out the card texts of a new hand or set of responses on the game-state thread,
+	// and laying out one on the main thread because it wasn't ready when its row was bound
+	public static final String CARD_LAYOUT = "cardLayout";
+	public static final String CARD_LAYOUT_ON_MAIN = "cardLayoutOnMain";
+
+	private static final Metrics INSTANCE = new Metrics();
+
+	/**
+	 * Number of messages of one type and the bytes they took on the wire.
+	 */
+	static final class MessageCounter {
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong bytes = new AtomicLong();
+	}
+
+	private final ConcurrentHashMap<String, MessageCounter> inbound = new ConcurrentHashMap<String, MessageCounter>();
+	private final ConcurrentHashMap<String, MessageCounter> outbound = new ConcurrentHashMap<String, MessageCounter>();
+	private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+	// messages we compressed, and their sizes before and after
+	private final MessageCounter uncompressed = new MessageCounter();
+	private final MessageCounter compressed = new MessageCounter();
+	// frames that rendered game state, the state updates they covered, and the most in one frame
+	private final AtomicLong renderedFrames = new AtomicLong();
+	private final AtomicLong renderedUpdates = new AtomicLong();
+	private final AtomicLong maxUpdatesPerFrame = new AtomicLong();
+
+	private Metrics() {
+	}
+
+	public static Metrics get() {
+		return INSTANCE;
+	}
+
+	public void recordInbound(String type, int bytes) {
+		record(inbound, type, bytes);
+	}
+
+	public void recordOutbound(String type, int bytes) {
+		record(outbound, type, bytes);
+	}
+
+	public void recordCompression(int rawBytes, int compressedBytes) {
+		uncompressed.count.incrementAndGet();
+		uncompressed.bytes.addAndGet(rawBytes);
+		compressed.count.incrementAndGet();
+		compressed.bytes.addAndGet(compressedBytes);
+	}
+
+	// One frame rendering the result of this many state updates, all but the last conflated.
+	public void recordRender(int updates) {
+		renderedFrames.incrementAndGet();
+		renderedUpdates.addAndGet(updates);
+		long max = maxUpdatesPerFrame.get();
+		while (updates > max && !maxUpdatesPerFrame.compareAndSet(max, updates)) {
+			max = maxUpdatesPerFrame.get();
+		}
+	}
+
+	// Compressed size over original size, for the messages that were compressed.
+	public double getCompressionRatio() {
+		long raw = uncompressed.bytes.get();
+		return raw == 0 ? 1 : (double) compressed.bytes.get() / raw;
+	}
+
+	public LatencyHistogram histogram(String name) {
+		LatencyHistogram histogram = histograms.get(name);
+		if (histogram == null) {
+			LatencyHistogram created = new LatencyHistogram();
+			histogram = histograms.putIfAbsent(name, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	public void reset() {
+		inbound.clear();
+		outbound.clear();
+		for (MessageCounter counter : new MessageCounter[]{uncompressed, compressed}) {
+			counter.count.set(0);
+			counter.bytes.set(0);
+		}
+		renderedFrames.set(0);
+		renderedUpdates.set(0);
+		maxUpdatesPerFrame.set(0);
+		for (LatencyHistogram histogram : histograms.values()) {
+			histogram.reset();
+		}
+	}
+
+	// Number of bytes the string takes as UTF-8, without encoding it.
+	public static int utf8Length(String s) {
+		int length = 0;
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			}
+			else if (c < 0x800) {
+				length += 2;
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+				length += 4;
+				++i;
+			}
+			else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	// Human-readable summary for the debug overlay.
+	public String summary() {
+		StringBuilder out = new StringBuilder();
+		for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(histograms).entrySet()) {
+			LatencyHistogram histogram = entry.getValue();
+			out.append(String.format(Locale.US, "%s  n=%d  p50=%.2fms  p99=%.2fms  max=%.2fms%n",
+					entry.getKey(), histogram.getCount(),
+					histogram.getPercentileMicros(50) / 1000.0,
+					histogram.getPercentileMicros(99) / 1000.0,
+					histogram.getMaxMicros() / 1000.0));
+		}
+		appendCounters(out, "in", inbound);
+		appendCounters(out, "out", outbound);
+		out.append(String.format(Locale.US, "compression  n=%d  bytes=%d->%d  ratio=%.2f%n",
+				compressed.count.get(), uncompressed.bytes.get(), compressed.bytes.get(), getCompressionRatio()));
+		out.append(String.format(Locale.US, "renders  frames=%d  updates=%d  conflated=%d  maxPerFrame=%d%n",
+				renderedFrames.get(), renderedUpdates.get(), renderedUpdates.get() - renderedFrames.get(),
+				maxUpdatesPerFrame.get()));
+
+		CardRegistry cards = CardRegistry.get();
+		out.append(String.format(Locale.US, "cards  hits=%d  misses=%d  evictions=%d%n",
+				cards.getHits(), cards.getMisses(), cards.getEvictions()));
+		return out.toString();
+	}
+
+	// Snapshot of everything as JSON, for comparing devices and networks.
+	public String toJson() {
+		StringWriter out = new StringWriter();
+		JsonWriter writer = new JsonWriter(out);
+		try {
+			writer.beginObject();
+			writer.name("histograms").beginObject();
+			for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(histograms).entrySet()) {
+				LatencyHistogram histogram = entry.getValue();
+				writer.name(entry.getKey()).beginObject()
+						.name("count").value(histogram.getCount())
+						.name("meanMicros").value(histogram.getMeanMicros())
+						.name("p50Micros").value(histogram.getPercentileMicros(50))
+						.name("p90Micros").value(histogram.getPercentileMicros(90))
+						.name("p99Micros").value(histogram.getPercentileMicros(99))
+						.name("maxMicros").value(histogram.getMaxMicros())
+						.endObject();
+			}
+			writer.endObject();
+			writeCounters(writer, "inbound", inbound);
+			writeCounters(writer, "outbound", outbound);
+			writer.name("compression").beginObject()
+					.name("count").value(compressed.count.get())
+					.name("rawBytes").value(uncompressed.bytes.get())
+					.name("compressedBytes").value(compressed.bytes.get())
+					.name("ratio").value(getCompressionRatio())
+					.endObject();
+			writer.name("renders").beginObject()
+					.name("frames").value(renderedFrames.get())
+					.name("updates").value(renderedUpdates.get())
+					.name("conflated").value(renderedUpdates.get() - renderedFrames.get())
+					.name("maxUpdatesPerFrame").value(maxUpdatesPerFrame.get())
+					.endObject();
+
+			CardRegistry cards = CardRegistry.get();
+			writer.name("cardRegistry").beginObject()
+					.name("size").value(cards.size())
+					.name("hits").value(cards.getHits())
+					.name("misses").value(cards.getMisses())
+					.name("evictions").value(cards.getEvictions())
+					.endObject();
+			writer.endObject();
+			writer.close();
+		}
+		catch (IOException e) {
+			// a StringWriter doesn't throw
+			throw new IllegalStateException(e);
+		}
+		return out.toString();
+	}
+
+	private static void record(ConcurrentHashMap<String, MessageCounter> counters, String type, int bytes) {
+		MessageCounter counter = counters.get(type);
+		if (counter == null) {
+			MessageCounter created = new MessageCounter();
+			counter = counters.putIfAbsent(type, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		counter.count.incrementAndGet();
+		counter.bytes.addAndGet(bytes);
+	}
+
+	private static void appendCounters(StringBuilder out, String direction, ConcurrentHashMap<String, MessageCounter> counters) {
+		for (Map.Entry<String, MessageCounter> entry : new TreeMap<String, MessageCounter>(counters).entrySet()) {
+			out.append(String.format(Locale.US, "%s %s  n=%d  bytes=%d%n", direction, entry.getKey(),
+					entry.getValue().count.get(), entry.getValue().bytes.get()));
+		}
+	}
+
+	private static void writeCounters(JsonWriter writer, String name, ConcurrentHashMap<String, MessageCounter> counters) throws IOException {
+		writer.name(name).beginObject();
+		for (Map.Entry<String, MessageCounter> entry : new TreeMap<String, MessageCounter>(counters).entrySet()) {
+			writer.name(entry.getKey()).beginObject()
+					.name("count").value(entry.getValue().count.get())
+					.name("bytes").value(entry.getValue().bytes.get())
+					.endObject();
+		}
+		writer.endObject();
+	}
+}
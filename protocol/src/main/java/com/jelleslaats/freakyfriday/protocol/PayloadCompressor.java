@@ -0,0 +1,149 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates large messages, offered by the app when it joins and used in each direction once the
+ * receiver confirms it in didJoin. A compressed message is {@link #FRAME_PREFIX} followed by the
+ * base64 of the deflated message; binary frames are deflated as their raw bytes rather than
+ * their base64. Messages under {@link #THRESHOLD_CHARS}, or that don't get smaller, go out as
+ * they are, so control messages never pay for it.
+ *
+ * <p>Both ends prime deflate with {@link #DICTIONARY}, so even the first hand of a session
+ * compresses well. Changing the dictionary means changing {@link #NAME}.
+ *
+ * <p>Not thread-safe; each thread needs its own.
+ */
+public final class PayloadCompressor {
+	// name offered in join and confirmed in didJoin
+	public static final String NAME = "deflate1";
+	public static final char FRAME_PREFIX = '%';
+
+	// messages shorter than this, in chars, aren't worth the CPU
+	public static final int THRESHOLD_CHARS = 512;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Preset dictionary: the keys and framing of the big events, then words that come up a lot in
+	 * card text. Deflate looks back from the end, so the most common strings come last.
+	 */
+	private static final byte[] DICTIONARY = (
+			" who when would just like really your own mother father best friend old new little big"
+			+ " something nothing everything someone nobody people man woman child baby dog cat"
+			+ " love money death god time night day life world body face hands"
+			+ " getting being having making doing eating drinking with without about from into"
+			+ " over after before while that this these those there here what which was were"
+			+ " have has had been will can not but all some more most very too only also"
+			+ " An A The the a an of and or in on to for my is it at by as his her their our"
+			+ "{\"type\":\"roundStarted\",\"prompt\":\"____.\",\"numOfBlanks\":"
+			+ "{\"type\":\"gameSync\",\"player\":{\"ID\":,\"baseVersion\":,\"handVersion\":,"
+			+ "\"added\":[],\"removed\":[],\"hand\":[],\"judge\":"
+			+ "{\"type\":\"judgeSubmissions\",\"responses\":[{\"submitter\":,\"cards\":["
+			+ "{\"type\":\"submissionsRead\",\"requestID\":,\"submissions\":[[],[],["
+			+ "{\"ID\":,\"text\":\"\"},{\"ID\":,\"text\":\".\"},{\"ID\":"
+	).getBytes(UTF_8);
+
+	private final byte[] chunk = new byte[4096];
+	// created when first used, since each direction only needs one of them
+	private Deflater deflater;
+	private Inflater inflater;
+
+	public static boolean isCompressed(String message) {
+		return !message.isEmpty() && message.charAt(0) == FRAME_PREFIX;
+	}
+
+	/**
+	 * The message compressed, or the message itself if it's small or doesn't compress.
+	 */
+	public String compress(String message) {
+		if (message.length() < THRESHOLD_CHARS) {
+			return message;
+		}
+
+		long start = System.nanoTime();
+		boolean frame = BinaryFormat.isFrame(message);
+		byte[] raw = frame ? Base64Text.decode(message, 1) : message.getBytes(UTF_8);
+		if (deflater == null) {
+			deflater = new Deflater(Deflater.BEST_SPEED);
+		}
+		deflater.reset();
+		deflater.setDictionary(DICTIONARY);
+		deflater.setInput(raw);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2);
+		while (!deflater.finished()) {
+			out.write(chunk, 0, deflater.deflate(chunk));
+		}
+		byte[] deflated = out.toByteArray();
+
+		// sizes on the wire, where frames are base64
+		int rawLength = frame ? message.length() : raw.length;
+		int compressedLength = 1 + (deflated.length + 2) / 3 * 4;
+		Metrics metrics = Metrics.get();
+		metrics.histogram(Metrics.COMPRESS).recordNanos(System.nanoTime() - start);
+		if (compressedLength >= rawLength) {
+			return message;
+		}
+		metrics.recordCompression(rawLength, compressedLength);
+
+		StringBuilder compressed = new StringBuilder(compressedLength);
+		compressed.append(FRAME_PREFIX);
+		Base64Text.encode(deflated, 0, deflated.length, compressed);
+		return compressed.toString();
+	}
+
+	/**
+	 * The message exactly as it was before {@link #compress(String)}.
+	 *
+	 * @throws IllegalStateException if it doesn't inflate
+	 * @throws IllegalArgumentException if it isn't base64
+	 */
+	public String decompress(String message) {
+		long start = System.nanoTime();
+		byte[] deflated = Base64Text.decode(message, 1);
+		if (inflater == null) {
+			inflater = new Inflater();
+		}
+		inflater.reset();
+		inflater.setInput(deflated);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(deflated.length * 4);
+		try {
+			while (!inflater.finished()) {
+				int length = inflater.inflate(chunk);
+				if (length == 0) {
+					if (inflater.needsDictionary()) {
+						inflater.setDictionary(DICTIONARY);
+					}
+					else if (inflater.needsInput()) {
+						throw new IllegalStateException("Compressed message ends early");
+					}
+				}
+				out.write(chunk, 0, length);
+			}
+		}
+		catch (DataFormatException e) {
+			throw new IllegalStateException("Can't inflate message", e);
+		}
+		byte[] raw = out.toByteArray();
+
+		String original;
+		// JSON always starts with '{'; a binary frame starts with its type code, which the schema
+		// keeps below it
+		if (raw.length > 0 && raw[0] == '{') {
+			original = new String(raw, UTF_8);
+		}
+		else {
+			StringBuilder frame = new StringBuilder(1 + (raw.length + 2) / 3 * 4);
+			frame.append(BinaryFormat.FRAME_PREFIX);
+			Base64Text.encode(raw, 0, raw.length, frame);
+			original = frame.toString();
+		}
+		Metrics.get().histogram(Metrics.DECOMPRESS).recordNanos(System.nanoTime() - start);
+		return original;
+	}
+}
@@ -0,0 +1,113 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+/**
+ * A command sent to the receiver. It stays pending until the receiver answers with a response
+ * carrying the same request ID, or until it runs out of retries. In a system trace, that wait is
+ * an async slice named after the command's type.
+ */
+public class PendingCommand {
+
+	/**
+	 * Called on the scheduler's thread once the command is finished one way or the other.
+	 */
+	public interface Callback {
+		void onCompleted(PendingCommand command, int responseCode);
+		void onFailed(PendingCommand command);
+	}
+
+	final String type;
+	final int requestID;
+	final String payload;
+	final long enqueuedAt;
+	final long deadline;
+
+	// managed by CommandQueue
+	int attempts = 0;
+	boolean awaitingAck = false;
+	Runnable timer;
+
+	private boolean done = false;
+	private boolean failed = false;
+	private int responseCode;
+	private long completedAt = -1;
+	private Callback callback;
+
+	PendingCommand(String type, int requestID, String payload, long enqueuedAt, long deadline) {
+		this.type = type;
+		this.requestID = requestID;
+		this.payload = payload;
+		this.enqueuedAt = enqueuedAt;
+		this.deadline = deadline;
+		ProtocolTrace.beginAsync(type, requestID);
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public int getRequestID() {
+		return requestID;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public boolean isDone() {
+		return done;
+	}
+
+	// Milliseconds from being queued until the receiver answered, or -1 if still pending.
+	public long getLatencyMillis() {
+		return done ? completedAt - enqueuedAt : -1;
+	}
+
+	/**
+	 * Sets the callback for this command. If the command has already finished the callback is
+	 * called right away.
+	 */
+	public PendingCommand setCallback(Callback callback) {
+		this.callback = callback;
+		if (done) {
+			deliver();
+		}
+		return this;
+	}
+
+	void complete(int responseCode, long now) {
+		this.responseCode = responseCode;
+		finish(false, now);
+	}
+
+	void fail(long now) {
+		finish(true, now);
+	}
+
+	private void finish(boolean failed, long now) {
+		if (done) {
+			return;
+		}
+		this.done = true;
+		this.failed = failed;
+		this.completedAt = now;
+		ProtocolTrace.endAsync(type, requestID);
+		deliver();
+	}
+
+	private void deliver() {
+		if (callback == null) {
+			return;
+		}
+		if (failed) {
+			callback.onFailed(this);
+		}
+		else {
+			callback.onCompleted(this, responseCode);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return type + "#" + requestID;
+	}
+}
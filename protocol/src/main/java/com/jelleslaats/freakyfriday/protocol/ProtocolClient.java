@@ -0,0 +1,451 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * The player's side of the game protocol: encodes commands, queues them until the receiver
+ * answers, and decodes what the receiver sends into the event handlers below. How messages
+ * travel is up to the {@link Transport}; when timers fire is up to the {@link Scheduler}.
+ */
+public abstract class ProtocolClient implements Transport.Listener {
+	private static final String TAG = ProtocolClient.class.getSimpleName();
+
+	//region error codes
+	public static final int ERROR_SENT_INVALID_MESSAGE_TYPE = -1;
+	public static final int ERROR_WRONG_NUMBER_OF_CARDS = 1;
+	public static final int ERROR_INVALID_WINNER_SUBMITTED = 2;
+	public static final int ERROR_JUDGED_BEFORE_CARDS_WERE_READ = 3;
+	public static final int ERROR_TRIED_TO_JOIN_WITH_BLANK_NAME = 4;
+	public static final int ERROR_TRIED_TO_START_ROUND_WHILE_ROUND_EXISTS = 5;
+	public static final int ERROR_TRIED_TO_START_ROUND_INSUFFICIENT_PLAYERS = 6;
+	//endregion
+
+	// offered in join: reads of several submissions in one submissionsRead instead of a
+	// submissionRead each
+	public static final String BATCHED_READS = "batch1";
+	// offered in join: commands the receiver already had are answered again by request ID instead
+	// of being applied twice, so one that went unanswered can safely be sent again
+	public static final String DEDUPLICATED_RETRIES = "dedup1";
+
+	private final Transport mTransport;
+	private final Scheduler mScheduler;
+	private final MessageDecoder.Callbacks mDecoderCallbacks = new DecoderCallbacks();
+	private final CommandQueue mCommandQueue;
+	// set on the decoding thread when the receiver agrees to the binary format or compression
+	private volatile boolean mBinary = false;
+	private volatile boolean mCompress = false;
+	private volatile boolean mBatchedReads = false;
+	// scheduler thread only
+	private final PayloadCompressor mCompressor = new PayloadCompressor();
+	// decoding thread only
+	private final PayloadCompressor mDecompressor = new PayloadCompressor();
+	private final BinaryMessageDecoder mBinaryDecoder = new BinaryMessageDecoder();
+	private final SequenceTracker mSequence = new SequenceTracker();
+	private volatile MessageJournal mJournal;
+	private volatile CardPackFile mCardPack;
+	// the seat the last didJoin gave us, set on the decoding thread
+	private volatile String mResumeToken;
+	private volatile int mPlayerID = -1;
+	private long mMessageReceivedAt;
+	private int mNextRequestID = 1 + new Random().nextInt(Integer.MAX_VALUE / 2);
+
+	protected ProtocolClient(Transport transport, Scheduler scheduler) {
+		mTransport = transport;
+		mScheduler = scheduler;
+		mCommandQueue = new CommandQueue(new CommandQueue.Transmitter() {
+			@Override
+			public boolean transmit(PendingCommand command) {
+				return ProtocolClient.this.transmit(command);
+			}
+		}, scheduler);
+		transport.setListener(this);
+	}
+
+	/**
+	 * Starts recording every message in and out to the journal, exactly as it went over the
+	 * wire, or stops recording if it's null.
+	 */
+	public final void setJournal(MessageJournal journal) {
+		mJournal = journal;
+	}
+
+	/**
+	 * The card pack to offer when joining. A receiver with the same pack sends cards without
+	 * their text, which is then looked up here. Set it before joining.
+	 */
+	public final void setCardPack(CardPackFile pack) {
+		mCardPack = pack;
+		CardRegistry.get().setPack(pack);
+	}
+
+	/**
+	 * Restores a seat from an earlier didJoin, such as one saved before the process was killed,
+	 * so the next join presents its token and the receiver gives the same seat back if it still
+	 * holds it. A null token forgets the seat.
+	 */
+	public final void setResumeToken(String token, int playerID) {
+		mResumeToken = token;
+		mPlayerID = token != null ? playerID : -1;
+	}
+
+	// The token from the last didJoin, or null if there's no seat to take back.
+	public final String getResumeToken() {
+		return mResumeToken;
+	}
+
+	// The player ID that goes with the resume token, or -1.
+	public final int getPlayerID() {
+		return mPlayerID;
+	}
+
+	/**
+	 * Called before each command is queued. Commands must all come from the scheduler's thread;
+	 * subclasses can check that here.
+	 */
+	protected void assertCommandThread() {
+	}
+
+	/**
+	 * Queues an encoded command, compressed if the receiver agreed to that and it's big enough.
+	 * The returned command completes when the receiver answers, or fails once retries run out.
+	 */
+	private PendingCommand sendMessage(String type, int requestID, String payload) {
+		if (mCompress) {
+			payload = mCompressor.compress(payload);
+		}
+		return mCommandQueue.enqueue(type, requestID, payload);
+	}
+
+	// Request IDs are handed out in the order commands are queued.
+	private int nextRequestID() {
+		assertCommandThread();
+		return mNextRequestID++;
+	}
+
+	// Hands a queued command to the transport.
+	private boolean transmit(final PendingCommand command) {
+		Metrics.get().recordOutbound(command.type, Metrics.utf8Length(command.payload));
+		MessageJournal journal = mJournal;
+		if (journal != null) {
+			journal.append(MessageJournal.OUTBOUND, System.nanoTime(), command.payload);
+		}
+		return mTransport.send(command.payload, new Transport.SendCallback() {
+			@Override
+			public void onSent(boolean success) {
+				mCommandQueue.onTransmitted(command, success);
+			}
+		});
+	}
+
+	// Fails every command that is still waiting for the receiver.
+	public final void cancelPendingCommands(){
+		mCommandQueue.failAll();
+	}
+
+	// All commands return the queued command. Joining is always plain JSON and offers the binary
+	// format, compression, event sequencing, batched reads, retries and the card pack; everything
+	// after that uses whichever the receiver took up in didJoin. Joining again after a reconnect presents
+	// the resume token, so the receiver can hand back the same seat and hand along with the game
+	// so far.
+
+	public final PendingCommand joinGame(String name){
+		String resumeToken = mResumeToken;
+		ProtocolLog.d(TAG, "join: " + name + (resumeToken != null ? ", resuming player " + mPlayerID : ""));
+		int requestID = nextRequestID();
+		mBinary = false;
+		mCompress = false;
+		mBatchedReads = false;
+		mCommandQueue.setResendUnanswered(false);
+		mSequence.expectNewSequence();
+		CardPackFile pack = mCardPack;
+		return sendMessage(ProtocolSchema.COMMAND_JOIN, requestID,
+				MessageEncoder.joinGame(requestID, name, pack != null ? pack.getHashName() : null, resumeToken));
+	}
+
+	public final PendingCommand leaveGame(){
+		ProtocolLog.d(TAG, "leaving");
+		// the seat is given up, so there's nothing to take back
+		setResumeToken(null, -1);
+		int requestID = nextRequestID();
+		return sendMessage(ProtocolSchema.COMMAND_LEAVE, requestID,
+				mBinary ? BinaryMessageEncoder.leaveGame(requestID) : MessageEncoder.leaveGame(requestID));
+	}
+
+	public final PendingCommand updateSettings(String name){
+		ProtocolLog.d(TAG, "updateSettings: " + name);
+		int requestID = nextRequestID();
+		return sendMessage(ProtocolSchema.COMMAND_UPDATE_SETTINGS, requestID,
+				mBinary ? BinaryMessageEncoder.updateSettings(requestID, name) : MessageEncoder.updateSettings(requestID, name));
+	}
+
+	public final PendingCommand submitResponse(int[] cardIDs){
+		int requestID = nextRequestID();
+		return sendMessage(ProtocolSchema.COMMAND_SUBMIT_CARD, requestID,
+				mBinary ? BinaryMessageEncoder.submitResponse(requestID, cardIDs) : MessageEncoder.submitResponse(requestID, cardIDs));
+	}
+
+	public final PendingCommand declareWinner(int winnerID){
+		int requestID = nextRequestID();
+		return sendMessage(ProtocolSchema.COMMAND_SUBMIT_WINNER, requestID,
+				mBinary ? BinaryMessageEncoder.declareWinner(requestID, winnerID) : MessageEncoder.declareWinner(requestID, winnerID));
+	}
+
+	/**
+	 * Tells the receiver the judge has seen these submissions: in one command if it confirmed
+	 * batched reads, otherwise in a submissionRead each, which every receiver understands.
+	 *
+	 * @return the last command queued, or null if there were no submissions
+	 */
+	public final PendingCommand readSubmissions(int[][] submissionsRead){
+		if (mBatchedReads) {
+			int requestID = nextRequestID();
+			return sendMessage(ProtocolSchema.COMMAND_HAVE_READ_SUBMISSIONS, requestID,
+					mBinary ? BinaryMessageEncoder.readSubmissions(requestID, submissionsRead) : MessageEncoder.readSubmissions(requestID, submissionsRead));
+		}
+		PendingCommand last = null;
+		for (int[] cardIDs : submissionsRead) {
+			int requestID = nextRequestID();
+			last = sendMessage(ProtocolSchema.COMMAND_HAVE_READ_SUBMISSION, requestID,
+					MessageEncoder.readSubmission(requestID, cardIDs));
+		}
+		return last;
+	}
+
+	public final PendingCommand startNextRound(){
+		ProtocolLog.d(TAG, "trying to start next round");
+		int requestID = nextRequestID();
+		return sendMessage(ProtocolSchema.COMMAND_START_NEXT_ROUND, requestID,
+				mBinary ? BinaryMessageEncoder.startNextRound(requestID) : MessageEncoder.startNextRound(requestID));
+	}
+
+	// Asks for a full gameSync, e.g. when a hand delta doesn't apply to the version we have.
+	public final PendingCommand requestGameSync(int handVersion){
+		int requestID = nextRequestID();
+		return sendMessage(ProtocolSchema.COMMAND_REQUEST_GAMESYNC, requestID,
+				mBinary ? BinaryMessageEncoder.requestGameSync(requestID, handVersion) : MessageEncoder.requestGameSync(requestID, handVersion));
+	}
+
+	/**
+	 * Asks the receiver for every event after the last one applied, e.g. after the session was
+	 * suspended and events may have gone missing. The player stays where they were in the game.
+	 *
+	 * @return null if the receiver doesn't number its events or hasn't sent any yet, in which
+	 *         case there's nothing to resync from and the player has to join again
+	 */
+	public final PendingCommand resync(){
+		int after = mSequence.last();
+		if (after == EventSequence.NONE) {
+			return null;
+		}
+		return resync(after);
+	}
+
+	// after is EventSequence.NONE to be caught up from scratch
+	private PendingCommand resync(int after) {
+		ProtocolLog.d(TAG, "resync after event " + after);
+		int requestID = nextRequestID();
+		return sendMessage(ProtocolSchema.COMMAND_RESYNC, requestID,
+				mBinary ? BinaryMessageEncoder.resync(requestID, after) : MessageEncoder.resync(requestID, after));
+	}
+
+	/**
+	 * Decodes the message on the thread it arrived on. Override to decode somewhere else, passing
+	 * the message on to {@link #decode(String, long)}.
+	 */
+	@Override
+	public void onMessage(String message) {
+		decode(message, System.nanoTime());
+	}
+
+	/**
+	 * Decodes one message and calls the matching handler. Messages must be decoded one at a time,
+	 * always on the same thread. Numbered events that were already applied are dropped, and so
+	 * are ones that show earlier events went missing, which asks the receiver to resync. One
+	 * that can't be decoded isn't taken as applied; the receiver is asked to catch us up from
+	 * scratch instead, since whatever it carried is lost.
+	 *
+	 * @param receivedAt when the message arrived, in System.nanoTime() terms
+	 */
+	protected final void decode(String msg, long receivedAt) {
+		mMessageReceivedAt = receivedAt;
+		MessageJournal journal = mJournal;
+		if (journal != null) {
+			journal.append(MessageJournal.INBOUND, receivedAt, msg);
+		}
+		String event = null;
+		long start = System.nanoTime();
+		int wireLength = Metrics.utf8Length(msg);
+		ProtocolTrace.begin("ProtocolClient.decode");
+		int seq = EventSequence.NONE;
+		try {
+			seq = EventSequence.seqOf(msg);
+			boolean startsSequence = false;
+			if (seq != EventSequence.NONE) {
+				msg = EventSequence.payloadOf(msg);
+				// didJoin is always plain JSON
+				startsSequence = MessageDecoder.isPlayerJoined(msg);
+				int verdict = mSequence.check(seq, startsSequence);
+				if (verdict == SequenceTracker.DUPLICATE) {
+					event = "duplicate";
+					return;
+				}
+				if (verdict == SequenceTracker.GAP) {
+					// dropped; the resync sends it again along with whatever went missing before it
+					event = "outOfSequence";
+					ProtocolLog.w(TAG, "Got event " + seq + " after " + mSequence.last() + ", resyncing");
+					requestResync(mSequence.last());
+					return;
+				}
+			}
+			if (PayloadCompressor.isCompressed(msg)) {
+				msg = mDecompressor.decompress(msg);
+			}
+			event = BinaryFormat.isFrame(msg)
+					? mBinaryDecoder.decode(msg, mDecoderCallbacks)
+					: MessageDecoder.decode(msg, mDecoderCallbacks);
+			if (event == null) {
+				// the whole message is in the journal, if one is recording
+				ProtocolLog.w(TAG, "Unknown message: " + (msg.length() > 200 ? msg.substring(0, 200) + "..." : msg));
+			}
+			if (seq != EventSequence.NONE) {
+				mSequence.applied(seq, startsSequence);
+			}
+		}
+		catch (IOException | IllegalStateException | IllegalArgumentException e) {
+			ProtocolLog.w(TAG, "Message doesn't contain an expected key.", e);
+			if (seq != EventSequence.NONE) {
+				requestResync(EventSequence.NONE);
+			}
+		}
+		finally {
+			Metrics metrics = Metrics.get();
+			metrics.histogram(Metrics.DECODE).recordNanos(System.nanoTime() - start);
+			metrics.recordInbound(event != null ? event : "unknown", wireLength);
+			ProtocolTrace.end();
+		}
+	}
+
+	private void requestResync(final int after) {
+		if (!mSequence.shouldRequestResync(after)) {
+			return;
+		}
+		// commands go out on the scheduler's thread
+		mScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				resync(after);
+			}
+		}, 0);
+	}
+
+	/**
+	 * When the message currently being handled arrived, in System.nanoTime() terms. Only
+	 * meaningful inside the event handlers.
+	 */
+	protected final long getMessageReceivedAt() {
+		return mMessageReceivedAt;
+	}
+
+	// Routes decoded events to the abstract handlers below.
+	private class DecoderCallbacks implements MessageDecoder.Callbacks {
+		@Override
+		public void onPlayerQueued() {
+			ProtocolLog.d(TAG, "Confirmed enqueued");
+			ProtocolClient.this.onPlayerQueued();
+		}
+
+		@Override
+		public void onPlayerJoined(int newID, String format, String compression, String cardPack, String reads,
+				String retries, String resumeToken) {
+			ProtocolLog.d(TAG, "Confirmed joined, format " + (format != null ? format : "json")
+					+ ", compression " + (compression != null ? compression : "none")
+					+ ", card pack " + (cardPack != null ? cardPack : "none")
+					+ ", reads " + (reads != null ? reads : "one by one")
+					+ ", retries " + (retries != null ? retries : "only failed sends"));
+			if (mResumeToken != null) {
+				ProtocolLog.d(TAG, newID == mPlayerID ? "Got seat " + newID + " back"
+						: "Seat " + mPlayerID + " was given up, now player " + newID);
+			}
+			setResumeToken(resumeToken, newID);
+			if (cardPack != null) {
+				CardPackFile pack = mCardPack;
+				if (pack == null || !cardPack.equals(pack.getHashName())) {
+					ProtocolLog.w(TAG, "Receiver confirmed card pack " + cardPack + ", which we didn't offer");
+				}
+				// cards now come as bare IDs, so drop any registered with another deck's text
+				CardRegistry.get().clear();
+			}
+			// the receiver starts a fresh string table with every join it confirms
+			mBinaryDecoder.reset();
+			mBinary = BinaryFormat.NAME.equals(format);
+			mCompress = PayloadCompressor.NAME.equals(compression);
+			mBatchedReads = BATCHED_READS.equals(reads);
+			mCommandQueue.setResendUnanswered(DEDUPLICATED_RETRIES.equals(retries));
+			ProtocolClient.this.onPlayerJoined(newID);
+		}
+
+		@Override
+		public void onJudgeModeStarted() {
+			ProtocolLog.d(TAG, "Judging mode starting");
+			ProtocolClient.this.onJudgeModeStarted();
+		}
+
+		@Override
+		public void onGameSync(int playerID, int handVersion, Card[] hand, int newJudge) {
+			ProtocolLog.d(TAG, "GameSync");
+			ProtocolClient.this.onGameSync(playerID, handVersion, hand, newJudge);
+		}
+
+		@Override
+		public void onHandDelta(int playerID, int baseVersion, int handVersion, Card[] added, int[] removedIDs, int newJudge) {
+			ProtocolLog.d(TAG, "GameSync delta " + baseVersion + " -> " + handVersion);
+			ProtocolClient.this.onHandDelta(playerID, baseVersion, handVersion, added, removedIDs, newJudge);
+		}
+
+		@Override
+		public void onJudgeResponses(Response[] responses) {
+			ProtocolLog.d(TAG, "You are judge");
+			ProtocolClient.this.onJudgeResponses(responses);
+		}
+
+		@Override
+		public void onRoundStarted(String newPrompt, int numOfBlanks, boolean submitted) {
+			ProtocolLog.d(TAG, "Round started");
+			ProtocolClient.this.onRoundStarted(newPrompt, numOfBlanks, submitted);
+		}
+
+		@Override
+		public void onRoundEnded() {
+			ProtocolLog.d(TAG, "Round ended");
+			ProtocolClient.this.onRoundEnded();
+		}
+
+		@Override
+		public void onServerResponse(final int responseCode, final int requestID) {
+			ProtocolLog.d(TAG, "Response received");
+			// the command queue lives on the scheduler's thread
+			mScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					mCommandQueue.onServerResponse(requestID, responseCode);
+					if (responseCode != 0) {
+						ProtocolClient.this.onServerError(responseCode);
+					}
+				}
+			}, 0);
+		}
+	}
+
+	// Event handlers run on the decoding thread, apart from onServerError which runs on the
+	// scheduler's thread. Commands can only be sent from the scheduler's thread.
+	protected abstract void onPlayerQueued();
+	protected abstract void onPlayerJoined(int newID);
+	protected abstract void onJudgeModeStarted();
+	protected abstract void onGameSync(int playerID, int handVersion, Card[] hand, int newJudge);
+	protected abstract void onHandDelta(int playerID, int baseVersion, int handVersion, Card[] added, int[] removedIDs, int newJudge);
+	protected abstract void onJudgeResponses(Response[] responses);
+	protected abstract void onRoundStarted(String newPrompt, int numOfBlanks, boolean submitted);
+	protected abstract void onRoundEnded();
+	protected abstract void onServerError(int errorCode);
+}
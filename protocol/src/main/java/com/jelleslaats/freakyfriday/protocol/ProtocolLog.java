@@ -0,0 +1,76 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+/**
+ * Logging for the code outside the app. Goes to stderr unless a logger is installed, which the app
+ * does to route everything to logcat.
+ */
+public final class ProtocolLog {
+
+	/**
+	 * Where log lines end up.
+	 */
+	public interface Logger {
+		void d(String tag, String message);
+		void i(String tag, String message);
+		void w(String tag, String message, Throwable error);
+		void e(String tag, String message, Throwable error);
+	}
+
+	private static final Logger STDERR = new Logger() {
+		@Override
+		public void d(String tag, String message) {
+			print("D", tag, message, null);
+		}
+
+		@Override
+		public void i(String tag, String message) {
+			print("I", tag, message, null);
+		}
+
+		@Override
+		public void w(String tag, String message, Throwable error) {
+			print("W", tag, message, error);
+		}
+
+		@Override
+		public void e(String tag, String message, Throwable error) {
+			print("E", tag, message, error);
+		}
+
+		private void print(String level, String tag, String message, Throwable error) {
+			System.err.println(level + "/" + tag + ": " + message);
+			if (error != null) {
+				error.printStackTrace();
+			}
+		}
+	};
+
+	private static volatile Logger sLogger = STDERR;
+
+	private ProtocolLog() {
+	}
+
+	public static void setLogger(Logger logger) {
+		sLogger = logger != null ? logger : STDERR;
+	}
+
+	public static void d(String tag, String message) {
+		sLogger.d(tag, message);
+	}
+
+	public static void i(String tag, String message) {
+		sLogger.i(tag, message);
+	}
+
+	public static void w(String tag, String message) {
+		sLogger.w(tag, message, null);
+	}
+
+	public static void w(String tag, String message, Throwable error) {
+		sLogger.w(tag, message, error);
+	}
+
+	public static void e(String tag, String message, Throwable error) {
+		sLogger.e(tag, message, error);
+	}
+}
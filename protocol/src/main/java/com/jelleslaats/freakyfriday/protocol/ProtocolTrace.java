@@ -0,0 +1,60 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+/**
+ * Named sections for system traces of the code outside the app, so decoding and each command's
+ * wait for its response show up by name instead of as anonymous work on some thread. Nothing is
+ * traced unless a tracer is installed, which the app only does in builds made for tracing; until
+ * then each call is one volatile read.
+ */
+public final class ProtocolTrace {
+
+	/**
+	 * Where sections end up.
+	 */
+	public interface Tracer {
+		// Sections nest, and each one ends on the thread it began on.
+		void beginSection(String name);
+		void endSection();
+		// Slices can end on any thread; the cookie tells apart slices of the same name in flight.
+		void beginAsyncSection(String name, int cookie);
+		void endAsyncSection(String name, int cookie);
+	}
+
+	private static volatile Tracer sTracer;
+
+	private ProtocolTrace() {
+	}
+
+	// Install before anything is traced, so no section ends that didn't begin with it.
+	public static void setTracer(Tracer tracer) {
+		sTracer = tracer;
+	}
+
+	public static void begin(String name) {
+		Tracer tracer = sTracer;
+		if (tracer != null) {
+			tracer.beginSection(name);
+		}
+	}
+
+	public static void end() {
+		Tracer tracer = sTracer;
+		if (tracer != null) {
+			tracer.endSection();
+		}
+	}
+
+	public static void beginAsync(String name, int cookie) {
+		Tracer tracer = sTracer;
+		if (tracer != null) {
+			tracer.beginAsyncSection(name, cookie);
+		}
+	}
+
+	public static void endAsync(String name, int cookie) {
+		Tracer tracer = sTracer;
+		if (tracer != null) {
+			tracer.endAsyncSection(name, cookie);
+		}
+	}
+}
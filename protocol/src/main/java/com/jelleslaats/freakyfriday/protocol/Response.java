@@ -1,4 +1,4 @@
-package com.jelleslaats.freakyfriday;
+package com.jelleslaats.freakyfriday.protocol;
 
 public class Response{
 	public int owner;
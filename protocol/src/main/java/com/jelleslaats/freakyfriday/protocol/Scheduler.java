@@ -0,0 +1,16 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+/**
+ * Runs the command queue's timers. Every task runs on the same thread, which is also the thread
+ * commands are sent from; on Android that's the main thread.
+ */
+public interface Scheduler {
+	// Runs the task after the delay, or as soon as possible for a delay of 0.
+	void schedule(Runnable task, long delayMillis);
+
+	// Removes the task if it hasn't run yet.
+	void cancel(Runnable task);
+
+	// Monotonic clock in milliseconds.
+	long now();
+}
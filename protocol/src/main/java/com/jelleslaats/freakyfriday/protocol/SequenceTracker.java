@@ -0,0 +1,83 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+/**
+ * The app's side of {@link EventSequence}: which numbered events to apply, which ones were
+ * already applied, and when events went missing. Checked on the decoding thread; the last
+ * number applied can be read from any thread.
+ *
+ * Only a didJoin starts a new sequence, and only one numbered past the last event applied,
+ * unless the app just joined and the receiver may be numbering from scratch. Anything else at
+ * or below the last number, 0 included, is a duplicate. An event only counts as applied once
+ * it's been decoded, so one that couldn't be isn't skipped over unnoticed.
+ */
+final class SequenceTracker {
+	static final int APPLY = 0;
+	// applied before; a resent event we already had
+	static final int DUPLICATE = 1;
+	// events are missing before this one, so it can't be applied yet
+	static final int GAP = 2;
+
+	private static final int NOT_REQUESTED = Integer.MIN_VALUE;
+
+	private volatile int last = EventSequence.NONE;
+	// set when joining, until a didJoin starts the new sequence
+	private volatile boolean restartExpected = false;
+	// the number we last asked to resync after since anything was applied, so one gap is only
+	// asked about once; EventSequence.NONE is a catch-up from scratch
+	private int resyncRequestedAfter = NOT_REQUESTED;
+
+	/**
+	 * What to do with a numbered event. Nothing changes until it's {@link #applied}.
+	 *
+	 * @param startsSequence whether the event is a didJoin
+	 */
+	int check(int seq, boolean startsSequence) {
+		if (seq == EventSequence.NONE) {
+			return APPLY;
+		}
+		if (startsSequence && (seq > last || restartExpected)) {
+			return APPLY;
+		}
+		if (seq <= last) {
+			return DUPLICATE;
+		}
+		if (seq > last + 1) {
+			return GAP;
+		}
+		return APPLY;
+	}
+
+	// The event check said to apply was decoded and handled.
+	void applied(int seq, boolean startsSequence) {
+		if (startsSequence) {
+			restartExpected = false;
+		}
+		last = seq;
+		resyncRequestedAfter = NOT_REQUESTED;
+	}
+
+	/**
+	 * Called when joining. The receiver numbers a new seat from 0, and so does one that started
+	 * over, so the didJoin that answers is taken even if its number was seen before.
+	 */
+	void expectNewSequence() {
+		restartExpected = true;
+	}
+
+	/**
+	 * Whether to ask for the events after the given one, or {@link EventSequence#NONE} for a
+	 * catch-up from scratch. False if that's already been asked and nothing was applied since,
+	 * or if a catch-up was, since it brings everything.
+	 */
+	boolean shouldRequestResync(int after) {
+		if (resyncRequestedAfter == after || resyncRequestedAfter == EventSequence.NONE) {
+			return false;
+		}
+		resyncRequestedAfter = after;
+		return true;
+	}
+
+	int last() {
+		return last;
+	}
+}
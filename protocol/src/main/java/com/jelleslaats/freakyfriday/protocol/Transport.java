@@ -0,0 +1,31 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+/**
+ * Carries messages between the protocol and a receiver. On a phone this is the Cast session;
+ * {@link LoopbackTransport} keeps everything in memory.
+ */
+public interface Transport {
+
+	/**
+	 * Gets every message the receiver sends, on whatever thread the transport delivers on.
+	 */
+	interface Listener {
+		void onMessage(String message);
+	}
+
+	/**
+	 * Told whether a message made it onto the wire. Called on the scheduler's thread.
+	 */
+	interface SendCallback {
+		void onSent(boolean success);
+	}
+
+	void setListener(Listener listener);
+
+	/**
+	 * Starts sending a message.
+	 *
+	 * @return false if there is nothing to send it over, in which case the callback isn't called
+	 */
+	boolean send(String message, SendCallback callback);
+}
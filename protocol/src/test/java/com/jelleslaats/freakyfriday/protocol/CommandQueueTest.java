@@ -0,0 +1,213 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CommandQueueTest {
+	private final FakeScheduler scheduler = new FakeScheduler();
+	private final FakeTransmitter transmitter = new FakeTransmitter();
+	private final CommandQueue queue = new CommandQueue(transmitter, scheduler);
+	private final long start = scheduler.now();
+
+	@Test
+	public void answerCompletesTheCommand() {
+		Outcome outcome = enqueue(7);
+		scheduler.advance(40);
+
+		assertSame(outcome.command, queue.onServerResponse(7, 0));
+		assertTrue(outcome.completed);
+		assertEquals(0, outcome.responseCode);
+		assertEquals(40, outcome.command.getLatencyMillis());
+		assertEquals(0, scheduler.pending());
+		// a repeated answer matches nothing
+		assertNull(queue.onServerResponse(7, 0));
+	}
+
+	@Test
+	public void unansweredCommandWaitsUntilItsDeadlineWithoutDedup() {
+		Outcome outcome = enqueue(7);
+		scheduler.advance(CommandQueue.DEADLINE_MS - 1);
+		assertEquals(Arrays.asList(0L), transmitter.sent);
+		assertFalse(outcome.finished());
+
+		scheduler.advance(1);
+		assertTrue(outcome.failed);
+		assertEquals(CommandQueue.DEADLINE_MS, outcome.at - start);
+		assertEquals(Arrays.asList(0L), transmitter.sent);
+	}
+
+	@Test
+	public void lateAnswerStillCountsWithoutDedup() {
+		Outcome outcome = enqueue(7);
+		scheduler.advance(CommandQueue.ACK_TIMEOUT_MS + 2000);
+		queue.onServerResponse(7, 5);
+		assertTrue(outcome.completed);
+		assertEquals(5, outcome.responseCode);
+		assertEquals(1, transmitter.sent.size());
+	}
+
+	@Test
+	public void unansweredCommandIsSentAgainWithDedup() {
+		queue.setResendUnanswered(true);
+		Outcome outcome = enqueue(7);
+		scheduler.advance(CommandQueue.DEADLINE_MS);
+
+		// each timeout backs off 250, 500, then 1000 ms, which would pass the deadline
+		long ack = CommandQueue.ACK_TIMEOUT_MS;
+		long base = CommandQueue.BASE_BACKOFF_MS;
+		assertEquals(Arrays.asList(0L, ack + base, 2 * ack + 3 * base), transmitter.sent);
+		assertTrue(outcome.failed);
+		assertEquals(3 * ack + 3 * base, outcome.at - start);
+	}
+
+	@Test
+	public void failedSendBacksOffUntilAttemptsRunOut() {
+		transmitter.failing = Integer.MAX_VALUE;
+		Outcome outcome = enqueue(7);
+		scheduler.advance(CommandQueue.DEADLINE_MS);
+
+		long base = CommandQueue.BASE_BACKOFF_MS;
+		assertEquals(Arrays.asList(0L, base, 3 * base, 7 * base), transmitter.sent);
+		assertEquals(CommandQueue.MAX_ATTEMPTS, outcome.command.getAttempts());
+		assertTrue(outcome.failed);
+		assertEquals(7 * base, outcome.at - start);
+	}
+
+	@Test
+	public void failureReportedDuringTheSendIsRetriedOnce() {
+		transmitter.failing = 1;
+		transmitter.reportDuringSend = true;
+		Outcome outcome = enqueue(7);
+		scheduler.advance(CommandQueue.BASE_BACKOFF_MS);
+
+		// not once for the report and again for the return value
+		assertEquals(Arrays.asList(0L, CommandQueue.BASE_BACKOFF_MS), transmitter.sent);
+		assertEquals(2, outcome.command.getAttempts());
+		queue.onServerResponse(7, 0);
+		assertTrue(outcome.completed);
+	}
+
+	@Test
+	public void failureReportedLaterIsRetriedFromThen() {
+		Outcome outcome = enqueue(7);
+		scheduler.advance(100);
+		queue.onTransmitted(outcome.command, false);
+		scheduler.advance(CommandQueue.BASE_BACKOFF_MS);
+
+		assertEquals(Arrays.asList(0L, 100 + CommandQueue.BASE_BACKOFF_MS), transmitter.sent);
+		queue.onServerResponse(7, 0);
+		assertTrue(outcome.completed);
+	}
+
+	@Test
+	public void failedSendReportedAfterTheAnswerChangesNothing() {
+		Outcome outcome = enqueue(7);
+		queue.onServerResponse(7, 0);
+		queue.onTransmitted(outcome.command, false);
+		scheduler.advance(CommandQueue.DEADLINE_MS);
+		assertEquals(1, transmitter.sent.size());
+		assertTrue(outcome.completed);
+	}
+
+	@Test
+	public void failAllFailsEverythingPending() {
+		Outcome first = enqueue(7);
+		Outcome second = enqueue(8);
+		queue.failAll();
+
+		assertTrue(first.failed);
+		assertTrue(second.failed);
+		assertEquals(0, scheduler.pending());
+		assertNull(queue.onServerResponse(7, 0));
+		assertFalse(first.completed);
+	}
+
+	@Test
+	public void fullQueueTurnsCommandsAway() {
+		for (int i = 0; i < CommandQueue.MAX_QUEUED; ++i) {
+			assertFalse(enqueue(i).finished());
+		}
+		Outcome rejected = enqueue(CommandQueue.MAX_QUEUED);
+		assertTrue(rejected.failed);
+		assertEquals(CommandQueue.MAX_QUEUED, transmitter.sent.size());
+
+		// room again once one is answered
+		queue.onServerResponse(0, 0);
+		assertFalse(enqueue(CommandQueue.MAX_QUEUED + 1).finished());
+	}
+
+	@Test
+	public void answerWithoutRequestIDGoesToTheOldestSentCommand() {
+		Outcome first = enqueue(7);
+		Outcome second = enqueue(8);
+
+		assertSame(first.command, queue.onServerResponse(-1, 4));
+		assertEquals(4, first.responseCode);
+		assertFalse(second.finished());
+		assertSame(second.command, queue.onServerResponse(-1, 0));
+		assertNull(queue.onServerResponse(-1, 0));
+	}
+
+	private Outcome enqueue(int requestID) {
+		Outcome outcome = new Outcome();
+		outcome.command = queue.enqueue("test", requestID, "{}");
+		outcome.command.setCallback(outcome);
+		return outcome;
+	}
+
+	private final class Outcome implements PendingCommand.Callback {
+		PendingCommand command;
+		boolean completed;
+		boolean failed;
+		int responseCode;
+		long at;
+
+		boolean finished() {
+			return completed || failed;
+		}
+
+		@Override
+		public void onCompleted(PendingCommand command, int responseCode) {
+			completed = true;
+			this.responseCode = responseCode;
+			at = scheduler.now();
+		}
+
+		@Override
+		public void onFailed(PendingCommand command) {
+			failed = true;
+			at = scheduler.now();
+		}
+	}
+
+	// Writes down when each command went out, and fails the sends it's told to.
+	private final class FakeTransmitter implements CommandQueue.Transmitter {
+		final List<Long> sent = new ArrayList<Long>();
+		// how many of the next sends fail
+		int failing = 0;
+		// reports the failure to the queue before returning, as some transports do
+		boolean reportDuringSend = false;
+
+		@Override
+		public boolean transmit(PendingCommand command) {
+			sent.add(scheduler.now() - start);
+			if (failing == 0) {
+				return true;
+			}
+			--failing;
+			if (reportDuringSend) {
+				queue.onTransmitted(command, false);
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A scheduler whose clock only moves when a test moves it. Tasks run on the test's thread, in
+ * the order they fall due, from {@link #runDue()} and {@link #advance(long)}.
+ */
+final class FakeScheduler implements Scheduler {
+	private static final class Task {
+		final Runnable runnable;
+		final long due;
+
+		Task(Runnable runnable, long due) {
+			this.runnable = runnable;
+			this.due = due;
+		}
+	}
+
+	private final List<Task> tasks = new ArrayList<Task>();
+	private long now = 1000;
+
+	@Override
+	public void schedule(Runnable task, long delayMillis) {
+		tasks.add(new Task(task, now + delayMillis));
+	}
+
+	@Override
+	public void cancel(Runnable task) {
+		for (int i = tasks.size() - 1; i >= 0; --i) {
+			if (tasks.get(i).runnable == task) {
+				tasks.remove(i);
+			}
+		}
+	}
+
+	@Override
+	public long now() {
+		return now;
+	}
+
+	// Runs everything due by now, including tasks those schedule for now.
+	void runDue() {
+		Task next;
+		while ((next = nextDue()) != null) {
+			tasks.remove(next);
+			next.runnable.run();
+		}
+	}
+
+	// Moves the clock on, running each task when its time comes.
+	void advance(long millis) {
+		long until = now + millis;
+		runDue();
+		Task next;
+		while ((next = earliest()) != null && next.due <= until) {
+			now = next.due;
+			runDue();
+		}
+		now = until;
+	}
+
+	int pending() {
+		return tasks.size();
+	}
+
+	private Task nextDue() {
+		Task next = earliest();
+		return next != null && next.due <= now ? next : null;
+	}
+
+	// The first task to fall due; of those due at the same time, the first scheduled.
+	private Task earliest() {
+		Task earliest = null;
+		for (Task task : tasks) {
+			if (earliest == null || task.due < earliest.due) {
+				earliest = task;
+			}
+		}
+		return earliest;
+	}
+}
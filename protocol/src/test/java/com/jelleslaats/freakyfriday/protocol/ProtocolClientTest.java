@@ -0,0 +1,156 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Feeds the client numbered events as a receiver would send them, checking which get handled
+ * and what the client asks for when some don't.
+ */
+public class ProtocolClientTest {
+	private static final Gson GSON = new Gson();
+	private static final String DID_JOIN = "{\"type\":\"didJoin\",\"number\":3,\"sequencing\":\"seq2\",\"resumeToken\":\"t\"}";
+	private static final String ROUND_STARTED = "{\"type\":\"roundStarted\",\"prompt\":\"Why ____?\",\"numOfBlanks\":1}";
+	private static final String ROUND_ENDED = "{\"type\":\"roundEnded\"}";
+
+	private final FakeScheduler scheduler = new FakeScheduler();
+	private final List<String> sent = new ArrayList<String>();
+	private final Client client = new Client(sent, scheduler);
+
+	@Test
+	public void lateCopyOfDidJoinIsDropped() {
+		client.joinGame("Ann");
+		deliver(0, DID_JOIN);
+		deliver(1, ROUND_STARTED);
+		deliver(0, DID_JOIN);
+		deliver(2, ROUND_ENDED);
+
+		assertEquals(Arrays.asList("joined 3", "round Why ____? 1", "ended"), client.events);
+	}
+
+	@Test
+	public void eventThatFailsToDecodeIsCaughtUpFromScratch() {
+		client.joinGame("Ann");
+		deliver(0, DID_JOIN);
+		deliver(1, "{\"type\":\"roundStarted\",\"prompt\":");
+		scheduler.runDue();
+		JsonObject resync = lastSent();
+		assertEquals(ProtocolSchema.COMMAND_RESYNC, resync.get(ProtocolSchema.KEY_TYPE).getAsString());
+		// after NONE, the schema's default, so it's left out
+		assertFalse(resync.has(ProtocolSchema.KEY_RESYNC_AFTER));
+
+		// what comes after it waits for the catch-up, without asking again
+		int sentBefore = sent.size();
+		deliver(2, ROUND_ENDED);
+		scheduler.runDue();
+		assertEquals(sentBefore, sent.size());
+
+		deliver(3, DID_JOIN);
+		deliver(4, ROUND_STARTED);
+		assertEquals(Arrays.asList("joined 3", "joined 3", "round Why ____? 1"), client.events);
+	}
+
+	@Test
+	public void gapAsksForWhatWentMissing() {
+		client.joinGame("Ann");
+		deliver(0, DID_JOIN);
+		deliver(1, ROUND_STARTED);
+		deliver(3, ROUND_ENDED);
+		deliver(4, ROUND_ENDED);
+		scheduler.runDue();
+		assertEquals(1, resyncsSent());
+		assertEquals(1, lastSent().get(ProtocolSchema.KEY_RESYNC_AFTER).getAsInt());
+
+		deliver(2, ROUND_ENDED);
+		deliver(3, ROUND_STARTED);
+		assertEquals(Arrays.asList("joined 3", "round Why ____? 1", "ended", "round Why ____? 1"), client.events);
+	}
+
+	private void deliver(int seq, String event) {
+		client.onMessage(EventSequence.wrap(seq, event));
+	}
+
+	private JsonObject lastSent() {
+		return GSON.fromJson(sent.get(sent.size() - 1), JsonObject.class);
+	}
+
+	private int resyncsSent() {
+		int count = 0;
+		for (String message : sent) {
+			if (ProtocolSchema.COMMAND_RESYNC.equals(GSON.fromJson(message, JsonObject.class)
+					.get(ProtocolSchema.KEY_TYPE).getAsString())) {
+				++count;
+			}
+		}
+		return count;
+	}
+
+	// Keeps what it sends and writes down every event it handles.
+	private static final class Client extends ProtocolClient {
+		final List<String> events = new ArrayList<String>();
+
+		Client(final List<String> sent, Scheduler scheduler) {
+			super(new LoopbackTransport(new LoopbackTransport.Receiver() {
+				@Override
+				public void onMessage(String message, LoopbackTransport transport) {
+					sent.add(message);
+				}
+			}), scheduler);
+		}
+
+		@Override
+		protected void onPlayerQueued() {
+			events.add("queued");
+		}
+
+		@Override
+		protected void onPlayerJoined(int newID) {
+			events.add("joined " + newID);
+		}
+
+		@Override
+		protected void onJudgeModeStarted() {
+			events.add("judging");
+		}
+
+		@Override
+		protected void onGameSync(int playerID, int handVersion, Card[] hand, int newJudge) {
+			events.add("sync " + playerID);
+		}
+
+		@Override
+		protected void onHandDelta(int playerID, int baseVersion, int handVersion, Card[] added, int[] removedIDs,
+				int newJudge) {
+			events.add("delta " + playerID);
+		}
+
+		@Override
+		protected void onJudgeResponses(Response[] responses) {
+			events.add("responses " + responses.length);
+		}
+
+		@Override
+		protected void onRoundStarted(String newPrompt, int numOfBlanks, boolean submitted) {
+			events.add("round " + newPrompt + " " + numOfBlanks + (submitted ? " submitted" : ""));
+		}
+
+		@Override
+		protected void onRoundEnded() {
+			events.add("ended");
+		}
+
+		@Override
+		protected void onServerError(int errorCode) {
+			events.add("error " + errorCode);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package com.jelleslaats.freakyfriday.protocol;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SequenceTrackerTest {
+	@Test
+	public void appliesInOrderAndDropsRepeats() {
+		SequenceTracker tracker = new SequenceTracker();
+		apply(tracker, 0, true);
+		apply(tracker, 1, false);
+		apply(tracker, 2, false);
+		assertEquals(SequenceTracker.DUPLICATE, tracker.check(1, false));
+		assertEquals(SequenceTracker.DUPLICATE, tracker.check(2, false));
+		assertEquals(2, tracker.last());
+	}
+
+	@Test
+	public void lateCopyOfTheFirstEventIsADuplicate() {
+		SequenceTracker tracker = new SequenceTracker();
+		apply(tracker, 0, true);
+		apply(tracker, 1, false);
+		apply(tracker, 2, false);
+
+		assertEquals(SequenceTracker.DUPLICATE, tracker.check(0, true));
+		assertEquals(SequenceTracker.DUPLICATE, tracker.check(0, false));
+		assertEquals(2, tracker.last());
+		apply(tracker, 3, false);
+	}
+
+	@Test
+	public void didJoinNumberedOnStartsANewSequence() {
+		SequenceTracker tracker = new SequenceTracker();
+		apply(tracker, 0, true);
+		apply(tracker, 1, false);
+
+		// a catch-up after events 2 to 6 went missing
+		apply(tracker, 7, true);
+		apply(tracker, 8, false);
+		assertEquals(SequenceTracker.DUPLICATE, tracker.check(5, false));
+		// only a didJoin may skip ahead
+		assertEquals(SequenceTracker.GAP, tracker.check(10, false));
+		assertEquals(8, tracker.last());
+	}
+
+	@Test
+	public void afterJoiningTheNextDidJoinStartsOverFromAnyNumber() {
+		SequenceTracker tracker = new SequenceTracker();
+		apply(tracker, 0, true);
+		apply(tracker, 1, false);
+		apply(tracker, 2, false);
+
+		tracker.expectNewSequence();
+		// whatever else is still on its way doesn't count
+		assertEquals(SequenceTracker.DUPLICATE, tracker.check(1, false));
+		apply(tracker, 0, true);
+		apply(tracker, 1, false);
+		// and once the new sequence started, its didJoin is a duplicate again
+		assertEquals(SequenceTracker.DUPLICATE, tracker.check(0, true));
+		assertEquals(1, tracker.last());
+	}
+
+	@Test
+	public void nothingCountsUntilApplied() {
+		SequenceTracker tracker = new SequenceTracker();
+		apply(tracker, 0, true);
+
+		// checked, but it didn't decode
+		assertEquals(SequenceTracker.APPLY, tracker.check(1, false));
+		assertEquals(0, tracker.last());
+		assertEquals(SequenceTracker.APPLY, tracker.check(1, false));
+		assertEquals(SequenceTracker.GAP, tracker.check(2, false));
+	}
+
+	@Test
+	public void asksForEachGapOnce() {
+		SequenceTracker tracker = new SequenceTracker();
+		apply(tracker, 0, true);
+		apply(tracker, 1, false);
+
+		assertEquals(SequenceTracker.GAP, tracker.check(3, false));
+		assertTrue(tracker.shouldRequestResync(1));
+		assertEquals(SequenceTracker.GAP, tracker.check(4, false));
+		assertFalse(tracker.shouldRequestResync(1));
+
+		apply(tracker, 2, false);
+		assertEquals(SequenceTracker.GAP, tracker.check(5, false));
+		assertTrue(tracker.shouldRequestResync(2));
+	}
+
+	@Test
+	public void catchUpCoversEveryGapUntilSomethingApplies() {
+		SequenceTracker tracker = new SequenceTracker();
+		apply(tracker, 0, true);
+
+		assertTrue(tracker.shouldRequestResync(EventSequence.NONE));
+		assertFalse(tracker.shouldRequestResync(EventSequence.NONE));
+		assertFalse(tracker.shouldRequestResync(0));
+
+		apply(tracker, 5, true);
+		assertTrue(tracker.shouldRequestResync(EventSequence.NONE));
+	}
+
+	private static void apply(SequenceTracker tracker, int seq, boolean startsSequence) {
+		assertEquals(SequenceTracker.APPLY, tracker.check(seq, startsSequence));
+		tracker.applied(seq, startsSequence);
+	}
+}